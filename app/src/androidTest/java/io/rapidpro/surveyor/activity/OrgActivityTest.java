@@ -129,11 +129,11 @@ public class OrgActivityTest extends BaseApplicationTest {
         Flow flow1 = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
 
         SubmissionService svc = getSurveyor().getSubmissionService();
-        Submission sub1 = svc.newSubmission(org, flow1);
+        Submission sub1 = svc.addSubmission(org, flow1);
         sub1.complete();
-        Submission sub2 = svc.newSubmission(org, flow1);
+        Submission sub2 = svc.addSubmission(org, flow1);
         sub2.complete();
-        svc.newSubmission(org, flow1);
+        svc.addSubmission(org, flow1);
 
         Intent intent = new Intent();
         intent.putExtra(SurveyorIntent.EXTRA_ORG_UUID, ORG_UUID);
@@ -152,11 +152,11 @@ public class OrgActivityTest extends BaseApplicationTest {
         Flow flow1 = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
 
         SubmissionService svc = getSurveyor().getSubmissionService();
-        Submission sub1 = svc.newSubmission(org, flow1);
+        Submission sub1 = svc.addSubmission(org, flow1);
         sub1.complete();
-        Submission sub2 = svc.newSubmission(org, flow1);
+        Submission sub2 = svc.addSubmission(org, flow1);
         sub2.complete();
-        svc.newSubmission(org, flow1);
+        svc.addSubmission(org, flow1);
 
         Intent intent = new Intent();
         intent.putExtra(SurveyorIntent.EXTRA_ORG_UUID, ORG_UUID);
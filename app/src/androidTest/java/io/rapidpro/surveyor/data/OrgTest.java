@@ -0,0 +1,102 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.rapidpro.surveyor.engine.Engine;
+import io.rapidpro.surveyor.test.BaseApplicationTest;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+public class OrgTest extends BaseApplicationTest {
+    private static final String ORG_UUID = "b2ad9e4d-71f1-4d54-8dd6-f7a94b685d06";
+
+    @Test
+    public void refresh() throws Exception {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, 0, 0);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        assertThat(org.hasAssets(), is(false));
+
+        mockRefreshResponses();
+
+        org.refresh(true, new Org.RefreshProgress() {
+            @Override
+            public void reportProgress(int percent) {
+            }
+        });
+
+        assertThat(org.hasAssets(), is(true));
+        assertThat(org.hasAssetShards(), is(true));
+        assertThat(org.getFlows(), hasSize(3));
+
+        // flow compatibility is checked at refresh time
+        for (Flow flow : org.getFlows()) {
+            assertThat(flow.getCompatibility(), is(Flow.Compatibility.SUPPORTED));
+            assertThat(flow.getCheckedSpecVersion(), is(Engine.currentSpecVersion().getValue()));
+        }
+
+        // assets are written to a new generation which is then made current
+        File assetsDir = new File(org.getDirectory(), "assets");
+        String generation = FileUtils.readFileToString(new File(assetsDir, "CURRENT"));
+        assertThat(Long.parseLong(generation), is(org.getAssetsGeneration()));
+
+        File generationDir = new File(assetsDir, generation);
+        assertThat(new File(generationDir, "fields.json").exists(), is(true));
+        assertThat(new File(generationDir, "groups.json").exists(), is(true));
+        assertThat(new File(generationDir, "locations.json").exists(), is(true));
+        assertThat(new File(generationDir, "flows.json").exists(), is(true));
+        assertThat(new File(generationDir, "flows/bdd61538-5f50-4836-a8fb-acaafd64ddb1.json").exists(), is(true));
+        assertThat(new File(org.getDirectory(), "assets.json").exists(), is(false));
+        assertThat(new File(org.getDirectory(), "flows.json").exists(), is(false));
+
+        // assets for a single flow only include that flow
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+        String flowAssets = org.getAssets(flow);
+        assertThat(flowAssets, containsString("bdd61538-5f50-4836-a8fb-acaafd64ddb1"));
+        assertThat(flowAssets, not(containsString("ed8cf8d4-a42c-4ce1-a7e3-44a2918e3cec")));
+        assertThat(flowAssets, containsString("\"gender\""));
+
+        // but all assets include every flow
+        String allAssets = org.getAssets();
+        assertThat(allAssets, containsString("bdd61538-5f50-4836-a8fb-acaafd64ddb1"));
+        assertThat(allAssets, containsString("ed8cf8d4-a42c-4ce1-a7e3-44a2918e3cec"));
+
+        // refreshing again publishes a new generation, and the old one is deleted once it's unused
+        mockRefreshResponses();
+
+        org.refresh(true, new Org.RefreshProgress() {
+            @Override
+            public void reportProgress(int percent) {
+            }
+        });
+
+        String newGeneration = FileUtils.readFileToString(new File(assetsDir, "CURRENT"));
+        assertThat(newGeneration, is(not(generation)));
+        assertThat(generationDir.exists(), is(false));
+        assertThat(org.getFlows(), hasSize(3));
+
+        // and an org loaded again reads its flows from the current generation
+        getSurveyor().getOrgService().clearCache();
+        Org reloaded = getSurveyor().getOrgService().get(ORG_UUID);
+        assertThat(reloaded.getFlows(), hasSize(3));
+        assertThat(reloaded.getAssetsGeneration(), is(Long.parseLong(newGeneration)));
+    }
+
+    private void mockRefreshResponses() throws IOException {
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_org_get, "application/json", 200);
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_fields_get_page_1, "application/json", 200);
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_fields_get_page_2, "application/json", 200);
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_groups_get, "application/json", 200);
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_flows_get, "application/json", 200);
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_definitions_get_v13, "application/json", 200);
+        mockServerResponse(io.rapidpro.surveyor.test.R.raw.api_v2_boundaries_get, "application/json", 200);
+    }
+}
@@ -0,0 +1,136 @@
+package io.rapidpro.surveyor.data;
+
+import com.google.gson.JsonParser;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.rapidpro.surveyor.test.BaseApplicationTest;
+import io.rapidpro.surveyor.test.R;
+import io.rapidpro.surveyor.utils.JsonDelta;
+import io.rapidpro.surveyor.utils.SurveyUtils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+public class SQLiteSubmissionStoreTest extends BaseApplicationTest {
+    private static final String ORG_UUID = "b2ad9e4d-71f1-4d54-8dd6-f7a94b685d06";
+
+    @Test
+    public void migrateFromDirectories() throws Exception {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("e54809ba-2f28-439b-b90b-c623eafa05ae");
+
+        // make a completed submission in the directory layout
+        File rootDir = SurveyUtils.mkdir(getSurveyor().getUserDirectory(), "test_db_submissions");
+        File directory = SurveyUtils.mkdir(rootDir, org.getUuid(), flow.getUuid(), "e878865e-c1d1-45a5-9216-b0303ed23c7e");
+        copyResource(R.raw.submission2_events, new File(directory, "events.jsonl"));
+        copyResource(R.raw.submission2_modifiers, new File(directory, "modifiers.jsonl"));
+        copyResource(R.raw.submission2_session, new File(directory, "session.json"));
+        copyResource(R.raw.capture_image, new File(directory, "media/2e4fe2fc-470d-4009-9b51-f93ae5b59199.jpg"));
+
+        List<String> events = FileUtils.readLines(new File(directory, "events.jsonl"));
+        Submission legacy = new Submission(org, directory);
+        legacy.complete();
+        String session = legacy.readSession();
+
+        SQLiteSubmissionStore store = new SQLiteSubmissionStore(getSurveyor(), rootDir);
+        try {
+            final List<Integer> progress = new ArrayList<>();
+            store.migrate(new SQLiteSubmissionStore.MigrationProgress() {
+                @Override
+                public void reportProgress(int percent) {
+                    progress.add(percent);
+                }
+            });
+            assertThat(progress, is(Arrays.asList(100)));
+
+            SubmissionService svc = new SubmissionService(rootDir, store);
+            assertThat(svc.getCompletedCount(org, flow), is(1));
+
+            Submission migrated = svc.getCompleted(org, flow).next();
+            assertThat(migrated.getUuid(), is("e878865e-c1d1-45a5-9216-b0303ed23c7e"));
+            assertThat(migrated.readSession(), is(session));
+            assertThat(store.readEvents(migrated), is(events));
+
+            // only the media is left on disk, where the URIs in the events point to it
+            assertThat(new File(directory, "session.json").exists(), is(false));
+            assertThat(new File(directory, "media/2e4fe2fc-470d-4009-9b51-f93ae5b59199.jpg").exists(), is(true));
+
+            migrated.delete();
+            assertThat(svc.getCompletedCount(org, flow), is(0));
+            assertThat(directory.exists(), is(false));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void recoverFromCheckpoint() throws Exception {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+
+        File rootDir = SurveyUtils.mkdir(getSurveyor().getUserDirectory(), "test_db_submissions");
+        SQLiteSubmissionStore store = new SQLiteSubmissionStore(getSurveyor(), rootDir);
+        try {
+            Submission sub = store.create(org, "bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+            assertThat(store.hasSession(sub), is(false));
+
+            store.appendEvents(sub, Arrays.asList("{\"type\":\"msg_created\"}", "{\"type\":\"msg_wait\"}"));
+            store.checkpointSession(sub, "{\"status\":\"waiting\"}", false);
+            assertThat(store.hasSession(sub), is(true));
+
+            String session1 = "{\"status\":\"waiting\",\"runs\":[{\"path\":[1]}]}";
+            String session2 = "{\"status\":\"waiting\",\"runs\":[{\"path\":[1,2]}]}";
+            String session3 = "{\"status\":\"waiting\",\"runs\":[{\"path\":[1,2,3]}]}";
+            store.checkpointSession(sub, session1, false);
+
+            List<String> events1 = Arrays.asList("{\"type\":\"msg_received\",\"text\":\"club\"}");
+            assertThat(store.saveInput(sub, new SessionJournal.Input("club", null, new ArrayList<String>(), events1, delta(session1, session2)), false), is(1));
+            store.appendEvents(sub, events1);
+
+            // the app is killed after the next input is journaled but before its events are written
+            List<String> events2 = Arrays.asList("{\"type\":\"msg_received\",\"text\":\"RED\"}");
+            List<String> modifiers2 = Arrays.asList("{\"type\":\"name\"}");
+            assertThat(store.saveInput(sub, new SessionJournal.Input("RED", "image/jpeg:red.jpg", modifiers2, events2, delta(session2, session3)), false), is(2));
+
+            // the session is restored as it was, along with the events and modifiers journaled with each input
+            List<SessionJournal.Input> unsaved = new ArrayList<>();
+            assertThat(store.recoverSession(sub, unsaved), is(session3));
+            assertThat(unsaved, hasSize(0));
+            assertThat(store.readEvents(sub), hasSize(4));
+            assertThat(store.readEvents(sub).get(3), is(events2.get(0)));
+            assertThat(store.readModifiers(sub), is(modifiers2));
+
+            // the journal is left as it was, so recovering again gives the same result
+            assertThat(store.recoverSession(sub, unsaved), is(session3));
+            assertThat(store.readEvents(sub), hasSize(4));
+
+            // an input journaled without the change it made to the session is returned to be run again
+            List<String> events3 = Arrays.asList("{\"type\":\"msg_received\",\"text\":\"blue\"}");
+            assertThat(store.saveInput(sub, new SessionJournal.Input("blue", null, new ArrayList<String>(), events3, null), false), is(3));
+            store.appendEvents(sub, events3);
+
+            assertThat(store.recoverSession(sub, unsaved), is(session3));
+            assertThat(unsaved, hasSize(1));
+            assertThat(unsaved.get(0).getText(), is("blue"));
+            assertThat(store.readEvents(sub), hasSize(4));
+
+            store.saveSession(sub, "{\"status\":\"completed\"}");
+            assertThat(store.recoverSession(sub, new ArrayList<SessionJournal.Input>()), is("{\"status\":\"completed\"}"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static String delta(String from, String to) {
+        return JsonDelta.diff(new JsonParser().parse(from), new JsonParser().parse(to)).toString();
+    }
+}
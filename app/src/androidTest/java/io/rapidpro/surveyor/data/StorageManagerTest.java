@@ -0,0 +1,73 @@
+package io.rapidpro.surveyor.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import io.rapidpro.surveyor.test.BaseApplicationTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+public class StorageManagerTest extends BaseApplicationTest {
+    private static final String ORG_UUID = "b2ad9e4d-71f1-4d54-8dd6-f7a94b685d06";
+
+    @After
+    public void resetQuota() {
+        getSurveyor().onStorageQuotaChanged();
+    }
+
+    @Test
+    public void trim() throws IOException {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, io.rapidpro.surveyor.test.R.raw.org1_flows, io.rapidpro.surveyor.test.R.raw.org1_assets);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        SubmissionService svc = getSurveyor().getSubmissionService();
+        Submission sub = svc.addSubmission(org, flow);
+        sub.saveMedia(new byte[]{1, 2, 3}, "jpg");
+
+        List<File> media = sub.getStore().getMedia(sub);
+        assertThat(media, hasSize(1));
+        File blob = media.get(0);
+
+        StorageManager storage = getSurveyor().getStorageManager();
+        StorageManager.Usage usage = storage.getUsage();
+        assertThat(usage.getMedia(), is(3L));
+        assertThat(usage.getAssets().get(ORG_UUID), is(greaterThan(0L)));
+
+        // nothing is evicted while we're within our quota
+        storage.setQuota(0);
+        assertThat(storage.trim(0, Collections.<String>emptySet()), is(0L));
+
+        // media can't be evicted until it's been uploaded
+        storage.setQuota(1);
+        storage.trim(0, Collections.<String>emptySet());
+        assertThat(blob.exists(), is(true));
+
+        // nor while a submission which hasn't been sent still refers to it
+        svc.getMediaStore().setUploadedUrl(blob, "http://uploads.rapidpro.io/1.jpg");
+        storage.trim(0, Collections.<String>emptySet());
+        assertThat(blob.exists(), is(true));
+
+        // the org still has a draft so its assets are kept
+        assertThat(org.getDirectory().exists(), is(true));
+
+        sub.delete();
+        assertThat(blob.exists(), is(false));
+
+        // as are those of orgs the user still has access to
+        storage.trim(0, Collections.singleton(ORG_UUID));
+        assertThat(org.getDirectory().exists(), is(true));
+
+        storage.trim(0, Collections.<String>emptySet());
+        assertThat(org.getDirectory().exists(), is(false));
+    }
+}
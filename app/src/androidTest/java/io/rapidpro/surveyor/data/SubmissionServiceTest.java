@@ -1,15 +1,21 @@
 package io.rapidpro.surveyor.data;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.test.BaseApplicationTest;
 
+import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
@@ -27,16 +33,16 @@ public class SubmissionServiceTest extends BaseApplicationTest {
 
         SubmissionService svc = getSurveyor().getSubmissionService();
 
-        Submission sub1 = svc.newSubmission(org, flow1);
+        Submission sub1 = svc.addSubmission(org, flow1);
         sub1.complete();
 
         assertThat(sub1.isCompleted(), is(true));
 
-        Submission sub2 = svc.newSubmission(org, flow1);
+        Submission sub2 = svc.addSubmission(org, flow1);
         sub2.complete();
-        Submission sub3 = svc.newSubmission(org, flow2);
+        Submission sub3 = svc.addSubmission(org, flow2);
         sub3.complete();
-        Submission sub4 = svc.newSubmission(org, flow2);
+        Submission sub4 = svc.addSubmission(org, flow2);
 
         assertThat(sub1.getOrg(), is(org));
         assertThat(sub2.getOrg(), is(org));
@@ -52,11 +58,13 @@ public class SubmissionServiceTest extends BaseApplicationTest {
         File flow1Dir = new File(orgDir, "bdd61538-5f50-4836-a8fb-acaafd64ddb1");
         assertThat(flow1Dir.exists(), is(true));
 
-        File sub1Dir = new File(flow1Dir, sub1.getUuid());
+        // submissions are sharded by the day they were created, and packed once completed
+        File bucketDir = new File(flow1Dir, DirectorySubmissionStore.bucketFor(System.currentTimeMillis()));
+        File sub1Dir = new File(bucketDir, sub1.getUuid());
 
         Logger.d("Checking " + sub1Dir.getAbsolutePath() + "  ....");
 
-        assertThat(sub1Dir.exists(), is(true));
+        assertThat(new File(bucketDir, sub1.getUuid() + ".zip").exists(), is(true));
 
         assertThat(sub1.getDirectory(), is(sub1Dir));
 
@@ -66,13 +74,172 @@ public class SubmissionServiceTest extends BaseApplicationTest {
         assertThat(svc.getCompletedCount(org, flow3), is(0));
         assertThat(svc.hasSubmissions(), is(true));
 
-        List<Submission> pending = svc.getCompleted(org);
+        List<File> pending = new ArrayList<>();
+        Iterator<Submission> completed = svc.getCompleted(org);
+        while (completed.hasNext()) {
+            pending.add(completed.next().getDirectory());
+        }
         assertThat(pending, is(hasSize(3)));
-
-        assertThat(pending.get(0).getDirectory(), is(sub1Dir));
+        assertThat(pending, hasItem(sub1Dir));
 
         svc.clearAll();
 
         assertThat(svc.hasSubmissions(), is(false));
     }
+
+    @Test
+    public void getCompletedInPages() throws IOException {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, io.rapidpro.surveyor.test.R.raw.org1_flows, io.rapidpro.surveyor.test.R.raw.org1_assets);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        File rootDir = new File(getSurveyor().getUserDirectory(), "test_paged_submissions");
+        DirectorySubmissionStore store = new DirectorySubmissionStore(rootDir);
+        SubmissionService svc = new SubmissionService(rootDir, store);
+
+        for (int s = 0; s < 5; s++) {
+            svc.addSubmission(org, flow).complete();
+        }
+        Submission draft = svc.addSubmission(org, flow);
+
+        // submissions can be sent, and so deleted, as they're read a page at a time
+        Iterator<Submission> completed = new SubmissionIterator(store, null, null, org, Collections.singletonList(flow.getUuid()), 2);
+        int sent = 0;
+        while (completed.hasNext()) {
+            Submission submission = completed.next();
+            assertThat(submission.isCompleted(), is(true));
+            submission.delete();
+            sent++;
+        }
+        assertThat(sent, is(5));
+
+        assertThat(store.getAll(org, flow.getUuid()), hasSize(1));
+        assertThat(store.get(org, flow.getUuid(), draft.getUuid()).getDirectory(), is(draft.getDirectory()));
+
+        FileUtils.deleteDirectory(rootDir);
+    }
+
+    @Test
+    public void getCounts() throws IOException {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, io.rapidpro.surveyor.test.R.raw.org1_flows, io.rapidpro.surveyor.test.R.raw.org1_assets);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow1 = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+        Flow flow2 = org.getFlow("ed8cf8d4-a42c-4ce1-a7e3-44a2918e3cec");
+
+        SubmissionService svc = getSurveyor().getSubmissionService();
+
+        Submission sub1 = svc.addSubmission(org, flow1);
+        copyResource(io.rapidpro.surveyor.test.R.raw.submission2_session, new File(sub1.getDirectory(), "session.json"));
+        sub1.complete();
+        Submission sub2 = svc.addSubmission(org, flow1);
+        svc.addSubmission(org, flow2);
+
+        SubmissionIndex.Counts counts = svc.getCounts(org, flow1);
+        assertThat(counts.getDraft(), is(1));
+        assertThat(counts.getCompleted(), is(1));
+        assertThat(counts.getBytes() > 0, is(true));
+        assertThat(svc.getCounts(org).getDraft(), is(2));
+
+        sub2.delete();
+        assertThat(svc.getCounts(org, flow1).getDraft(), is(0));
+
+        // a corrupted index is rebuilt from disk
+        FileUtils.writeStringToFile(new File(new File(getSurveyor().getUserDirectory(), "test_submissions"), "index.json"), "{\"flo");
+        svc.clearCache();
+
+        counts = svc.getCounts(org, flow1);
+        assertThat(counts.getDraft(), is(0));
+        assertThat(counts.getCompleted(), is(1));
+        assertThat(counts.getBytes() > 0, is(true));
+        assertThat(svc.getCounts(org, flow2).getDraft(), is(1));
+
+        sub1.delete();
+        assertThat(svc.getCounts(org, flow1).getCompleted(), is(0));
+        assertThat(svc.getCounts(org, flow1).getBytes(), is(0L));
+    }
+
+    @Test
+    public void getIncomplete() throws IOException {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, io.rapidpro.surveyor.test.R.raw.org1_flows, io.rapidpro.surveyor.test.R.raw.org1_assets);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        SubmissionService svc = getSurveyor().getSubmissionService();
+
+        // a submission which hasn't saved a session can't be resumed
+        Submission sub1 = svc.addSubmission(org, flow);
+        assertThat(svc.getIncomplete(org, flow), hasSize(0));
+
+        copyResource(io.rapidpro.surveyor.test.R.raw.submission2_session, new File(sub1.getDirectory(), "session.json"));
+
+        List<Submission> incomplete = svc.getIncomplete(org, flow);
+        assertThat(incomplete, hasSize(1));
+        assertThat(incomplete.get(0).getDirectory(), is(sub1.getDirectory()));
+        assertThat(svc.get(org, flow, sub1.getUuid()).getDirectory(), is(sub1.getDirectory()));
+
+        // nor can one that's been completed
+        sub1.complete();
+        assertThat(svc.getIncomplete(org, flow), hasSize(0));
+
+        // drafts are found from the run registry, which is rebuilt from the store if it's lost
+        Submission sub2 = svc.addSubmission(org, flow);
+        copyResource(io.rapidpro.surveyor.test.R.raw.submission2_session, new File(sub2.getDirectory(), "session.json"));
+        FileUtils.forceDelete(new File(new File(getSurveyor().getUserDirectory(), "test_submissions"), "runs.json"));
+        svc.clearCache();
+
+        assertThat(svc.getIncomplete(org, flow).get(0).getUuid(), is(sub2.getUuid()));
+
+        // all drafts can be resumed, and each keeps its respondent number as others are discarded
+        Submission sub3 = svc.addSubmission(org, flow);
+        copyResource(io.rapidpro.surveyor.test.R.raw.submission2_session, new File(sub3.getDirectory(), "session.json"));
+        Submission sub4 = svc.addSubmission(org, flow);
+        copyResource(io.rapidpro.surveyor.test.R.raw.submission2_session, new File(sub4.getDirectory(), "session.json"));
+
+        assertThat(svc.getIncomplete(org, flow), hasSize(3));
+        assertThat(sub2.getRespondentNumber(), is(1));
+        assertThat(sub3.getRespondentNumber(), is(2));
+        assertThat(sub4.getRespondentNumber(), is(3));
+
+        sub3.delete();
+        assertThat(svc.getIncomplete(org, flow), hasSize(2));
+        assertThat(sub2.getRespondentNumber(), is(1));
+        assertThat(sub4.getRespondentNumber(), is(3));
+        assertThat(svc.addSubmission(org, flow).getRespondentNumber(), is(4));
+        assertThat(svc.get(org, flow, sub1.getUuid()).isCompleted(), is(true));
+
+        assertThat(svc.get(org, flow, "2c1ab1de-8a61-48b3-8c2f-6ccf4bd1cb06"), is(nullValue()));
+    }
+
+    @Test
+    public void deletesAbandonedDrafts() throws IOException {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, io.rapidpro.surveyor.test.R.raw.org1_flows, io.rapidpro.surveyor.test.R.raw.org1_assets);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        File rootDir = new File(getSurveyor().getUserDirectory(), "test_abandoned_submissions");
+        SubmissionService svc = new SubmissionService(rootDir, new DirectorySubmissionStore(rootDir));
+
+        Submission started = svc.addSubmission(org, flow);
+        copyResource(io.rapidpro.surveyor.test.R.raw.submission2_session, new File(started.getDirectory(), "session.json"));
+        Submission starting = svc.addSubmission(org, flow);
+
+        // a draft whose session is still being started is left alone
+        assertThat(svc.getIncomplete(org, flow), hasSize(1));
+        assertThat(svc.get(org, flow, starting.getUuid()).getUuid(), is(starting.getUuid()));
+        assertThat(svc.getCounts(org, flow).getDraft(), is(2));
+
+        // but one left without a session by an earlier process, e.g. killed during start up, is deleted
+        svc = new SubmissionService(rootDir, new DirectorySubmissionStore(rootDir));
+
+        assertThat(svc.getIncomplete(org, flow), hasSize(1));
+        assertThat(svc.get(org, flow, starting.getUuid()), is(nullValue()));
+        assertThat(svc.get(org, flow, started.getUuid()).getUuid(), is(started.getUuid()));
+        assertThat(svc.getCounts(org, flow).getDraft(), is(1));
+
+        FileUtils.deleteDirectory(rootDir);
+    }
 }
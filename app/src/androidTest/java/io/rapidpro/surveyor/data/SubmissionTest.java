@@ -6,7 +6,9 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
+import io.rapidpro.surveyor.engine.Event;
 import io.rapidpro.surveyor.net.TembaException;
 import io.rapidpro.surveyor.test.BaseApplicationTest;
 import io.rapidpro.surveyor.test.R;
@@ -17,6 +19,7 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
 public class SubmissionTest extends BaseApplicationTest {
@@ -43,6 +46,13 @@ public class SubmissionTest extends BaseApplicationTest {
         sub.complete();
         assertThat(sub.isCompleted(), is(true));
 
+        // once completed, it's packed into a single archive which is read from when submitting
+        File archive = new File(directory.getParentFile(), directory.getName() + ".zip");
+        assertThat(archive.exists(), is(true));
+        assertThat(directory.exists(), is(false));
+        assertThat(sub.hasSession(), is(true));
+        assertThat(sub.readEvents(), hasSize(17));
+
         mockServerResponse("{\"location\":\"http://uploads.rapidpro.io/0cce52d1.jpg\"}", "application/json", 200);
         mockServerResponse("{\"location\":\"http://uploads.rapidpro.io/6c519989.mp4\"}", "application/json", 200);
         mockServerResponse("{\"location\":\"http://uploads.rapidpro.io/fce55c47.m4a\"}", "application/json", 200);
@@ -51,7 +61,7 @@ public class SubmissionTest extends BaseApplicationTest {
         sub.submit();
 
         assertThat(sub.getDirectory(), is(nullValue()));
-        assertThat(directory.exists(), is(false));
+        assertThat(archive.exists(), is(false));
 
         // we have 3 posts to upload media
         RecordedRequest request1 = mockServer.takeRequest();
@@ -85,7 +95,7 @@ public class SubmissionTest extends BaseApplicationTest {
 
         SubmissionService svc = getSurveyor().getSubmissionService();
 
-        Submission sub = svc.newSubmission(org, flow1);
+        Submission sub = svc.addSubmission(org, flow1);
         File directory = sub.getDirectory();
 
         copyResource(R.raw.submission3_events, new File(directory, "events.jsonl"));
@@ -103,4 +113,29 @@ public class SubmissionTest extends BaseApplicationTest {
         RecordedRequest request = mockServer.takeRequest();
         assertThat(request.getRequestLine(), is("POST /mr/surveyor/submit HTTP/1.1"));
     }
+
+    @Test
+    public void readSessionAndEvents() throws IOException {
+        installOrg(ORG_UUID, io.rapidpro.surveyor.test.R.raw.org1_details, io.rapidpro.surveyor.test.R.raw.org1_flows, io.rapidpro.surveyor.test.R.raw.org1_assets);
+
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("e54809ba-2f28-439b-b90b-c623eafa05ae");
+
+        Submission sub = getSurveyor().getSubmissionService().addSubmission(org, flow);
+        assertThat(sub.hasSession(), is(false));
+        assertThat(sub.readEvents(), hasSize(0));
+
+        copyResource(R.raw.submission2_events, new File(sub.getDirectory(), "events.jsonl"));
+        copyResource(R.raw.submission2_session, new File(sub.getDirectory(), "session.json"));
+
+        assertThat(sub.hasSession(), is(true));
+        assertThat(sub.readSession(), containsString("e54809ba-2f28-439b-b90b-c623eafa05ae"));
+
+        List<Event> events = sub.readEvents();
+        assertThat(events, hasSize(17));
+        assertThat(events.get(0).type(), is("msg_created"));
+        assertThat(events.get(0).getMsgText(), is("Hi there, please send a selfie"));
+        assertThat(events.get(2).type(), is("msg_received"));
+        assertThat(events.get(2).getMsgAttachments().get(0), containsString("image/jpeg:content://"));
+    }
 }
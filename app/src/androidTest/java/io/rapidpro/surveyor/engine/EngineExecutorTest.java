@@ -0,0 +1,115 @@
+package io.rapidpro.surveyor.engine;
+
+import com.nyaruka.goflow.mobile.SessionAssets;
+import com.nyaruka.goflow.mobile.Trigger;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.rapidpro.surveyor.data.Flow;
+import io.rapidpro.surveyor.data.Org;
+import io.rapidpro.surveyor.test.BaseApplicationTest;
+import io.rapidpro.surveyor.test.R;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class EngineExecutorTest extends BaseApplicationTest {
+    private static final String ORG_UUID = "b2ad9e4d-71f1-4d54-8dd6-f7a94b685d06";
+
+    @Test
+    public void callsAreMadeInOrder() throws Exception {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        final Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        final Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        EngineExecutor executor = EngineExecutor.getInstance();
+
+        Future<Pair<Session, Sprint>> started = executor.submit(new Callable<Pair<Session, Sprint>>() {
+            @Override
+            public Pair<Session, Sprint> call() throws Exception {
+                SessionAssetsCache cache = SessionAssetsCache.getInstance();
+                SessionAssets assets = cache.get(org, flow);
+                Trigger trigger = Engine.createManualTrigger(cache.getEnvironment(org), Contact.createEmpty(assets), flow.toReference());
+                return Engine.getInstance().newSession(assets, trigger);
+            }
+        });
+
+        Session session = started.get().getLeft();
+        assertThat(session.isWaiting(), is(true));
+        assertThat(started.get().getRight().getEvents(), hasSize(2));
+
+        // calls are made in the order they are queued
+        Future<Sprint> sprint1 = executor.submit(resumeWith(session, "club"));
+        Future<Sprint> sprint2 = executor.submit(resumeWith(session, "RED"));
+
+        assertThat(sprint1.get().getEvents(), hasSize(4));
+        assertThat(sprint2.get().getEvents(), hasSize(3));
+        assertThat(session.getStatus(), is("completed"));
+
+        final List<Integer> order = new ArrayList<>();
+        for (int c = 0; c < 5; c++) {
+            final int call = c;
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    order.add(call);
+                    return null;
+                }
+            });
+        }
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }).get();
+
+        assertThat(order, contains(0, 1, 2, 3, 4));
+    }
+
+    @Test
+    public void failuresAreReturned() throws Exception {
+        Future<Void> failed = EngineExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new EngineException(new Exception("boom"));
+            }
+        });
+
+        try {
+            failed.get();
+            fail("expected call to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(EngineException.class)));
+        }
+
+        // and the queue carries on
+        Future<String> next = EngineExecutor.getInstance().submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "ok";
+            }
+        });
+        assertThat(next.get(), is("ok"));
+    }
+
+    private static Callable<Sprint> resumeWith(final Session session, final String text) {
+        return new Callable<Sprint>() {
+            @Override
+            public Sprint call() throws Exception {
+                return session.resume(Engine.createMsgResume(null, null, Engine.createMsgIn(text)));
+            }
+        };
+    }
+}
@@ -44,6 +44,14 @@ public class EngineTest extends BaseApplicationTest {
         assertThat(Engine.isSpecVersionSupported("14.0"), is(false));
     }
 
+    @Test
+    public void checkCompatibility() {
+        assertThat(Engine.checkCompatibility("10.0"), is(Flow.Compatibility.NEEDS_REFRESH));
+        assertThat(Engine.checkCompatibility("12.0"), is(Flow.Compatibility.NEEDS_REFRESH));
+        assertThat(Engine.checkCompatibility("13.0"), is(Flow.Compatibility.SUPPORTED));
+        assertThat(Engine.checkCompatibility("14.0"), is(Flow.Compatibility.NEEDS_UPGRADE));
+    }
+
     @Test(expected = EngineException.class)
     public void loadAssetsThrowsExceptionIfJsonInvalid() throws EngineException {
         Engine.loadAssets("{");
@@ -0,0 +1,66 @@
+package io.rapidpro.surveyor.engine;
+
+import com.nyaruka.goflow.mobile.Environment;
+import com.nyaruka.goflow.mobile.SessionAssets;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.data.Flow;
+import io.rapidpro.surveyor.data.Org;
+import io.rapidpro.surveyor.test.BaseApplicationTest;
+import io.rapidpro.surveyor.test.R;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class SessionAssetsCacheTest extends BaseApplicationTest {
+    private static final String ORG_UUID = "b2ad9e4d-71f1-4d54-8dd6-f7a94b685d06";
+
+    @Test
+    public void get() throws IOException, EngineException {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        SessionAssetsCache cache = SessionAssetsCache.getInstance();
+
+        SessionAssets assets1 = cache.get(org, flow);
+        assertThat(assets1, is(notNullValue()));
+
+        // second call should return the same instance
+        assertThat(cache.get(org, flow), is(sameInstance(assets1)));
+
+        // until the org is invalidated
+        cache.invalidate(org);
+
+        SessionAssets assets2 = cache.get(org, flow);
+        assertThat(assets2, is(not(sameInstance(assets1))));
+
+        // or the cache is cleared
+        cache.clear();
+
+        assertThat(cache.get(org, flow), is(not(sameInstance(assets2))));
+    }
+
+    @Test
+    public void getEnvironment() throws IOException, EngineException {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+
+        SessionAssetsCache cache = SessionAssetsCache.getInstance();
+
+        Environment env = cache.getEnvironment(org);
+        assertThat(env, is(notNullValue()));
+        assertThat(cache.getEnvironment(org), is(sameInstance(env)));
+
+        // environment is kept when only the assets change
+        cache.invalidate(org);
+
+        assertThat(cache.getEnvironment(org), is(sameInstance(env)));
+    }
+}
@@ -0,0 +1,122 @@
+package io.rapidpro.surveyor.engine;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.io.File;
+
+import io.rapidpro.surveyor.data.Flow;
+import io.rapidpro.surveyor.data.Org;
+import io.rapidpro.surveyor.data.Submission;
+import io.rapidpro.surveyor.data.SubmissionService;
+import io.rapidpro.surveyor.test.BaseApplicationTest;
+import io.rapidpro.surveyor.test.R;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+public class SessionManagerTest extends BaseApplicationTest {
+    private static final String ORG_UUID = "b2ad9e4d-71f1-4d54-8dd6-f7a94b685d06";
+
+    @Test
+    public void interleavedRuns() throws Exception {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        SubmissionService svc = getSurveyor().getSubmissionService();
+        SessionManager manager = new SessionManager(org, flow);
+
+        Pair<SessionManager.Run, Sprint> rs1 = manager.start(svc.addSubmission(org, flow), null).get();
+        Pair<SessionManager.Run, Sprint> rs2 = manager.start(svc.addSubmission(org, flow), null).get();
+        SessionManager.Run run1 = rs1.getLeft();
+        SessionManager.Run run2 = rs2.getLeft();
+
+        assertThat(manager.getRuns(), hasSize(2));
+        assertThat(manager.getCurrent(), is(run2));
+
+        // each run has its own contact
+        assertThat(contactUuid(run1), is(not(contactUuid(run2))));
+
+        // resume each run in turn
+        manager.switchTo(run1);
+        manager.resume(run1, "club", null, null).get();
+        manager.switchTo(run2);
+        manager.resume(run2, "club", null, null).get();
+        manager.resume(run2, "RED", null, null).get();
+
+        assertThat(run1.getSession().isWaiting(), is(true));
+        assertThat(run2.getSession().getStatus(), is("completed"));
+
+        // and their wait state is captured for the UI thread
+        assertThat(run1.isWaiting(), is(true));
+        assertThat(run2.isWaiting(), is(false));
+
+        // each run's events are saved to its own submission
+        assertThat(manager.readEvents(run1, null).get(), hasSize(6));
+        assertThat(manager.readEvents(run2, null).get(), hasSize(9));
+
+        manager.remove(run2);
+        assertThat(manager.getCurrent(), is(run1));
+
+        // an interrupted run can be opened again from its submission
+        Submission submission1 = run1.getSubmission();
+        SessionManager other = new SessionManager(org, flow);
+        SessionManager.Run reopened = other.open(submission1, null).get();
+
+        assertThat(reopened.getSession().isWaiting(), is(true));
+        assertThat(reopened.isWaiting(), is(true));
+        assertThat(other.getCurrent(), is(reopened));
+
+        manager.remove(run1);
+        assertThat(manager.getCurrent(), is(nullValue()));
+        assertThat(manager.getRuns(), hasSize(0));
+    }
+
+    @Test
+    public void recoverFromJournal() throws Exception {
+        installOrg(ORG_UUID, R.raw.org1_details, R.raw.org1_flows, R.raw.org1_assets);
+        Org org = getSurveyor().getOrgService().get(ORG_UUID);
+        Flow flow = org.getFlow("bdd61538-5f50-4836-a8fb-acaafd64ddb1");
+
+        SessionManager manager = new SessionManager(org, flow);
+        Submission submission = getSurveyor().getSubmissionService().addSubmission(org, flow);
+
+        SessionManager.Run run = manager.start(submission, null).get().getLeft();
+        manager.resume(run, "club", null, null).get();
+
+        // sprints are written behind, but everything is written once drained, e.g. when the app is paused
+        manager.drain(null).get();
+
+        // session is only checkpointed so far, not fully saved
+        assertThat(new File(submission.getDirectory(), "session.json").exists(), is(false));
+        assertThat(submission.hasSession(), is(true));
+
+        // simulate the app being killed and the run being reopened
+        SessionManager reopened = new SessionManager(org, flow);
+        SessionManager.Run recovered = reopened.open(submission, null).get();
+
+        assertThat(recovered.getSession().isWaiting(), is(true));
+        assertThat(submission.readEvents(), hasSize(6));
+
+        reopened.resume(recovered, "RED", null, null).get();
+        reopened.complete(recovered, null).get();
+
+        // once completed, the full session is saved for submission
+        assertThat(recovered.getSession().getStatus(), is("completed"));
+        assertThat(submission.isCompleted(), is(true));
+        assertThat(new File(submission.getDirectory(), "session.json").exists(), is(true));
+        assertThat(submission.readEvents(), hasSize(9));
+    }
+
+    private static String contactUuid(SessionManager.Run run) throws EngineException {
+        JsonObject session = new JsonParser().parse(run.getSession().toJSON()).getAsJsonObject();
+        return session.getAsJsonObject("contact").get("uuid").getAsString();
+    }
+}
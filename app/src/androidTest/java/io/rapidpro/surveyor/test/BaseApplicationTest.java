@@ -27,6 +27,7 @@ import java.util.zip.ZipInputStream;
 import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.SurveyorApplication;
 import io.rapidpro.surveyor.SurveyorPreferences;
+import io.rapidpro.surveyor.engine.SessionAssetsCache;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 
@@ -70,6 +71,7 @@ public abstract class BaseApplicationTest {
      */
     @After
     public void clearData() throws IOException {
+
         SharedPreferences.Editor editor = getSurveyor().getPreferences().edit();
         editor.clear();
         editor.apply();
@@ -78,6 +80,8 @@ public abstract class BaseApplicationTest {
         FileUtils.deleteQuietly(getSurveyor().getUserDirectory());
 
         getSurveyor().getOrgService().clearCache();
+        getSurveyor().getSubmissionService().clearCache();
+        SessionAssetsCache.getInstance().clear();
     }
 
     protected SurveyorApplication getSurveyor() {
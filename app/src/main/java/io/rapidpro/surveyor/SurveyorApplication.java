@@ -4,6 +4,7 @@ import android.app.Application;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Environment;
 
@@ -13,10 +14,18 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
 
+import io.rapidpro.surveyor.data.DirectorySubmissionStore;
+import io.rapidpro.surveyor.data.ModelAdapters;
 import io.rapidpro.surveyor.data.OrgService;
+import io.rapidpro.surveyor.data.SQLiteSubmissionStore;
+import io.rapidpro.surveyor.data.StorageManager;
+import io.rapidpro.surveyor.data.SubmissionPersister;
 import io.rapidpro.surveyor.data.SubmissionService;
+import io.rapidpro.surveyor.data.SubmissionStore;
+import io.rapidpro.surveyor.engine.SessionAssetsCache;
 import io.rapidpro.surveyor.net.TembaService;
 import io.rapidpro.surveyor.utils.SurveyUtils;
 
@@ -45,6 +54,11 @@ public class SurveyorApplication extends Application {
      */
     private SubmissionService submissionService = null;
 
+    /**
+     * Manager of the space used by orgs, submissions and scratch files
+     */
+    private StorageManager storageManager = null;
+
     /**
      * Gets the singleton instance of this application
      *
@@ -64,16 +78,51 @@ public class SurveyorApplication extends Application {
 
         s_this = this;
 
+        // before anything reads or writes JSON
+        ModelAdapters.register();
+
         tembaService = new TembaService(getTembaHost());
 
         try {
             orgService = new OrgService(getOrgsDirectory());
-            submissionService = new SubmissionService(getSubmissionsDirectory());
+            File submissionsDir = getSubmissionsDirectory();
+
+            // submissions are only kept in a database once they've been migrated there from the settings
+            if (getPreferences().getBoolean(SurveyorPreferences.SUBMISSIONS_DATABASE, false)) {
+                setSubmissionStore(createSubmissionsDatabase());
+            } else {
+                setSubmissionStore(new DirectorySubmissionStore(submissionsDir));
+            }
+            trimStorage();
         } catch (IOException e) {
             Logger.e("Unable to create directory based services", e);
         }
     }
 
+    /**
+     * @see Application#onTrimMemory(int)
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // cached session assets can always be reloaded from disk so drop them when memory is getting tight,
+        // but not just because our UI was hidden, e.g. to take a photo
+        if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+            SessionAssetsCache.getInstance().clear();
+        }
+    }
+
+    /**
+     * @see Application#onLowMemory()
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        SessionAssetsCache.getInstance().clear();
+    }
+
     /**
      * Gets the name of the preferences file
      *
@@ -183,6 +232,89 @@ public class SurveyorApplication extends Application {
         return submissionService;
     }
 
+    /**
+     * Creates a database based submission store, which won't include submissions in the directory
+     * layout until they've been migrated
+     *
+     * @return the store
+     */
+    public SQLiteSubmissionStore createSubmissionsDatabase() throws IOException {
+        return new SQLiteSubmissionStore(this, getSubmissionsDirectory());
+    }
+
+    /**
+     * Switches to a different submission store, e.g. once submissions have been migrated to a
+     * database
+     *
+     * @param store the store
+     */
+    public void setSubmissionStore(SubmissionStore store) throws IOException {
+        submissionService = new SubmissionService(getSubmissionsDirectory(), store);
+
+        storageManager = new StorageManager(getOrgsDirectory(), getUserDirectory(), getExternalCacheDir(), orgService, submissionService);
+        onStorageQuotaChanged();
+    }
+
+    /**
+     * Gets how durable each answer of a run should be once saved, as set in the settings
+     *
+     * @return the durability
+     */
+    public SubmissionPersister.Durability getSubmissionDurability() {
+        if (getPreferences().getBoolean(SurveyorPreferences.SUBMISSIONS_SYNC, false)) {
+            return SubmissionPersister.Durability.SYNC;
+        }
+        return SubmissionPersister.Durability.GROUPED;
+    }
+
+    /**
+     * Gets the storage manager
+     *
+     * @return the storage manager
+     */
+    public StorageManager getStorageManager() {
+        return storageManager;
+    }
+
+    /**
+     * Applies the storage quota from the preferences
+     */
+    public void onStorageQuotaChanged() {
+        String quota = getPreferences().getString(SurveyorPreferences.STORAGE_QUOTA, getString(R.string.pref_default_storage_quota));
+        try {
+            storageManager.setQuota(Long.parseLong(quota.trim()) * 1024 * 1024);
+        } catch (NumberFormatException e) {
+            Logger.w("Ignoring invalid storage quota " + quota);
+        }
+    }
+
+    /**
+     * Evicts data in the background until we're within our storage quota, e.g. after submissions
+     * have been sent
+     */
+    public void trimStorage() {
+        final Set<String> activeOrgs = getActiveOrgs();
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                storageManager.trim(0, activeOrgs);
+            }
+        });
+    }
+
+    /**
+     * Gets the UUIDs of the orgs the logged in user has access to
+     *
+     * @return the org UUIDs or null if no user is logged in
+     */
+    public Set<String> getActiveOrgs() {
+        if (getPreferences().getString(SurveyorPreferences.AUTH_USERNAME, null) == null) {
+            return null;
+        }
+        return getPreferences().getStringSet(SurveyorPreferences.AUTH_ORGS, Collections.<String>emptySet());
+    }
+
     /**
      * Gets the directory for org configurations
      *
@@ -232,7 +364,7 @@ public class SurveyorApplication extends Application {
         Logger.d("Model: " + android.os.Build.MODEL + " (" + android.os.Build.DEVICE + ")");
 
         // dump log to file and return URI
-        File outputFile = new File(getUserDirectory(), "bug-report.txt");
+        File outputFile = new File(getUserDirectory(), StorageManager.BUG_REPORT_FILE);
         Runtime.getRuntime().exec("logcat -d -f " + outputFile.getAbsolutePath() + " \"Surveyor:* *:E\"");
         return getUriForFile(outputFile);
     }
@@ -5,6 +5,7 @@ public interface SurveyorIntent {
     String EXTRA_FLOW_UUID = "surveyor.extra.flow_uuid";
 
     String EXTRA_SUBMISSION_FILE = "surveyor.extra.submission_file";
+    String EXTRA_SUBMISSION_UUID = "surveyor.extra.submission_uuid";
 
     // where media files are to be stored
     String EXTRA_MEDIA_FILE = "surveyor.extra.media_file";
@@ -20,4 +20,22 @@ public interface SurveyorPreferences {
      * UUIDs of the orgs this user has access to
      */
     String AUTH_ORGS = "auth_orgs";
+
+    /**
+     * Whether submissions are stored in a database rather than a directory each. Only set once
+     * existing submissions have been migrated to the database, and there's no migrating back.
+     */
+    String SUBMISSIONS_DATABASE = "submissions_database";
+
+    /**
+     * Whether each answer is synced to the storage device as soon as it's saved, rather than
+     * answers being written together shortly after
+     */
+    String SUBMISSIONS_SYNC = "submissions_sync";
+
+    /**
+     * The most space in MB that orgs, submissions and scratch files can use before data which is
+     * safe to drop is evicted
+     */
+    String STORAGE_QUOTA = "storage_quota";
 }
@@ -6,7 +6,7 @@ import android.content.res.Resources;
 import android.view.View;
 import android.widget.Toast;
 
-import java.util.List;
+import java.util.Iterator;
 
 import io.rapidpro.surveyor.R;
 import io.rapidpro.surveyor.data.Org;
@@ -40,11 +40,11 @@ public abstract class BaseSubmissionsActivity extends BaseActivity {
         final BlockingProgress progressModal = new BlockingProgress(this, R.string.one_moment, R.string.submit_body);
         progressModal.show();
 
-        final List<Submission> pending = getPendingSubmissions();
-        final Submission[] asArray = pending.toArray(new Submission[0]);
+        // submissions are read a page at a time as they're sent
+        final Iterator<Submission> pending = getPendingSubmissions();
         final Resources res = getResources();
 
-        SubmitSubmissionsTask task = new SubmitSubmissionsTask(new SubmitSubmissionsTask.Listener() {
+        SubmitSubmissionsTask task = new SubmitSubmissionsTask(pending, getPendingCount(), new SubmitSubmissionsTask.Listener() {
             @Override
             public void onProgress(int percent) {
                 progressModal.setProgress(percent);
@@ -54,6 +54,9 @@ public abstract class BaseSubmissionsActivity extends BaseActivity {
             public void onComplete(int total) {
                 refresh();
 
+                // sent submissions may have left behind media which can now be evicted
+                getSurveyor().trimStorage();
+
                 progressModal.dismiss();
 
                 CharSequence toast = res.getQuantityString(R.plurals.submissions_sent, total, total);
@@ -68,10 +71,15 @@ public abstract class BaseSubmissionsActivity extends BaseActivity {
             }
         });
 
-        task.execute(asArray);
+        task.execute();
     }
 
-    protected abstract List<Submission> getPendingSubmissions();
+    protected abstract Iterator<Submission> getPendingSubmissions();
+
+    /**
+     * Gets the number of pending submissions, e.g. from the index, to report progress against
+     */
+    protected abstract int getPendingCount();
 
     protected abstract Org getOrg();
 
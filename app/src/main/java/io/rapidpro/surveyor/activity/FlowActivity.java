@@ -1,10 +1,13 @@
 package io.rapidpro.surveyor.activity;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.View;
 
 import java.text.NumberFormat;
+import java.util.Iterator;
 import java.util.List;
 
 import io.rapidpro.surveyor.Logger;
@@ -13,6 +16,7 @@ import io.rapidpro.surveyor.SurveyorIntent;
 import io.rapidpro.surveyor.data.Flow;
 import io.rapidpro.surveyor.data.Org;
 import io.rapidpro.surveyor.data.Submission;
+import io.rapidpro.surveyor.engine.SessionAssetsCache;
 import io.rapidpro.surveyor.ui.ViewCache;
 
 /**
@@ -51,6 +55,9 @@ public class FlowActivity extends BaseSubmissionsActivity {
             return;
         }
 
+        // start loading this flow's assets in the background so that starting a run is quicker
+        SessionAssetsCache.getInstance().prewarm(org, flow);
+
         String questionString = " Questions";
         if (flow.getQuestionCount() == 1) {
             questionString = " Question";
@@ -69,9 +76,45 @@ public class FlowActivity extends BaseSubmissionsActivity {
     }
 
     public void onActionStart(View view) {
+        List<Submission> drafts = getSurveyor().getSubmissionService().getIncomplete(org, flow);
+
+        if (!drafts.isEmpty()) {
+            // a previous run was interrupted, so give the user the option of picking up where they left
+            // off with the latest one - any others can be switched to once running
+            final Submission incomplete = drafts.get(0);
+            new AlertDialog.Builder(this)
+                    .setMessage(R.string.confirm_submission_resume)
+                    .setPositiveButton(R.string.action_resume, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int id) {
+                            startRun(incomplete);
+                        }
+                    })
+                    .setNegativeButton(R.string.action_start_over, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int id) {
+                            // only the run we offered is discarded, other respondents' runs are kept
+                            incomplete.delete();
+                            startRun(null);
+                        }
+                    }).show();
+        } else {
+            startRun(null);
+        }
+    }
+
+    /**
+     * Starts a run of this flow
+     *
+     * @param resume the incomplete submission to resume (may be null)
+     */
+    private void startRun(Submission resume) {
         Intent intent = new Intent(this, RunActivity.class);
         intent.putExtra(SurveyorIntent.EXTRA_ORG_UUID, org.getUuid());
         intent.putExtra(SurveyorIntent.EXTRA_FLOW_UUID, flow.getUuid());
+        if (resume != null) {
+            intent.putExtra(SurveyorIntent.EXTRA_SUBMISSION_UUID, resume.getUuid());
+        }
         startActivity(intent);
     }
 
@@ -79,10 +122,18 @@ public class FlowActivity extends BaseSubmissionsActivity {
      * @see BaseSubmissionsActivity#getPendingSubmissions()
      */
     @Override
-    protected List<Submission> getPendingSubmissions() {
+    protected Iterator<Submission> getPendingSubmissions() {
         return getSurveyor().getSubmissionService().getCompleted(org, flow);
     }
 
+    /**
+     * @see BaseSubmissionsActivity#getPendingCount()
+     */
+    @Override
+    protected int getPendingCount() {
+        return getSurveyor().getSubmissionService().getCompletedCount(org, flow);
+    }
+
     @Override
     protected Org getOrg() {
         return org;
@@ -11,9 +11,8 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
 
-import com.vdurmont.semver4j.Semver;
-
 import java.text.NumberFormat;
+import java.util.Iterator;
 import java.util.List;
 
 import io.rapidpro.surveyor.Logger;
@@ -23,7 +22,6 @@ import io.rapidpro.surveyor.adapter.FlowListAdapter;
 import io.rapidpro.surveyor.data.Flow;
 import io.rapidpro.surveyor.data.Org;
 import io.rapidpro.surveyor.data.Submission;
-import io.rapidpro.surveyor.engine.Engine;
 import io.rapidpro.surveyor.fragment.FlowListFragment;
 import io.rapidpro.surveyor.task.RefreshOrgTask;
 import io.rapidpro.surveyor.ui.BlockingProgress;
@@ -113,20 +111,16 @@ public class OrgActivity extends BaseSubmissionsActivity implements FlowListFrag
                 // if this org doesn't have downloaded assets, ask the user if we can download them now
                 confirmRefreshOrg(R.string.confirm_org_download);
             } else {
+                // compatibility of each flow is determined when assets are refreshed
                 for (Flow flow : org.getFlows()) {
-                    if (!Engine.isSpecVersionSupported(flow.getSpecVersion())) {
-                        Logger.w("Found flow " + flow.getUuid() + " with unsupported version " + flow.getSpecVersion());
-
-                        Semver flowVersion = new Semver(flow.getSpecVersion(), Semver.SemverType.LOOSE);
-                        if (flowVersion.isGreaterThan(Engine.currentSpecVersion())) {
-                            // if this flow is a major version ahead of us... user needs to upgrade the app
-                            promptToUpgrade();
-                            break;
-                        } else {
-                            // if it is a major version behind, they should refresh the assets
-                            confirmRefreshOrg(R.string.confirm_org_refresh_old);
-                            break;
-                        }
+                    if (flow.getCompatibility() == Flow.Compatibility.NEEDS_UPGRADE) {
+                        // if this flow is a major version ahead of us... user needs to upgrade the app
+                        promptToUpgrade();
+                        break;
+                    } else if (flow.getCompatibility() == Flow.Compatibility.NEEDS_REFRESH) {
+                        // if it is a major version behind, they should refresh the assets
+                        confirmRefreshOrg(R.string.confirm_org_refresh_old);
+                        break;
                     }
                 }
             }
@@ -188,10 +182,18 @@ public class OrgActivity extends BaseSubmissionsActivity implements FlowListFrag
      * @see BaseSubmissionsActivity#getPendingSubmissions()
      */
     @Override
-    protected List<Submission> getPendingSubmissions() {
+    protected Iterator<Submission> getPendingSubmissions() {
         return getSurveyor().getSubmissionService().getCompleted(getOrg());
     }
 
+    /**
+     * @see BaseSubmissionsActivity#getPendingCount()
+     */
+    @Override
+    protected int getPendingCount() {
+        return getSurveyor().getSubmissionService().getCompletedCount(getOrg());
+    }
+
     @Override
     public Org getOrg() {
         return org;
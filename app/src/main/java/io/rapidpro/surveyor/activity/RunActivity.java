@@ -7,6 +7,7 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -25,33 +26,33 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AlertDialog;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.greysonparrelli.permiso.Permiso;
-import com.nyaruka.goflow.mobile.Environment;
-import com.nyaruka.goflow.mobile.Event;
-import com.nyaruka.goflow.mobile.Hint;
-import com.nyaruka.goflow.mobile.MsgIn;
-import com.nyaruka.goflow.mobile.Resume;
-import com.nyaruka.goflow.mobile.SessionAssets;
-import com.nyaruka.goflow.mobile.Trigger;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.R;
 import io.rapidpro.surveyor.SurveyorIntent;
 import io.rapidpro.surveyor.data.Flow;
 import io.rapidpro.surveyor.data.Org;
+import io.rapidpro.surveyor.data.StorageManager;
 import io.rapidpro.surveyor.data.Submission;
-import io.rapidpro.surveyor.engine.Contact;
-import io.rapidpro.surveyor.engine.Engine;
-import io.rapidpro.surveyor.engine.EngineException;
-import io.rapidpro.surveyor.engine.Session;
+import io.rapidpro.surveyor.engine.EngineExecutor;
+import io.rapidpro.surveyor.engine.Event;
+import io.rapidpro.surveyor.engine.SessionAssetsCache;
+import io.rapidpro.surveyor.engine.SessionManager;
 import io.rapidpro.surveyor.engine.Sprint;
+import io.rapidpro.surveyor.task.MakeSpaceTask;
 import io.rapidpro.surveyor.ui.IconTextView;
 import io.rapidpro.surveyor.ui.ViewCache;
 import io.rapidpro.surveyor.utils.ImageUtils;
@@ -80,8 +81,33 @@ public class RunActivity extends BaseActivity {
     private EditText chatCompose;
     private ScrollView scrollView;
 
-    private Session session;
-    private Submission submission;
+    private Org org;
+    private Flow flow;
+
+    /**
+     * Hosts the runs of this flow which the user can switch between
+     */
+    private SessionManager sessions;
+
+    /**
+     * The run currently being shown
+     */
+    private SessionManager.Run run;
+
+    /**
+     * The submission of the run being started, until it has been shown
+     */
+    private Submission starting;
+
+    /**
+     * Whether we're waiting on the engine thread, during which time we ignore user input
+     */
+    private boolean engineBusy;
+
+    /**
+     * Whether we're evicting data in the background to make room for a capture
+     */
+    private boolean makingSpace;
 
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
@@ -93,25 +119,129 @@ public class RunActivity extends BaseActivity {
         setContentView(R.layout.activity_run);
         initUI();
 
-        try {
-            Org org = getSurveyor().getOrgService().get(orgUUID);
-            SessionAssets assets = Engine.createSessionAssets(Engine.loadAssets(org.getAssets()));
-            Environment environment = Engine.createEnvironment(org);
+        // if we've been asked to resume an interrupted submission
+        String submissionUUID = getIntent().getStringExtra(SurveyorIntent.EXTRA_SUBMISSION_UUID);
 
-            Flow flow = org.getFlow(flowUUID);
+        Submission submission = null;
+        try {
+            org = getSurveyor().getOrgService().get(orgUUID);
+            flow = org.getFlow(flowUUID);
             setTitle(flow.getName());
 
-            Trigger trigger = Engine.createManualTrigger(environment, Contact.createEmpty(assets), flow.toReference());
+            if (submissionUUID != null) {
+                submission = getSurveyor().getSubmissionService().get(org, flow, submissionUUID);
+            }
+        } catch (IOException e) {
+            handleProblem("Unable to start flow", e);
+            return;
+        }
 
-            Pair<Session, Sprint> ss = Engine.getInstance().newSession(assets, trigger);
-            session = ss.getLeft();
-            submission = getSurveyor().getSubmissionService().newSubmission(org, flow);
+        sessions = new SessionManager(org, flow, getSurveyor().getSubmissionDurability());
 
-            handleEngineSprint(ss.getRight());
+        // loading assets and starting or resuming the session all happen on the engine thread
+        if (submission != null) {
+            openRun(submission);
+        } else {
+            startNewRun();
+        }
+    }
 
-        } catch (EngineException | IOException e) {
+    /**
+     * Starts a new run, leaving any interrupted runs of this flow to be switched to
+     */
+    private void startNewRun() {
+        final Submission submission;
+        try {
+            submission = getSurveyor().getSubmissionService().addSubmission(org, flow);
+        } catch (IOException e) {
             handleProblem("Unable to start flow", e);
+            return;
         }
+
+        engineBusy = true;
+        starting = submission;
+        chatHistory.removeAllViews();
+
+        EngineExecutor.Callback<Pair<SessionManager.Run, Sprint>> callback = new EngineExecutor.Callback<Pair<SessionManager.Run, Sprint>>() {
+            @Override
+            public void onSuccess(Pair<SessionManager.Run, Sprint> rs) {
+                if (starting != submission) {
+                    // discarded while it was being started
+                    return;
+                }
+
+                starting = null;
+                engineBusy = false;
+                run = rs.getLeft();
+
+                if (!isFinishing()) {
+                    handleEngineSprint(rs.getRight());
+                    invalidateOptionsMenu();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                // the submission has been deleted
+                handleProblem("Unable to start flow", e);
+            }
+        };
+
+        sessions.start(submission, callback);
+    }
+
+    /**
+     * Resumes an interrupted submission by reading back its saved session, and shows it
+     */
+    private void openRun(Submission submission) {
+        engineBusy = true;
+
+        sessions.open(submission, new EngineExecutor.Callback<SessionManager.Run>() {
+            @Override
+            public void onSuccess(SessionManager.Run opened) {
+                if (!isFinishing()) {
+                    showRun(opened);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                handleProblem("Unable to resume flow", e);
+            }
+        });
+    }
+
+    /**
+     * Switches to showing the given run, rebuilding the chat transcript from its saved events
+     * rather than replaying the flow
+     */
+    private void showRun(final SessionManager.Run toShow) {
+        engineBusy = true;
+        sessions.switchTo(toShow);
+
+        sessions.readEvents(toShow, new EngineExecutor.Callback<List<Event>>() {
+            @Override
+            public void onSuccess(List<Event> events) {
+                engineBusy = false;
+                run = toShow;
+
+                if (isFinishing()) {
+                    return;
+                }
+
+                chatHistory.removeAllViews();
+                for (Event event : events) {
+                    addTranscriptEvent(event);
+                }
+                showSessionState();
+                invalidateOptionsMenu();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                handleProblem("Unable to resume flow", e);
+            }
+        });
     }
 
     @Override
@@ -121,6 +251,26 @@ public class RunActivity extends BaseActivity {
         initUI();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        // we could be killed once paused, so make sure every sprint so far is written, without
+        // holding up whatever we're being paused for, e.g. capturing media
+        if (sessions != null) {
+            sessions.drain(new EngineExecutor.Callback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    showSaveProblem(e);
+                }
+            });
+        }
+    }
+
     private void initUI() {
         chatHistory = findViewById(R.id.chat_history);
         chatCompose = findViewById(R.id.chat_compose);
@@ -189,16 +339,60 @@ public class RunActivity extends BaseActivity {
      */
     public void onActionMedia(View view) {
         View media = getViewCache().getView(R.id.media_icon);
-        if (session.isWaiting()) {
-            if (REQUEST_IMAGE.equals(media.getTag())) {
-                captureImage();
-            } else if (REQUEST_VIDEO.equals(media.getTag())) {
-                captureVideo();
-            } else if (REQUEST_AUDIO.equals(media.getTag())) {
-                captureAudio();
-            } else if (REQUEST_GPS.equals(media.getTag())) {
+        if (!engineBusy && run.isWaiting()) {
+            final Object request = media.getTag();
+
+            if (REQUEST_GPS.equals(request)) {
                 captureLocation();
+                return;
+            }
+
+            // a capture could be as big as the largest video we record, so check that will fit
+            StorageManager storage = getSurveyor().getStorageManager();
+            if (storage.hasSpaceFor(CaptureVideoActivity.MAX_FILESIZE)) {
+                captureMedia(request);
+                return;
+            }
+            if (makingSpace) {
+                return;
             }
+
+            // evicting data can take a while so it's done in the background, and if that doesn't
+            // make enough room, the user decides whether to carry on
+            makingSpace = true;
+            new MakeSpaceTask(storage, CaptureVideoActivity.MAX_FILESIZE, getSurveyor().getActiveOrgs(), new MakeSpaceTask.Listener() {
+                @Override
+                public void onComplete(boolean hasSpace) {
+                    makingSpace = false;
+
+                    if (isFinishing()) {
+                        return;
+                    }
+                    if (hasSpace) {
+                        captureMedia(request);
+                    } else {
+                        showConfirmDialog(R.string.confirm_low_storage, new ConfirmationListener() {
+                            @Override
+                            public void onConfirm() {
+                                captureMedia(request);
+                            }
+                        });
+                    }
+                }
+            }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Captures media of the requested type
+     */
+    private void captureMedia(Object request) {
+        if (REQUEST_IMAGE.equals(request)) {
+            captureImage();
+        } else if (REQUEST_VIDEO.equals(request)) {
+            captureVideo();
+        } else if (REQUEST_AUDIO.equals(request)) {
+            captureAudio();
         }
     }
 
@@ -299,7 +493,8 @@ public class RunActivity extends BaseActivity {
             return;
         }
 
-        MsgIn msg = null;
+        // the attachment of the message to resume with
+        String attachment = null;
 
         try {
             if (requestCode == RESULT_IMAGE) {
@@ -318,7 +513,7 @@ public class RunActivity extends BaseActivity {
 
                     // encode as JPEG and save to submission
                     byte[] asJpg = ImageUtils.convertToJPEG(scaled);
-                    Uri uri = submission.saveMedia(asJpg, "jpg");
+                    Uri uri = run.getSubmission().saveMedia(asJpg, "jpg");
 
                     Logger.d("Saved image capture to " + uri);
 
@@ -326,7 +521,7 @@ public class RunActivity extends BaseActivity {
                     Bitmap thumb = ImageUtils.scaleToMax(scaled, MAX_THUMB_DIMENSION);
                     addMedia(thumb, uri.toString(), R.string.media_image);
 
-                    msg = Engine.createMsgIn("", "image/jpeg:" + uri);
+                    attachment = "image/jpeg:" + uri;
 
                     output.delete();
                 }
@@ -335,13 +530,13 @@ public class RunActivity extends BaseActivity {
                 if (output.exists()) {
                     Bitmap thumb = ImageUtils.thumbnailFromVideo(output);
 
-                    Uri uri = submission.saveMedia(output);
+                    Uri uri = run.getSubmission().saveMedia(output);
 
                     addMedia(thumb, uri.toString(), R.string.media_video);
 
                     Logger.d("Saved video capture to " + uri);
 
-                    msg = Engine.createMsgIn("", "video/mp4:" + uri);
+                    attachment = "video/mp4:" + uri;
 
                     output.delete();
                 }
@@ -349,12 +544,12 @@ public class RunActivity extends BaseActivity {
             } else if (requestCode == RESULT_AUDIO) {
                 File output = getAudioOutput();
                 if (output.exists()) {
-                    Uri uri = submission.saveMedia(output);
+                    Uri uri = run.getSubmission().saveMedia(output);
                     Logger.d("Saved audio capture to " + uri);
 
                     addMediaLink(getString(R.string.made_recording), uri.toString(), R.string.media_audio);
 
-                    msg = Engine.createMsgIn("", "audio/mp4:" + uri);
+                    attachment = "audio/mp4:" + uri;
 
                     output.delete();
                 }
@@ -367,15 +562,15 @@ public class RunActivity extends BaseActivity {
                 String url = coords + "?q=" + latitude + "," + longitude + "(Location)";
                 addMediaLink(latitude + "," + longitude, url, R.string.media_location);
 
-                msg = Engine.createMsgIn("", coords);
+                attachment = coords;
             }
         } catch (IOException e) {
             handleProblem("Unable capture media", e);
         }
 
-        // if we have a message we can try to resume now...
-        if (msg != null) {
-            resumeSession(msg);
+        // if we have an attachment we can try to resume now...
+        if (attachment != null) {
+            resumeSession("", attachment);
         }
     }
 
@@ -393,38 +588,56 @@ public class RunActivity extends BaseActivity {
         finish();
     }
 
-    private void resumeSession(MsgIn msg) {
-        try {
-            Resume resume = Engine.createMsgResume(null, null, msg);
-            Sprint sprint = session.resume(resume);
-
-            handleEngineSprint(sprint);
+    /**
+     * Tells the user that answers couldn't be saved, leaving them to decide whether to carry on
+     */
+    private void showSaveProblem(Exception e) {
+        Logger.e("Unable to save submission", e);
 
-        } catch (EngineException | IOException e) {
-            handleProblem("Couldn't handle message", e);
-        }
+        Toast.makeText(this, getString(R.string.error_submission_save), Toast.LENGTH_LONG).show();
+    }
 
-        // scroll us to the bottom
-        scrollView.postDelayed(new Runnable() {
+    private void resumeSession(String text, String attachment) {
+        engineBusy = true;
+        sessions.resume(run, text, attachment, new EngineExecutor.Callback<Sprint>() {
             @Override
-            public void run() {
-                scrollView.setSmoothScrollingEnabled(true);
-                scrollView.fullScroll(ScrollView.FOCUS_DOWN);
+            public void onSuccess(Sprint sprint) {
+                engineBusy = false;
+
+                if (isFinishing()) {
+                    return;
+                }
 
-                // put the focus back on the chat box
-                chatCompose.requestFocus();
+                handleEngineSprint(sprint);
+
+                // scroll us to the bottom
+                scrollView.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        scrollView.setSmoothScrollingEnabled(true);
+                        scrollView.fullScroll(ScrollView.FOCUS_DOWN);
+
+                        // put the focus back on the chat box
+                        chatCompose.requestFocus();
+                    }
+                }, 100);
+
+                // refresh our menu
+                invalidateOptionsMenu();
             }
-        }, 100);
 
-        // refresh our menu
-        invalidateOptionsMenu();
+            @Override
+            public void onFailure(Exception e) {
+                handleProblem("Couldn't handle message", e);
+            }
+        });
     }
 
     /**
      * User pressed the send button
      */
     public void onActionSend(View sendButton) {
-        if (!session.getStatus().equals("waiting")) {
+        if (engineBusy || !run.isWaiting()) {
             return;
         }
 
@@ -434,55 +647,75 @@ public class RunActivity extends BaseActivity {
         if (message.trim().length() > 0) {
             chatBox.setText("");
 
-            MsgIn msg = Engine.createMsgIn(message);
-
             addMessage(message, true);
 
-            resumeSession(msg);
+            resumeSession(message, null);
         }
     }
 
     /**
-     * Handles new session state and events after interaction with the flow engine
+     * Updates the UI with new session state and events after interaction with the flow engine
      *
      * @param sprint the sprint from the engine
      */
-    private void handleEngineSprint(Sprint sprint) throws IOException, EngineException {
+    private void handleEngineSprint(Sprint sprint) {
         for (Event event : sprint.getEvents()) {
             Logger.d("Event: " + event.payload());
 
-            JsonObject asObj = new JsonParser().parse(event.payload()).getAsJsonObject();
-
             if (event.type().equals("msg_created")) {
-                JsonObject msg = asObj.get("msg").getAsJsonObject();
-                addMessage(msg.get("text").getAsString(), false);
+                addMessage(event.getMsgText(), false);
+            }
+        }
+
+        showSessionState();
+    }
+
+    /**
+     * Adds a saved event to the chat transcript when resuming a submission. Unlike during a live
+     * run, incoming messages are added here too, with any media shown as links.
+     *
+     * @param event the event
+     */
+    private void addTranscriptEvent(Event event) {
+        if (event.type().equals("msg_created")) {
+            addMessage(event.getMsgText(), false);
+        } else if (event.type().equals("msg_received")) {
+            if (StringUtils.isNotEmpty(event.getMsgText())) {
+                addMessage(event.getMsgText(), true);
+            }
+
+            for (String attachment : event.getMsgAttachments()) {
+                addAttachmentLink(attachment);
             }
         }
+    }
 
-        if (!session.isWaiting()) {
+    /**
+     * Updates the UI to show that the session is complete or to wait for the next input
+     */
+    private void showSessionState() {
+        if (!run.isWaiting()) {
             addLogMessage(R.string.log_flow_complete);
 
+            // user is likely to start another run of this flow straight after saving this one
+            SessionAssetsCache.getInstance().prewarm(org, flow);
+
             ViewCache cache = getViewCache();
             cache.hide(R.id.chat_box, true);
             cache.hide(R.id.container_request_media);
             cache.show(R.id.completed_session_actions);
         } else {
-            waitForInput(session.getWait().hint());
+            getViewCache().hide(R.id.completed_session_actions);
+            waitForInput(run.getHintType());
         }
-
-        submission.saveSession(session);
-        submission.saveNewModifiers(sprint.getModifiers());
-        submission.saveNewEvents(sprint.getEvents());
-
-        Logger.d("Persisted new events and modifiers after engine sprint");
     }
 
-    private void waitForInput(Hint hint) {
+    private void waitForInput(String hintType) {
         ViewCache vc = getViewCache();
         TextView mediaButton = vc.getTextView(R.id.media_icon);
         TextView mediaText = vc.getTextView(R.id.media_text);
 
-        String mediaType = hint != null ? hint.type() : "";
+        String mediaType = hintType != null ? hintType : "";
         switch (mediaType) {
             case "image":
                 mediaButton.setText(getString(R.string.icon_photo_camera));
@@ -551,6 +784,24 @@ public class RunActivity extends BaseActivity {
         scrollToBottom();
     }
 
+    /**
+     * Adds a link to an attachment, e.g. image/jpeg:content://... or geo:1.23,4.56
+     */
+    private void addAttachmentLink(String attachment) {
+        String contentType = StringUtils.substringBefore(attachment, ":");
+        String url = StringUtils.substringAfter(attachment, ":");
+
+        if (contentType.startsWith("image/")) {
+            addMediaLink(getString(R.string.took_image), url, R.string.media_image);
+        } else if (contentType.startsWith("video/")) {
+            addMediaLink(getString(R.string.took_video), url, R.string.media_video);
+        } else if (contentType.startsWith("audio/")) {
+            addMediaLink(getString(R.string.made_recording), url, R.string.media_audio);
+        } else if (contentType.equals("geo")) {
+            addMediaLink(url, attachment + "?q=" + url + "(Location)", R.string.media_location);
+        }
+    }
+
     private void scrollToBottom() {
         scrollView.post(new Runnable() {
             @Override
@@ -566,13 +817,28 @@ public class RunActivity extends BaseActivity {
      * @param view the button
      */
     public void onActionSave(View view) {
-        try {
-            submission.complete();
-
-            finish();
-        } catch (IOException e) {
-            Logger.e("unable to complete submission", e);
+        // a second press would complete the submission twice
+        if (engineBusy || run == null) {
+            return;
         }
+
+        final SessionManager.Run saved = run;
+        engineBusy = true;
+
+        // completed once its pending writes have been drained
+        sessions.complete(saved, new EngineExecutor.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                engineBusy = false;
+                closeRun(saved);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                engineBusy = false;
+                showSaveProblem(e);
+            }
+        });
     }
 
     /**
@@ -593,16 +859,167 @@ public class RunActivity extends BaseActivity {
         confirmDiscardRun();
     }
 
+    /**
+     * User pressed the new respondent menu item - start another run of this flow alongside the current one
+     *
+     * @param item the menu item
+     */
+    public void onActionNewRun(MenuItem item) {
+        if (engineBusy) {
+            return;
+        }
+
+        startNewRun();
+    }
+
+    /**
+     * User pressed the switch respondent menu item - let them pick another run to continue
+     *
+     * @param item the menu item
+     */
+    public void onActionSwitchRun(MenuItem item) {
+        if (engineBusy) {
+            return;
+        }
+
+        final List<Submission> choices = getSwitchableRuns();
+        String[] labels = new String[choices.size()];
+        for (int r = 0; r < choices.size(); r++) {
+            labels[r] = getString(R.string.respondent_number, choices.get(r).getRespondentNumber());
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_switch_run)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Submission chosen = choices.get(which);
+                        SessionManager.Run hosted = getHostedRun(chosen);
+
+                        if (hosted == null) {
+                            // an interrupted run which hasn't been opened yet
+                            openRun(chosen);
+                        } else if (hosted != run) {
+                            showRun(hosted);
+                        }
+                    }
+                }).show();
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem switchRun = menu.findItem(R.id.action_switch_run);
+        if (switchRun != null) {
+            switchRun.setVisible(sessions != null && getSwitchableRuns().size() > 1);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * Gets the submissions of the runs the user can switch between, i.e. the runs we're hosting and
+     * any other interrupted runs of this flow, in respondent order
+     */
+    private List<Submission> getSwitchableRuns() {
+        List<Submission> choices = new ArrayList<>();
+        Set<String> hosted = new HashSet<>();
+        for (SessionManager.Run r : sessions.getRuns()) {
+            choices.add(r.getSubmission());
+            hosted.add(r.getSubmission().getUuid());
+        }
+        for (Submission draft : getSurveyor().getSubmissionService().getIncomplete(org, flow)) {
+            if (!hosted.contains(draft.getUuid())) {
+                choices.add(draft);
+            }
+        }
+
+        Collections.sort(choices, new Comparator<Submission>() {
+            @Override
+            public int compare(Submission s1, Submission s2) {
+                return Integer.compare(s1.getRespondentNumber(), s2.getRespondentNumber());
+            }
+        });
+        return choices;
+    }
+
+    /**
+     * Gets the run we're hosting for the given submission
+     *
+     * @return the run or null if it isn't hosted
+     */
+    private SessionManager.Run getHostedRun(Submission submission) {
+        for (SessionManager.Run r : sessions.getRuns()) {
+            if (r.getSubmission().getUuid().equals(submission.getUuid())) {
+                return r;
+            }
+        }
+        return null;
+    }
+
     private void confirmDiscardRun() {
         showConfirmDialog(R.string.confirm_submission_discard, new ConfirmationListener() {
             @Override
             public void onConfirm() {
-                submission.delete();
-                finish();
+                // the run being shown is the one being started, even if others are hosted
+                if (starting != null) {
+                    discardStartingRun();
+                    return;
+                }
+
+                final SessionManager.Run discarded = run;
+                if (discarded == null) {
+                    // interrupted run hasn't been opened yet
+                    finish();
+                    return;
+                }
+
+                sessions.discard(discarded);
+                closeRun(discarded);
+            }
+        });
+    }
+
+    /**
+     * Discards the run being started once it has started, so that its submission isn't left behind,
+     * and switches to another run if there is one
+     */
+    private void discardStartingRun() {
+        Submission discarded = starting;
+        starting = null;
+
+        sessions.discard(discarded, new EngineExecutor.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                engineBusy = false;
+
+                SessionManager.Run next = sessions.getCurrent();
+                if (next != null && !isFinishing()) {
+                    showRun(next);
+                } else {
+                    finish();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                handleProblem("Unable to discard run", e);
             }
         });
     }
 
+    /**
+     * Stops hosting a run which has been saved or discarded, and switches to another run if there is one
+     */
+    private void closeRun(SessionManager.Run closed) {
+        sessions.remove(closed);
+
+        SessionManager.Run next = sessions.getCurrent();
+        if (next != null) {
+            showRun(next);
+        } else {
+            finish();
+        }
+    }
+
     public void onClickMedia(View view) {
 
         String url = (String) view.getTag(R.string.tag_url);
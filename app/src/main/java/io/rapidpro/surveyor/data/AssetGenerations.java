@@ -0,0 +1,221 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.utils.SurveyUtils;
+
+/**
+ * The generations of an org's asset shards. A refresh writes a complete new generation into its own
+ * directory alongside the current one, and once it's been validated, publishes it by atomically
+ * replacing the pointer to the current generation, so the current generation is never incomplete.
+ * Readers lease the generation they're reading so that it isn't deleted under them, and generations
+ * which are neither current nor leased, including any left incomplete by a crash, are deleted.
+ */
+class AssetGenerations {
+
+    /**
+     * Contains the name of the current generation
+     */
+    private static final String CURRENT_FILE = "CURRENT";
+
+    /**
+     * The name of the generation of shards written directly into the assets directory, before
+     * there were generations
+     */
+    private static final String LEGACY = "";
+
+    private final File directory;
+
+    /**
+     * The name of the current generation, lazily read, or null if there isn't one
+     */
+    private String current;
+    private boolean loaded;
+
+    /**
+     * The number of leases on each generation
+     */
+    private final Map<String, Integer> leases = new HashMap<>();
+
+    /**
+     * A generation of shards
+     */
+    static class Generation {
+        private final String name;
+        private final File directory;
+        private final AssetShards shards;
+
+        private Generation(String name, File directory) {
+            this.name = name;
+            this.directory = directory;
+            this.shards = new AssetShards(directory);
+        }
+
+        /**
+         * Gets the directory of this generation, where files which belong with its shards can be kept
+         */
+        File getDirectory() {
+            return directory;
+        }
+
+        AssetShards getShards() {
+            return shards;
+        }
+
+        boolean isLegacy() {
+            return name.equals(LEGACY);
+        }
+
+        /**
+         * Gets the number of this generation, which increases with every refresh
+         */
+        long getNumber() throws IOException {
+            return isLegacy() ? shards.getGeneration() : Long.parseLong(name);
+        }
+    }
+
+    AssetGenerations(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets whether there is a current generation
+     *
+     * @return true if there is
+     */
+    synchronized boolean exists() {
+        return getCurrent() != null;
+    }
+
+    /**
+     * Leases the current generation. Every lease must be released once reading is done.
+     *
+     * @return the generation or null if there isn't one
+     */
+    synchronized Generation acquire() {
+        String name = getCurrent();
+        if (name == null) {
+            return null;
+        }
+
+        Integer count = leases.get(name);
+        leases.put(name, count != null ? count + 1 : 1);
+        return generation(name);
+    }
+
+    /**
+     * Releases a lease on a generation, deleting it if it's no longer current
+     *
+     * @param generation the generation
+     */
+    synchronized void release(Generation generation) {
+        Integer count = leases.get(generation.name);
+        if (count != null && count > 1) {
+            leases.put(generation.name, count - 1);
+        } else {
+            leases.remove(generation.name);
+            collect();
+        }
+    }
+
+    /**
+     * Creates a new empty generation to write shards to. It isn't visible to readers until it's
+     * published, and it's leased to the writer so that it isn't deleted while it's being written.
+     *
+     * @return the generation
+     */
+    synchronized Generation create() throws IOException {
+        FileUtils.forceMkdir(directory);
+
+        long number = System.currentTimeMillis();
+        while (new File(directory, String.valueOf(number)).exists()) {
+            number++;
+        }
+        String name = String.valueOf(number);
+        FileUtils.forceMkdir(new File(directory, name));
+
+        leases.put(name, 1);
+        return generation(name);
+    }
+
+    /**
+     * Makes the given generation the current generation. Readers holding a lease on the previous
+     * generation can keep reading it, and it's deleted once they're done.
+     *
+     * @param generation the new generation, which must already be complete and validated
+     */
+    synchronized void publish(Generation generation) throws IOException {
+        SurveyUtils.writeAtomically(new File(directory, CURRENT_FILE), generation.name);
+
+        current = generation.name;
+        loaded = true;
+
+        Logger.d("Published asset generation " + generation.name);
+
+        collect();
+    }
+
+    /**
+     * Deletes all generations which are neither current nor leased
+     */
+    synchronized void collect() {
+        String currentName = getCurrent();
+        File[] files = directory.listFiles();
+        if (currentName == null || files == null) {
+            return;
+        }
+
+        boolean keepLegacy = LEGACY.equals(currentName) || leases.containsKey(LEGACY);
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(CURRENT_FILE)) {
+                continue;
+            }
+
+            // anything which isn't a generation directory is part of the legacy shards
+            String generation = isGeneration(file) ? name : LEGACY;
+            boolean keep = generation.equals(LEGACY) ? keepLegacy : generation.equals(currentName) || leases.containsKey(generation);
+
+            if (!keep) {
+                FileUtils.deleteQuietly(file);
+
+                Logger.d("Deleted unused asset generation file " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Reads the name of the current generation, falling back to legacy shards if there's no pointer
+     */
+    private String getCurrent() {
+        if (!loaded) {
+            File pointer = new File(directory, CURRENT_FILE);
+            if (pointer.exists()) {
+                try {
+                    current = FileUtils.readFileToString(pointer, "UTF-8").trim();
+                } catch (IOException e) {
+                    Logger.e("Unable to read current asset generation", e);
+                }
+            } else if (new AssetShards(directory).exists()) {
+                current = LEGACY;
+            }
+            loaded = true;
+        }
+        return current;
+    }
+
+    private Generation generation(String name) {
+        return new Generation(name, name.equals(LEGACY) ? directory : new File(directory, name));
+    }
+
+    private static boolean isGeneration(File file) {
+        return file.isDirectory() && file.getName().matches("\\d+");
+    }
+}
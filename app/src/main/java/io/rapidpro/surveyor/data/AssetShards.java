@@ -0,0 +1,204 @@
+package io.rapidpro.surveyor.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.StringBuilderWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.rapidpro.surveyor.engine.OrgAssets;
+import io.rapidpro.surveyor.utils.JsonUtils;
+import io.rapidpro.surveyor.utils.RawJson;
+import io.rapidpro.surveyor.utils.SurveyUtils;
+
+/**
+ * An org's assets stored as one shard per flow plus shared shards for fields, groups and locations,
+ * so that only the flows needed for a run have to be loaded. Each generation of an org's assets is
+ * a set of shards in its own directory.
+ */
+class AssetShards {
+    private static final String FIELDS_FILE = "fields.json";
+    private static final String GROUPS_FILE = "groups.json";
+    private static final String LOCATIONS_FILE = "locations.json";
+    private static final String FLOWS_DIR = "flows";
+
+    /**
+     * Written last and contains the time the shards were written, so its presence means the shards are complete
+     */
+    private static final String GENERATION_FILE = ".generation";
+
+    private File directory;
+
+    AssetShards(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets whether a complete set of shards exists
+     *
+     * @return true if shards exist
+     */
+    boolean exists() {
+        return new File(directory, GENERATION_FILE).exists();
+    }
+
+    /**
+     * Gets the generation of these shards, which changes whenever they are rewritten
+     *
+     * @return the generation
+     */
+    long getGeneration() throws IOException {
+        return Long.parseLong(FileUtils.readFileToString(new File(directory, GENERATION_FILE), "UTF-8").trim());
+    }
+
+    /**
+     * Writes the shard of a flow. Flow shards are written one at a time as their definitions arrive,
+     * and the shards aren't complete until the shared shards have also been written.
+     *
+     * @param uuid       the flow UUID
+     * @param definition the flow definition
+     */
+    void writeFlow(String uuid, RawJson definition) throws IOException {
+        File flowsDir = SurveyUtils.mkdir(directory, FLOWS_DIR);
+
+        JsonUtils.marshal(definition, new File(flowsDir, uuid + ".json"));
+    }
+
+    /**
+     * Writes the shared shards of the given assets and marks the shards as complete. The shards of
+     * the flows must already have been written.
+     *
+     * @param assets    the assets, whose flows are ignored
+     * @param flowUUIDs the UUIDs of the flows in the assets, whose shards are kept
+     */
+    void write(OrgAssets assets, Collection<String> flowUUIDs) throws IOException {
+        File flowsDir = SurveyUtils.mkdir(directory, FLOWS_DIR);
+
+        // remove shards of flows which no longer exist
+        for (File file : flowsDir.listFiles()) {
+            if (!flowUUIDs.contains(FilenameUtils.getBaseName(file.getName()))) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+
+        JsonUtils.marshal(assets.getFields(), new File(directory, FIELDS_FILE));
+        JsonUtils.marshal(assets.getGroups(), new File(directory, GROUPS_FILE));
+        JsonUtils.marshal(assets.getLocations(), new File(directory, LOCATIONS_FILE));
+
+        FileUtils.writeStringToFile(new File(directory, GENERATION_FILE), String.valueOf(System.currentTimeMillis()), "UTF-8");
+    }
+
+    /**
+     * Checks that these shards are complete and that each shard is well-formed JSON, without
+     * building any of them in memory
+     *
+     * @param flowUUIDs the UUIDs of the flows which should have shards
+     */
+    void validate(Collection<String> flowUUIDs) throws IOException {
+        if (!exists()) {
+            throw new IOException("Incomplete asset shards in " + directory.getPath());
+        }
+
+        validate(new File(directory, FIELDS_FILE));
+        validate(new File(directory, GROUPS_FILE));
+        validate(new File(directory, LOCATIONS_FILE));
+
+        for (String uuid : flowUUIDs) {
+            validate(new File(new File(directory, FLOWS_DIR), uuid + ".json"));
+        }
+    }
+
+    /**
+     * Assembles an assets JSON document from the shared shards and the given flows
+     *
+     * @param flowUUIDs the UUIDs of the flows to include
+     * @return the assets JSON
+     */
+    String assemble(Collection<String> flowUUIDs) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"fields\":");
+        append(json, new File(directory, FIELDS_FILE));
+        json.append(",\"groups\":");
+        append(json, new File(directory, GROUPS_FILE));
+        json.append(",\"locations\":");
+        append(json, new File(directory, LOCATIONS_FILE));
+        json.append(",\"flows\":[");
+
+        boolean first = true;
+        for (String uuid : flowUUIDs) {
+            // shards are validated before they're published, so a missing flow is one which this
+            // generation doesn't have, e.g. we were asked for a flow of the next generation
+            File file = new File(new File(directory, FLOWS_DIR), uuid + ".json");
+            if (!file.exists()) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            append(json, file);
+            first = false;
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Gets the UUIDs of all flows which have shards
+     *
+     * @return the flow UUIDs
+     */
+    Set<String> getFlowUUIDs() {
+        Set<String> uuids = new HashSet<>();
+        File[] files = new File(directory, FLOWS_DIR).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                uuids.add(FilenameUtils.getBaseName(file.getName()));
+            }
+        }
+        return uuids;
+    }
+
+    private static void validate(File file) throws IOException {
+        if (!file.exists()) {
+            throw new IOException("Missing asset shard " + file.getPath());
+        }
+
+        JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            reader.skipValue();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IOException("Trailing content in asset shard " + file.getPath());
+            }
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new IOException("Invalid asset shard " + file.getPath(), e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Appends the contents of a shard straight to the given builder, without reading it into a
+     * string of its own first
+     */
+    private static void append(StringBuilder json, File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            IOUtils.copy(reader, new StringBuilderWriter(json));
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import io.rapidpro.surveyor.net.requests.SubmissionPayload;
+import io.rapidpro.surveyor.utils.SurveyUtils;
+
+/**
+ * Submission store which keeps each submission in its own directory, sharded by the day it was
+ * created so that no one directory grows too large, i.e. org/flow/yyyyMMdd/submission. Once
+ * completed, a submission is never modified again, so it's packed into a single archive next to
+ * where its directory was, i.e. org/flow/yyyyMMdd/submission.zip, which is read from until it's sent.
+ * Submissions created before sharding are left directly in their flow directory.
+ */
+public class DirectorySubmissionStore implements SubmissionStore {
+
+    static final String SESSION_FILE = "session.json";
+    static final String MODIFIERS_FILE = "modifiers.log";
+    static final String EVENTS_FILE = "events.log";
+    static final String COMPLETION_FILE = ".completed";
+
+    /**
+     * Submissions started before logs were framed have newline separated logs, which we keep
+     * appending to so that their journal checkpoints stay valid
+     */
+    static final String LEGACY_MODIFIERS_FILE = "modifiers.jsonl";
+    static final String LEGACY_EVENTS_FILE = "events.jsonl";
+
+    private static FileFilter DIR_FILTER = DirectoryFileFilter.INSTANCE;
+
+    private static final String BUCKET_FORMAT = "yyyyMMdd";
+
+    private static final SubmissionPayload.Records EMPTY_RECORDS = new SubmissionPayload.Records() {
+        @Override
+        public String next() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private File rootDir;
+
+    /**
+     * Archives of submissions being held open for reading, by submission directory
+     */
+    private final Map<File, SubmissionArchive> openArchives = new HashMap<>();
+
+    /**
+     * Creates a new directory based store
+     *
+     * @param rootDir the root directory
+     */
+    public DirectorySubmissionStore(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    @Override
+    public Submission create(Org org, String flowUuid) throws IOException {
+        File bucketDir = SurveyUtils.mkdir(rootDir, org.getUuid(), flowUuid, bucketFor(System.currentTimeMillis()));
+
+        File directory = new File(bucketDir, UUID.randomUUID().toString());
+        if (!directory.mkdirs()) {
+            throw new IOException("Unable to create submission directory " + directory.getPath());
+        }
+        return new Submission(org, flowUuid, directory, this);
+    }
+
+    @Override
+    public Submission get(Org org, String flowUuid, String uuid) {
+        for (File bucketDir : listBuckets(flowDir(org, flowUuid))) {
+            File directory = new File(bucketDir, uuid);
+            if (directory.isDirectory() || new SubmissionArchive(directory).exists()) {
+                return new Submission(org, flowUuid, directory, this);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Submission> getAll(Org org, String flowUuid) {
+        List<Submission> all = new ArrayList<>();
+        for (File bucketDir : listBuckets(flowDir(org, flowUuid))) {
+            for (File directory : listSubmissions(bucketDir)) {
+                all.add(new Submission(org, flowUuid, directory, this));
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public List<Submission> getDrafts(Org org, String flowUuid) {
+        List<Submission> drafts = new ArrayList<>();
+        for (File bucketDir : listBuckets(flowDir(org, flowUuid))) {
+            for (File directory : listSubmissions(bucketDir)) {
+                // packed submissions have no directory and are always completed
+                if (directory.isDirectory() && !isCompleted(directory)) {
+                    drafts.add(new Submission(org, flowUuid, directory, this));
+                }
+            }
+        }
+        return drafts;
+    }
+
+    /**
+     * Pages are read a bucket at a time, with positions given as the bucket and submission UUID
+     * separated by a slash, and submissions not yet sharded in a bucket named "" which sorts first.
+     */
+    @Override
+    public Page getCompleted(Org org, String flowUuid, String after, int limit) {
+        File flowDir = flowDir(org, flowUuid);
+        String afterBucket = after != null ? after.substring(0, after.indexOf('/')) : null;
+        String afterUuid = after != null ? after.substring(after.indexOf('/') + 1) : null;
+
+        List<Submission> submissions = new ArrayList<>();
+        String end = after;
+
+        for (File bucketDir : listBuckets(flowDir)) {
+            String bucket = bucketDir.equals(flowDir) ? "" : bucketDir.getName();
+            if (afterBucket != null && bucket.compareTo(afterBucket) < 0) {
+                continue;
+            }
+
+            List<File> directories = listSubmissions(bucketDir);
+            Collections.sort(directories);
+
+            for (File directory : directories) {
+                if (bucket.equals(afterBucket) && directory.getName().compareTo(afterUuid) <= 0) {
+                    continue;
+                }
+                if (isCompleted(directory)) {
+                    submissions.add(new Submission(org, flowUuid, directory, this));
+                    end = bucket + "/" + directory.getName();
+
+                    if (submissions.size() == limit) {
+                        return new Page(submissions, end);
+                    }
+                }
+            }
+        }
+        return new Page(submissions, end);
+    }
+
+    @Override
+    public Map<String, SubmissionIndex.Counts> countAll() {
+        Map<String, SubmissionIndex.Counts> all = new HashMap<>();
+
+        File[] orgDirs = rootDir.listFiles(DIR_FILTER);
+        for (File orgDir : orgDirs != null ? orgDirs : new File[0]) {
+            for (File flowDir : orgDir.listFiles(DIR_FILTER)) {
+                SubmissionIndex.Counts c = new SubmissionIndex.Counts();
+
+                // only one bucket is listed at a time
+                for (File bucketDir : listBuckets(flowDir)) {
+                    for (File subDir : listSubmissions(bucketDir)) {
+                        if (isCompleted(subDir)) {
+                            c.add(0, 1, 0, getCompletedSize(subDir));
+                        } else {
+                            c.add(1, 0, 0, 0);
+                        }
+                    }
+                }
+                all.put(orgDir.getName() + "/" + flowDir.getName(), c);
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public void clearAll() throws IOException {
+        FileUtils.deleteDirectory(rootDir);
+        rootDir.mkdir();
+    }
+
+    @Override
+    public boolean isCompleted(Submission submission) {
+        return isCompleted(submission.getDirectory());
+    }
+
+    @Override
+    public boolean hasSession(Submission submission) {
+        if (getArchive(submission.getDirectory()).exists()) {
+            return true;
+        }
+        return new File(submission.getDirectory(), SESSION_FILE).exists() || submission.getJournal().exists();
+    }
+
+    @Override
+    public long getLastSaved(Submission submission) {
+        SubmissionArchive archive = getArchive(submission.getDirectory());
+        if (archive.exists()) {
+            return archive.getFile().lastModified();
+        }
+        return Math.max(new File(submission.getDirectory(), SESSION_FILE).lastModified(), submission.getJournal().lastModified());
+    }
+
+    @Override
+    public String readSession(Submission submission) throws IOException {
+        SubmissionArchive archive = getArchive(submission.getDirectory());
+        if (archive.exists()) {
+            return archive.read(SESSION_FILE);
+        }
+        return FileUtils.readFileToString(new File(submission.getDirectory(), SESSION_FILE), "UTF-8");
+    }
+
+    @Override
+    public List<String> readEvents(Submission submission) throws IOException {
+        return readAll(openEvents(submission));
+    }
+
+    @Override
+    public List<String> readModifiers(Submission submission) throws IOException {
+        return readAll(openModifiers(submission));
+    }
+
+    @Override
+    public Closeable openForReading(Submission submission) throws IOException {
+        final File directory = submission.getDirectory();
+        final SubmissionArchive archive = new SubmissionArchive(directory);
+
+        if (archive.exists()) {
+            archive.hold();
+            synchronized (openArchives) {
+                openArchives.put(directory, archive);
+            }
+        }
+
+        return new Closeable() {
+            @Override
+            public void close() throws IOException {
+                synchronized (openArchives) {
+                    openArchives.remove(directory);
+                }
+                archive.close();
+            }
+        };
+    }
+
+    @Override
+    public SubmissionPayload.Records openEvents(Submission submission) throws IOException {
+        return openLog(submission.getDirectory(), EVENTS_FILE, LEGACY_EVENTS_FILE);
+    }
+
+    @Override
+    public SubmissionPayload.Records openModifiers(Submission submission) throws IOException {
+        return openLog(submission.getDirectory(), MODIFIERS_FILE, LEGACY_MODIFIERS_FILE);
+    }
+
+    @Override
+    public List<File> getMedia(Submission submission) throws IOException {
+        List<File> media = new ArrayList<>();
+        SubmissionArchive archive = getArchive(submission.getDirectory());
+        if (archive.exists()) {
+            // media is listed by where it was saved, since that's how it's referred to in events
+            for (String name : archive.list(Submission.MEDIA_DIR)) {
+                media.add(new File(submission.getDirectory(), name));
+            }
+            if (archive.has(MediaStore.REFS_FILE)) {
+                media.addAll(MediaStore.parseRefs(archive.read(MediaStore.REFS_FILE)));
+            }
+        } else {
+            File[] files = new File(submission.getDirectory(), Submission.MEDIA_DIR).listFiles();
+            if (files != null) {
+                Collections.addAll(media, files);
+            }
+            File refs = new File(submission.getDirectory(), MediaStore.REFS_FILE);
+            if (refs.exists()) {
+                media.addAll(MediaStore.parseRefs(FileUtils.readFileToString(refs, "UTF-8")));
+            }
+        }
+        return media;
+    }
+
+    @Override
+    public void addMedia(Submission submission, File blob) throws IOException {
+        MediaStore.addRef(submission.getDirectory(), blob);
+    }
+
+    @Override
+    public InputStream openMedia(Submission submission, File file) throws IOException {
+        // only media saved in the submission's own directory is packed into its archive
+        SubmissionArchive archive = getArchive(submission.getDirectory());
+        if (archive.exists() && file.getParentFile().getParentFile().equals(submission.getDirectory())) {
+            return archive.open(Submission.MEDIA_DIR + "/" + file.getName());
+        }
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public void appendEvents(Submission submission, List<String> events) throws IOException {
+        appendLog(submission.getDirectory(), EVENTS_FILE, LEGACY_EVENTS_FILE, events);
+    }
+
+    @Override
+    public void appendModifiers(Submission submission, List<String> modifiers) throws IOException {
+        appendLog(submission.getDirectory(), MODIFIERS_FILE, LEGACY_MODIFIERS_FILE, modifiers);
+    }
+
+    @Override
+    public Appender openAppender(Submission submission) throws IOException {
+        File directory = submission.getDirectory();
+        final LogWriter events = openLogWriter(logFile(directory, EVENTS_FILE, LEGACY_EVENTS_FILE), LEGACY_EVENTS_FILE);
+        final LogWriter modifiers = openLogWriter(logFile(directory, MODIFIERS_FILE, LEGACY_MODIFIERS_FILE), LEGACY_MODIFIERS_FILE);
+
+        return new Appender() {
+            @Override
+            public void appendEvents(List<String> records) throws IOException {
+                events.append(records);
+            }
+
+            @Override
+            public void appendModifiers(List<String> records) throws IOException {
+                modifiers.append(records);
+            }
+
+            @Override
+            public void flush(boolean sync) throws IOException {
+                events.flush(sync);
+                modifiers.flush(sync);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    events.close();
+                } finally {
+                    modifiers.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public int saveInput(Submission submission, SessionJournal.Input input, boolean sync) throws IOException {
+        return submission.getJournal().append(input, sync);
+    }
+
+    @Override
+    public void checkpointSession(Submission submission, String sessionJSON, boolean sync) throws IOException {
+        File directory = submission.getDirectory();
+        File events = logFile(directory, EVENTS_FILE, LEGACY_EVENTS_FILE);
+        File modifiers = logFile(directory, MODIFIERS_FILE, LEGACY_MODIFIERS_FILE);
+
+        submission.getJournal().checkpoint(sessionJSON, events.length(), modifiers.length(), sync);
+    }
+
+    /**
+     * Recovers a journaled session from its checkpoint, restoring the logs and session from the
+     * inputs journaled since. The journal is left as it is, so recovering again before the next
+     * checkpoint gives the same result.
+     */
+    @Override
+    public String recoverSession(Submission submission, List<SessionJournal.Input> unsaved) throws IOException {
+        SessionJournal journal = submission.getJournal();
+        if (!journal.exists()) {
+            return readSession(submission);
+        }
+
+        File directory = submission.getDirectory();
+        File events = logFile(directory, EVENTS_FILE, LEGACY_EVENTS_FILE);
+        File modifiers = logFile(directory, MODIFIERS_FILE, LEGACY_MODIFIERS_FILE);
+
+        List<SessionJournal.Input> inputs = new ArrayList<>();
+        String session = SessionJournal.apply(journal.recover(events, modifiers, inputs), inputs, unsaved);
+
+        for (SessionJournal.Input input : inputs) {
+            appendLog(directory, MODIFIERS_FILE, LEGACY_MODIFIERS_FILE, input.getModifiers());
+            appendLog(directory, EVENTS_FILE, LEGACY_EVENTS_FILE, input.getEvents());
+        }
+        return session;
+    }
+
+    @Override
+    public void saveSession(Submission submission, String sessionJSON) throws IOException {
+        FileUtils.writeStringToFile(new File(submission.getDirectory(), SESSION_FILE), sessionJSON, "UTF-8");
+        submission.getJournal().delete();
+    }
+
+    @Override
+    public long complete(Submission submission) throws IOException {
+        File directory = submission.getDirectory();
+
+        // the logs are never appended to again, so make sure they don't end with a torn record
+        new RecordLog(new File(directory, EVENTS_FILE)).repair();
+        new RecordLog(new File(directory, MODIFIERS_FILE)).repair();
+
+        // mark as completed first so that if we're interrupted packing, it's still complete unpacked
+        FileUtils.writeStringToFile(new File(directory, COMPLETION_FILE), String.valueOf(FileUtils.sizeOfDirectory(directory)), "UTF-8");
+
+        SubmissionArchive archive = new SubmissionArchive(directory);
+        archive.pack(directory);
+        FileUtils.deleteDirectory(directory);
+
+        return archive.getFile().length();
+    }
+
+    @Override
+    public long getCompletedSize(Submission submission) {
+        return getCompletedSize(submission.getDirectory());
+    }
+
+    @Override
+    public void delete(Submission submission) throws IOException {
+        FileUtils.deleteQuietly(new SubmissionArchive(submission.getDirectory()).getFile());
+        FileUtils.deleteDirectory(submission.getDirectory());
+    }
+
+    static boolean isCompleted(File directory) {
+        return new SubmissionArchive(directory).exists() || new File(directory, COMPLETION_FILE).exists();
+    }
+
+    /**
+     * Gets the size of a completed submission, i.e. the size of its archive, or if it wasn't packed,
+     * as recorded when it was completed
+     */
+    static long getCompletedSize(File directory) {
+        SubmissionArchive archive = new SubmissionArchive(directory);
+        if (archive.exists()) {
+            return archive.getFile().length();
+        }
+        try {
+            return Long.parseLong(FileUtils.readFileToString(new File(directory, COMPLETION_FILE), "UTF-8").trim());
+        } catch (IOException | NumberFormatException e) {
+            // completed before sizes were recorded
+            return FileUtils.sizeOfDirectory(directory);
+        }
+    }
+
+    /**
+     * Gets the log file to use, i.e. the legacy one if this submission has one
+     */
+    private static File logFile(File directory, String name, String legacyName) {
+        File legacy = new File(directory, legacyName);
+        return legacy.exists() ? legacy : new File(directory, name);
+    }
+
+    private File flowDir(Org org, String flowUuid) {
+        return new File(new File(rootDir, org.getUuid()), flowUuid);
+    }
+
+    /**
+     * Gets the bucket which submissions created at the given time are sharded into
+     */
+    static String bucketFor(long time) {
+        SimpleDateFormat format = new SimpleDateFormat(BUCKET_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    static boolean isBucket(File file) {
+        return file.isDirectory() && file.getName().length() == BUCKET_FORMAT.length() && StringUtils.isNumeric(file.getName());
+    }
+
+    /**
+     * Lists the bucket directories of a flow in order, preceded by the flow directory itself where
+     * submissions created before sharding are
+     */
+    static List<File> listBuckets(File flowDir) {
+        List<File> buckets = new ArrayList<>();
+        File[] files = flowDir.listFiles(DIR_FILTER);
+        if (files == null) {
+            return buckets;
+        }
+
+        for (File file : files) {
+            if (isBucket(file)) {
+                buckets.add(file);
+            }
+        }
+        Collections.sort(buckets);
+        buckets.add(0, flowDir);
+        return buckets;
+    }
+
+    /**
+     * Lists the directories of the submissions directly in a bucket, including those which have
+     * been packed
+     */
+    static List<File> listSubmissions(File bucketDir) {
+        Set<File> directories = new LinkedHashSet<>();
+        File[] files = bucketDir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (isBucket(file)) {
+                continue;
+            } else if (file.isDirectory()) {
+                directories.add(file);
+            } else if (SubmissionArchive.isArchive(file)) {
+                // if we were interrupted before deleting a packed directory, it'll be listed twice
+                directories.add(SubmissionArchive.directoryOf(file));
+            }
+        }
+        return new ArrayList<>(directories);
+    }
+
+    private static List<String> readAll(SubmissionPayload.Records records) throws IOException {
+        List<String> all = new ArrayList<>();
+        try {
+            String record;
+            while ((record = records.next()) != null) {
+                all.add(record);
+            }
+        } finally {
+            records.close();
+        }
+        return all;
+    }
+
+    /**
+     * Gets the archive of the given submission directory, which may be held open for reading
+     */
+    private SubmissionArchive getArchive(File directory) {
+        synchronized (openArchives) {
+            SubmissionArchive archive = openArchives.get(directory);
+            return archive != null ? archive : new SubmissionArchive(directory);
+        }
+    }
+
+    private SubmissionPayload.Records openLog(File directory, String name, String legacyName) throws IOException {
+        SubmissionArchive archive = getArchive(directory);
+        if (archive.exists()) {
+            if (archive.has(legacyName)) {
+                return new LineRecords(archive.open(legacyName));
+            } else if (archive.has(name)) {
+                return new RecordLog.Reader(archive.open(name));
+            }
+            return EMPTY_RECORDS;
+        }
+
+        File file = logFile(directory, name, legacyName);
+        if (!file.exists()) {
+            return EMPTY_RECORDS;
+        } else if (file.getName().equals(legacyName)) {
+            return new LineRecords(new FileInputStream(file));
+        }
+        return new RecordLog(file).openReader();
+    }
+
+    private static void appendLog(File directory, String name, String legacyName, List<String> records) throws IOException {
+        File file = logFile(directory, name, legacyName);
+        if (file.getName().equals(legacyName)) {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            try {
+                for (String record : records) {
+                    writer.write(record);
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+        } else {
+            new RecordLog(file).append(records);
+        }
+    }
+
+    private static LogWriter openLogWriter(File file, String legacyName) throws IOException {
+        if (file.getName().equals(legacyName)) {
+            return new LineWriter(file);
+        }
+        final RecordLog.Writer writer = new RecordLog(file).openWriter();
+
+        return new LogWriter() {
+            @Override
+            public void append(List<String> records) throws IOException {
+                for (String record : records) {
+                    writer.append(record);
+                }
+            }
+
+            @Override
+            public void flush(boolean sync) throws IOException {
+                if (sync) {
+                    writer.sync();
+                } else {
+                    writer.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    /**
+     * A log kept open for appending
+     */
+    private interface LogWriter {
+        void append(List<String> records) throws IOException;
+
+        void flush(boolean sync) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Appends records to a legacy newline separated log
+     */
+    private static class LineWriter implements LogWriter {
+        private FileOutputStream file;
+        private BufferedWriter writer;
+
+        LineWriter(File file) throws IOException {
+            this.file = new FileOutputStream(file, true);
+            this.writer = new BufferedWriter(new OutputStreamWriter(this.file, "UTF-8"));
+        }
+
+        @Override
+        public void append(List<String> records) throws IOException {
+            for (String record : records) {
+                writer.write(record);
+                writer.newLine();
+            }
+        }
+
+        @Override
+        public void flush(boolean sync) throws IOException {
+            writer.flush();
+            if (sync) {
+                file.getFD().sync();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads the records of a legacy newline separated log
+     */
+    private static class LineRecords implements SubmissionPayload.Records {
+        private BufferedReader reader;
+
+        LineRecords(InputStream in) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        }
+
+        @Override
+        public String next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && line.isEmpty());
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
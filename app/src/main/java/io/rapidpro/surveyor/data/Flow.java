@@ -1,15 +1,40 @@
 package io.rapidpro.surveyor.data;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.nyaruka.goflow.mobile.FlowReference;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import io.rapidpro.surveyor.utils.JsonUtils;
 import io.rapidpro.surveyor.utils.RawJson;
 
 public class Flow {
+    /**
+     * Whether a flow can be run by this version of the app's flow engine
+     */
+    public enum Compatibility {
+        @SerializedName("supported")
+        SUPPORTED,
+
+        // flow is older than the engine supports so the org's assets should be refreshed
+        @SerializedName("needs_refresh")
+        NEEDS_REFRESH,
+
+        // flow is newer than the engine supports so the app should be upgraded
+        @SerializedName("needs_upgrade")
+        NEEDS_UPGRADE
+    }
+
     private String uuid;
 
     private String name;
@@ -22,6 +47,28 @@ public class Flow {
     @SerializedName("question_count")
     private int questionCount;
 
+    @SerializedName("node_count")
+    private int nodeCount;
+
+    /**
+     * The types of media which the flow's waits ask for, e.g. image or audio
+     */
+    @SerializedName("media_types")
+    private List<String> mediaTypes;
+
+    /**
+     * The UUIDs of other flows which this flow can enter
+     */
+    private List<String> dependencies;
+
+    private Compatibility compatibility;
+
+    /**
+     * The engine spec version that the compatibility was determined against
+     */
+    @SerializedName("checked_spec_version")
+    private String checkedSpecVersion;
+
     /**
      * Creates a new flow
      *
@@ -30,13 +77,19 @@ public class Flow {
      * @param specVersion   the flow spec version number
      * @param revision      the flow revision number
      * @param questionCount the number of questions
+     * @param nodeCount     the number of nodes
+     * @param dependencies  the UUIDs of flows this flow can enter
+     * @param mediaTypes    the types of media the flow's waits ask for
      */
-    public Flow(String uuid, String name, String specVersion, int revision, int questionCount) {
+    public Flow(String uuid, String name, String specVersion, int revision, int questionCount, int nodeCount, List<String> dependencies, List<String> mediaTypes) {
         this.uuid = uuid;
         this.name = name;
         this.specVersion = specVersion;
         this.revision = revision;
         this.questionCount = questionCount;
+        this.nodeCount = nodeCount;
+        this.dependencies = dependencies;
+        this.mediaTypes = mediaTypes;
     }
 
     /**
@@ -46,30 +99,159 @@ public class Flow {
      * @return the flow summary
      */
     public static Flow extract(RawJson flow) {
+        JsonReader in = flow.newReader();
+        try {
+            return extract(in);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonParseException("Unable to extract flow summary", e);
+        }
+    }
 
-        // TODO use streaming for performance https://developer.android.com/reference/android/util/JsonReader
-        JsonObject definition = JsonUtils.unmarshal(flow.toString(), JsonObject.class);
-
-        String uuid = definition.get("uuid").getAsString();
-        String name = definition.get("name").getAsString();
-        String specVersion = definition.get("spec_version").getAsString();
-        int revision = definition.get("revision").getAsInt();
-        int questionCount = 0;
-
-        JsonArray nodes = definition.get("nodes").getAsJsonArray();
-        for (JsonElement elem : nodes) {
-            JsonObject node = elem.getAsJsonObject();
-            JsonElement routerElem = node.get("router");
-            if (routerElem != null) {
-                JsonObject router = routerElem.getAsJsonObject();
-                if (router.get("wait") != null) {
-                    questionCount++;
+    /**
+     * Extracts a flow summary from the flow definition which is the next value of the given reader,
+     * in a single pass which skips everything but the few values the summary needs
+     *
+     * @param in the reader
+     * @return the flow summary
+     */
+    public static Flow extract(JsonReader in) throws IOException {
+        Summary summary = new Summary();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "uuid":
+                    summary.uuid = in.nextString();
+                    break;
+                case "name":
+                    summary.name = in.nextString();
+                    break;
+                case "spec_version":
+                    summary.specVersion = in.nextString();
+                    break;
+                case "revision":
+                    summary.revision = in.nextInt();
+                    break;
+                case "nodes":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        readNode(in, summary);
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (summary.uuid == null || summary.name == null || summary.specVersion == null) {
+            throw new JsonParseException("Flow definition is missing uuid, name or spec_version");
+        }
+
+        return new Flow(summary.uuid, summary.name, summary.specVersion, summary.revision, summary.questionCount, summary.nodeCount,
+                new ArrayList<>(summary.dependencies), new ArrayList<>(summary.mediaTypes));
+    }
+
+    /**
+     * Values accumulated while reading a flow definition
+     */
+    private static class Summary {
+        String uuid;
+        String name;
+        String specVersion;
+        int revision;
+        int questionCount;
+        int nodeCount;
+        Set<String> dependencies = new LinkedHashSet<>();
+        Set<String> mediaTypes = new LinkedHashSet<>();
+    }
+
+    private static void readNode(JsonReader in, Summary summary) throws IOException {
+        summary.nodeCount++;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("router") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                readRouter(in, summary);
+            } else if (name.equals("actions") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    readAction(in, summary);
                 }
+                in.endArray();
+            } else {
+                in.skipValue();
             }
+        }
+        in.endObject();
+    }
+
+    private static void readRouter(JsonReader in, Summary summary) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals("wait") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                summary.questionCount++;
 
+                in.beginObject();
+                while (in.hasNext()) {
+                    if (in.nextName().equals("hint") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                        String type = readProperty(in, "type");
+                        if (type != null) {
+                            summary.mediaTypes.add(type);
+                        }
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+            } else {
+                in.skipValue();
+            }
         }
+        in.endObject();
+    }
 
-        return new Flow(uuid, name, specVersion, revision, questionCount);
+    private static void readAction(JsonReader in, Summary summary) throws IOException {
+        // the type and the flow can come in either order, so hold onto the flow until the end
+        String type = null;
+        String flowUuid = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("type")) {
+                type = in.nextString();
+            } else if (name.equals("flow") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                flowUuid = readProperty(in, "uuid");
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if ("enter_flow".equals(type) && flowUuid != null) {
+            summary.dependencies.add(flowUuid);
+        }
+    }
+
+    /**
+     * Reads the given string property of the next object, skipping everything else
+     */
+    private static String readProperty(JsonReader in, String property) throws IOException {
+        String value = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals(property) && in.peek() == JsonToken.STRING) {
+                value = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return value;
     }
 
     public String getUuid() {
@@ -92,7 +274,136 @@ public class Flow {
         return questionCount;
     }
 
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public List<String> getDependencies() {
+        return dependencies != null ? dependencies : Collections.<String>emptyList();
+    }
+
+    /**
+     * Gets the types of media which this flow's waits ask for, e.g. image or audio
+     *
+     * @return the media types
+     */
+    public List<String> getMediaTypes() {
+        return mediaTypes != null ? mediaTypes : Collections.<String>emptyList();
+    }
+
+    public Compatibility getCompatibility() {
+        return compatibility;
+    }
+
+    public String getCheckedSpecVersion() {
+        return checkedSpecVersion;
+    }
+
+    /**
+     * Sets the compatibility of this flow
+     *
+     * @param compatibility the compatibility
+     * @param engineVersion the engine spec version it was determined against
+     */
+    public void setCompatibility(Compatibility compatibility, String engineVersion) {
+        this.compatibility = compatibility;
+        this.checkedSpecVersion = engineVersion;
+    }
+
     public FlowReference toReference() {
         return new FlowReference(uuid, name);
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write flow summaries without reflection
+     */
+    public static class Adapter extends TypeAdapter<Flow> {
+        @Override
+        public void write(JsonWriter out, Flow flow) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(flow.uuid);
+            out.name("name").value(flow.name);
+            out.name("spec_version").value(flow.specVersion);
+            out.name("revision").value(flow.revision);
+            out.name("question_count").value(flow.questionCount);
+            out.name("node_count").value(flow.nodeCount);
+            out.name("media_types");
+            JsonUtils.writeStringList(out, flow.mediaTypes);
+            out.name("dependencies");
+            JsonUtils.writeStringList(out, flow.dependencies);
+            out.name("compatibility").value(flow.compatibility != null ? encode(flow.compatibility) : null);
+            out.name("checked_spec_version").value(flow.checkedSpecVersion);
+            out.endObject();
+        }
+
+        @Override
+        public Flow read(JsonReader in) throws IOException {
+            Flow flow = new Flow(null, null, null, 0, 0, 0, null, null);
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "uuid":
+                        flow.uuid = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        flow.name = JsonUtils.nextString(in);
+                        break;
+                    case "spec_version":
+                        flow.specVersion = JsonUtils.nextString(in);
+                        break;
+                    case "revision":
+                        flow.revision = JsonUtils.nextInt(in, flow.revision);
+                        break;
+                    case "question_count":
+                        flow.questionCount = JsonUtils.nextInt(in, flow.questionCount);
+                        break;
+                    case "node_count":
+                        flow.nodeCount = JsonUtils.nextInt(in, flow.nodeCount);
+                        break;
+                    case "media_types":
+                        flow.mediaTypes = JsonUtils.nextStringList(in);
+                        break;
+                    case "dependencies":
+                        flow.dependencies = JsonUtils.nextStringList(in);
+                        break;
+                    case "compatibility":
+                        String compatibility = JsonUtils.nextString(in);
+                        flow.compatibility = compatibility != null ? decode(compatibility) : null;
+                        break;
+                    case "checked_spec_version":
+                        flow.checkedSpecVersion = JsonUtils.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return flow;
+        }
+
+        private static String encode(Compatibility compatibility) {
+            switch (compatibility) {
+                case NEEDS_REFRESH:
+                    return "needs_refresh";
+                case NEEDS_UPGRADE:
+                    return "needs_upgrade";
+                default:
+                    return "supported";
+            }
+        }
+
+        private static Compatibility decode(String value) {
+            switch (value) {
+                case "supported":
+                    return Compatibility.SUPPORTED;
+                case "needs_refresh":
+                    return Compatibility.NEEDS_REFRESH;
+                case "needs_upgrade":
+                    return Compatibility.NEEDS_UPGRADE;
+                default:
+                    return null;
+            }
+        }
+    }
 }
@@ -0,0 +1,295 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.utils.JsonUtils;
+
+/**
+ * Content-addressed store of the media of all submissions. Each blob is named by the SHA-256 hash
+ * of its content, computed as it's streamed to disk, so the same content saved to several
+ * submissions is only kept once. Blobs are reference counted by the submissions which refer to
+ * them and deleted once none do. The remote URL of each uploaded blob is remembered, even after the
+ * blob is deleted, so that the same content is never uploaded twice.
+ */
+public class MediaStore {
+
+    private static final String INDEX_FILE = "index.json";
+
+    /**
+     * The file in a submission's directory which lists the blobs it refers to, one path per line
+     */
+    static final String REFS_FILE = "media.txt";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private File directory;
+
+    /**
+     * The reference counts and remote URLs of blobs, lazily loaded
+     */
+    private Index index;
+
+    private static class Index {
+        private Map<String, Integer> refs = new HashMap<>();
+        private Map<String, String> urls = new HashMap<>();
+    }
+
+    public MediaStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Saves the given content as a blob, or if the store already has a blob with the same content,
+     * adds a reference to that instead
+     *
+     * @param in        the content, which is closed once read
+     * @param extension the file extension
+     * @return the blob file
+     */
+    public File save(InputStream in, String extension) throws IOException {
+        FileUtils.forceMkdir(directory);
+
+        MessageDigest digest = newDigest();
+        File temp = File.createTempFile("media", ".tmp", directory);
+        try {
+            FileUtils.copyInputStreamToFile(new DigestInputStream(in, digest), temp);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(temp);
+            throw e;
+        }
+
+        File blob = new File(directory, toHex(digest.digest()) + "." + extension.toLowerCase());
+
+        synchronized (this) {
+            if (blob.exists()) {
+                FileUtils.deleteQuietly(temp);
+                Logger.d("Media " + blob.getName() + " already saved");
+            } else if (!temp.renameTo(blob)) {
+                FileUtils.deleteQuietly(temp);
+                throw new IOException("Unable to rename " + temp.getPath() + " to " + blob.getPath());
+            }
+
+            // if we're killed before the submission records its reference, the blob is kept
+            // forever, which is better than deleting a blob still referred to
+            Map<String, Integer> refs = load().refs;
+            Integer count = refs.get(blob.getName());
+            refs.put(blob.getName(), count != null ? count + 1 : 1);
+            save();
+        }
+        return blob;
+    }
+
+    /**
+     * Removes a reference to the given blob, deleting it if it was the last
+     *
+     * @param blob the blob file
+     */
+    public synchronized void release(File blob) {
+        Map<String, Integer> refs = load().refs;
+        Integer count = refs.get(blob.getName());
+        if (count != null && count > 1) {
+            refs.put(blob.getName(), count - 1);
+        } else {
+            refs.remove(blob.getName());
+            FileUtils.deleteQuietly(blob);
+        }
+        save();
+    }
+
+    /**
+     * Gets whether the given file is a blob in this store, rather than media saved to a submission
+     * before there was a store
+     *
+     * @param file the file
+     * @return true if it's a blob
+     */
+    public boolean contains(File file) {
+        return directory.equals(file.getParentFile());
+    }
+
+    /**
+     * Gets the remote URL the given blob was uploaded to
+     *
+     * @param blob the blob file
+     * @return the URL or null if it hasn't been uploaded
+     */
+    public synchronized String getUploadedUrl(File blob) {
+        return load().urls.get(blob.getName());
+    }
+
+    /**
+     * Records the remote URL the given blob was uploaded to
+     *
+     * @param blob the blob file
+     * @param url  the URL
+     */
+    public synchronized void setUploadedUrl(File blob, String url) {
+        load().urls.put(blob.getName(), url);
+        save();
+    }
+
+    /**
+     * Gets the total size of the blobs in this store
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(INDEX_FILE)) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes blobs which have already been uploaded and which no unsent submission refers to,
+     * oldest first, e.g. blobs left behind if we were killed before their index entries were
+     * saved. Blobs which are still referenced are kept, since drafts show them and the submissions
+     * referring to them may not have been sent yet. Evicted blobs are dropped from the index.
+     *
+     * @param bytes the number of bytes to free
+     * @return the number of bytes freed
+     */
+    public synchronized long evictUploaded(long bytes) {
+        Index index = load();
+        List<File> uploaded = new ArrayList<>();
+        for (String name : index.urls.keySet()) {
+            Integer count = index.refs.get(name);
+            File blob = new File(directory, name);
+            if ((count == null || count <= 0) && blob.exists()) {
+                uploaded.add(blob);
+            }
+        }
+        Collections.sort(uploaded, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+
+        long freed = 0;
+        for (File blob : uploaded) {
+            if (freed >= bytes) {
+                break;
+            }
+            long length = blob.length();
+            if (blob.delete()) {
+                freed += length;
+                index.refs.remove(blob.getName());
+                index.urls.remove(blob.getName());
+            }
+        }
+
+        if (freed > 0) {
+            save();
+        }
+
+        Logger.d("Evicted " + freed + " bytes of uploaded media");
+        return freed;
+    }
+
+    /**
+     * Forgets the loaded index so that it's read from disk again when next needed
+     */
+    public synchronized void invalidate() {
+        index = null;
+    }
+
+    /**
+     * Deletes all blobs, e.g. once all submissions have been cleared
+     */
+    public synchronized void reset() throws IOException {
+        FileUtils.deleteDirectory(directory);
+        index = new Index();
+    }
+
+    /**
+     * Records a reference from the submission with the given directory to the given blob
+     *
+     * @param directory the submission directory
+     * @param blob      the blob file
+     */
+    static void addRef(File directory, File blob) throws IOException {
+        FileUtils.writeStringToFile(new File(directory, REFS_FILE), blob.getAbsolutePath() + "\n", "UTF-8", true);
+    }
+
+    /**
+     * Parses the blob references of a submission
+     *
+     * @param refs the contents of a submission's references file
+     * @return the blob files
+     */
+    static List<File> parseRefs(String refs) {
+        List<File> blobs = new ArrayList<>();
+        for (String line : refs.split("\n")) {
+            if (!line.isEmpty()) {
+                blobs.add(new File(line));
+            }
+        }
+        return blobs;
+    }
+
+    private Index load() {
+        if (index == null) {
+            File file = new File(directory, INDEX_FILE);
+            if (file.exists()) {
+                try {
+                    index = JsonUtils.unmarshal(file, Index.class);
+                } catch (IOException | RuntimeException e) {
+                    Logger.e("Unable to read media index", e);
+                }
+            }
+            if (index == null) {
+                index = new Index();
+            }
+        }
+        return index;
+    }
+
+    private void save() {
+        try {
+            FileUtils.forceMkdir(directory);
+
+            JsonUtils.marshal(index, new File(directory, INDEX_FILE));
+        } catch (IOException e) {
+            Logger.e("Unable to save media index", e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,66 @@
+package io.rapidpro.surveyor.data;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.rapidpro.surveyor.engine.FieldAsset;
+import io.rapidpro.surveyor.engine.GroupAsset;
+import io.rapidpro.surveyor.engine.LocationAsset;
+import io.rapidpro.surveyor.engine.OrgAssets;
+import io.rapidpro.surveyor.net.responses.Boundary;
+import io.rapidpro.surveyor.net.responses.Field;
+import io.rapidpro.surveyor.net.responses.Group;
+import io.rapidpro.surveyor.net.responses.PaginatedResults;
+import io.rapidpro.surveyor.net.responses.Token;
+import io.rapidpro.surveyor.net.responses.TokenResults;
+import io.rapidpro.surveyor.utils.JsonUtils;
+
+/**
+ * Registry of the hand-written type adapters of models which are read or written on hot paths, so
+ * Gson doesn't have to reflect over them. Each writes the same JSON that reflection would, so
+ * anything read or written before they're registered is unaffected.
+ */
+public class ModelAdapters implements TypeAdapterFactory {
+
+    private final Map<Class<?>, TypeAdapter<?>> adapters = new HashMap<>();
+
+    private final TypeAdapterFactory paginated = new PaginatedResults.AdapterFactory();
+
+    public ModelAdapters() {
+        adapters.put(Org.class, new Org.Adapter().nullSafe());
+        adapters.put(Flow.class, new Flow.Adapter().nullSafe());
+        adapters.put(OrgAssets.class, new OrgAssets.Adapter().nullSafe());
+        adapters.put(FieldAsset.class, new FieldAsset.Adapter().nullSafe());
+        adapters.put(GroupAsset.class, new GroupAsset.Adapter().nullSafe());
+        adapters.put(LocationAsset.class, new LocationAsset.Adapter().nullSafe());
+        adapters.put(io.rapidpro.surveyor.net.responses.Org.class, new io.rapidpro.surveyor.net.responses.Org.Adapter().nullSafe());
+        adapters.put(io.rapidpro.surveyor.net.responses.Flow.class, new io.rapidpro.surveyor.net.responses.Flow.Adapter().nullSafe());
+        adapters.put(Boundary.class, new Boundary.Adapter().nullSafe());
+        adapters.put(Field.class, new Field.Adapter().nullSafe());
+        adapters.put(Group.class, new Group.Adapter().nullSafe());
+        adapters.put(Token.class, new Token.Adapter().nullSafe());
+        adapters.put(TokenResults.class, new TokenResults.Adapter().nullSafe());
+    }
+
+    /**
+     * Registers these adapters with the shared Gson instance, e.g. when the app is created
+     */
+    public static void register() {
+        JsonUtils.registerAdapters(new ModelAdapters());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        TypeAdapter<?> adapter = adapters.get(type.getRawType());
+        if (adapter != null) {
+            return (TypeAdapter<T>) adapter;
+        }
+        return paginated.create(gson, type);
+    }
+}
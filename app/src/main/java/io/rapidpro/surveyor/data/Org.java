@@ -1,18 +1,28 @@
 package io.rapidpro.surveyor.data;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.SurveyorApplication;
+import io.rapidpro.surveyor.engine.Engine;
 import io.rapidpro.surveyor.engine.OrgAssets;
+import io.rapidpro.surveyor.engine.SessionAssetsCache;
 import io.rapidpro.surveyor.net.TembaException;
 import io.rapidpro.surveyor.net.TembaService;
 import io.rapidpro.surveyor.net.responses.Boundary;
@@ -20,6 +30,7 @@ import io.rapidpro.surveyor.net.responses.Field;
 import io.rapidpro.surveyor.net.responses.Group;
 import io.rapidpro.surveyor.utils.JsonUtils;
 import io.rapidpro.surveyor.utils.RawJson;
+import io.rapidpro.surveyor.utils.SurveyUtils;
 
 public class Org {
     /**
@@ -28,12 +39,19 @@ public class Org {
     private static final String DETAILS_FILE = "details.json";
 
     /**
-     * Contains a goflow assets file with this org's flows, groups, fields etc
+     * Contains a goflow assets file with this org's flows, groups, fields etc (replaced by asset shards)
      */
     private static final String ASSETS_FILE = "assets.json";
 
     /**
-     * Contains summaries of each flow available in this org
+     * Contains generations of this org's assets, each as per-flow shards plus shared field, group
+     * and location shards
+     */
+    private static final String ASSETS_DIR = "assets";
+
+    /**
+     * Contains summaries of each flow available in this org, kept in each assets generation, or in
+     * the org directory if it has no assets or only a single assets file
      */
     private static final String FLOWS_FILE = "flows.json";
 
@@ -59,7 +77,11 @@ public class Org {
 
     private transient File directory;
 
-    private transient List<Flow> flows;
+    private transient volatile List<Flow> flows;
+
+    private transient AssetGenerations generations;
+
+    private transient Long assetsGeneration;
 
     /**
      * Creates an new empty org
@@ -75,11 +97,12 @@ public class Org {
         org.name = name;
         org.token = token;
         org.directory = directory;
+        org.generations = new AssetGenerations(new File(directory, ASSETS_DIR));
         org.flows = new ArrayList<>();
         org.legacySubmissionsDirectory = null;
 
-        FileUtils.writeStringToFile(new File(directory, DETAILS_FILE), "{\"name\":\"" + name + "\",\"token\":\"" + token + "\"}");
-        FileUtils.writeStringToFile(new File(directory, FLOWS_FILE), "[]");
+        JsonUtils.marshal(org, new File(directory, DETAILS_FILE));
+        SurveyUtils.writeAtomically(new File(directory, FLOWS_FILE), "[]");
         return org;
     }
 
@@ -95,16 +118,29 @@ public class Org {
         }
 
         // read details.json
-        String detailsJSON = FileUtils.readFileToString(new File(directory, DETAILS_FILE));
-        Org org = JsonUtils.unmarshal(detailsJSON, Org.class);
+        Org org = JsonUtils.unmarshal(new File(directory, DETAILS_FILE), Org.class);
         org.directory = directory;
+        org.generations = new AssetGenerations(new File(directory, ASSETS_DIR));
+
+        // read flows.json from the current assets generation
+        AssetGenerations.Generation generation = org.generations.acquire();
+        try {
+            TypeToken type = new TypeToken<List<Flow>>() {
+            };
+            org.flows = JsonUtils.unmarshal(org.flowsFile(generation), type);
+
+            // if the app has been upgraded since our flows were checked, check them again
+            if (checkFlowCompatibility(org.flows)) {
+                JsonUtils.marshal(org.flows, org.flowsFile(generation));
+            }
+        } finally {
+            if (generation != null) {
+                org.generations.release(generation);
+            }
+        }
 
-        // read flows.json
-        String flowsJson = FileUtils.readFileToString(new File(directory, FLOWS_FILE));
-
-        TypeToken type = new TypeToken<List<Flow>>() {
-        };
-        org.flows = JsonUtils.unmarshal(flowsJson, type);
+        // delete any generations left behind by a refresh which didn't finish
+        org.generations.collect();
         return org;
     }
 
@@ -211,7 +247,16 @@ public class Org {
      * @return true if org has assets
      */
     public boolean hasAssets() {
-        return new File(directory, ASSETS_FILE).exists();
+        return generations.exists() || new File(directory, ASSETS_FILE).exists();
+    }
+
+    /**
+     * Gets whether this org's downloaded assets are stored as shards, so that they can be loaded per flow
+     *
+     * @return true if org has asset shards
+     */
+    public boolean hasAssetShards() {
+        return generations.exists();
     }
 
     /**
@@ -220,7 +265,82 @@ public class Org {
      * @return the assets JSON
      */
     public String getAssets() throws IOException {
-        return FileUtils.readFileToString(new File(directory, ASSETS_FILE));
+        List<Flow> current = flows;
+        List<String> flowUUIDs = new ArrayList<>(current.size());
+        for (Flow flow : current) {
+            flowUUIDs.add(flow.getUuid());
+        }
+        return assemble(flowUUIDs);
+    }
+
+    /**
+     * Gets the downloaded assets needed to run the given flow, i.e. only that flow and the flows it
+     * can enter, along with this org's fields, groups and locations
+     *
+     * @param flow the flow
+     * @return the assets JSON
+     */
+    public String getAssets(Flow flow) throws IOException {
+        if (!generations.exists()) {
+            return getAssets();
+        }
+
+        // gather the flow and all flows reachable from it
+        Set<String> flowUUIDs = new LinkedHashSet<>();
+        Deque<Flow> pending = new ArrayDeque<>();
+        pending.add(flow);
+
+        while (!pending.isEmpty()) {
+            Flow next = pending.remove();
+            if (flowUUIDs.add(next.getUuid())) {
+                for (String dependency : next.getDependencies()) {
+                    Flow dependencyFlow = getFlow(dependency);
+                    if (dependencyFlow != null) {
+                        pending.add(dependencyFlow);
+                    }
+                }
+            }
+        }
+
+        return assemble(flowUUIDs);
+    }
+
+    /**
+     * Assembles the given flows from the current assets generation, which is leased while it's read
+     * so that a refresh publishing a new generation doesn't delete it under us
+     */
+    private String assemble(Collection<String> flowUUIDs) throws IOException {
+        AssetGenerations.Generation generation = generations.acquire();
+        if (generation == null) {
+            return FileUtils.readFileToString(new File(directory, ASSETS_FILE), "UTF-8");
+        }
+        try {
+            return generation.getShards().assemble(flowUUIDs);
+        } finally {
+            generations.release(generation);
+        }
+    }
+
+    /**
+     * Gets the generation of this org's downloaded assets, which changes whenever they are rewritten
+     *
+     * @return the generation
+     */
+    public long getAssetsGeneration() {
+        if (assetsGeneration == null) {
+            AssetGenerations.Generation generation = generations.acquire();
+            try {
+                assetsGeneration = generation != null ? generation.getNumber() : new File(directory, ASSETS_FILE).lastModified();
+            } catch (IOException | NumberFormatException e) {
+                Logger.e("Unable to read assets generation for org " + getUuid(), e);
+                return 0;
+            } finally {
+                if (generation != null) {
+                    generations.release(generation);
+                }
+            }
+        }
+        return assetsGeneration;
     }
 
     /**
@@ -250,52 +370,175 @@ public class Org {
 
     public void save() throws IOException {
         // (re)write org fields to details.json
-        String detailsJSON = JsonUtils.marshal(this);
-        FileUtils.writeStringToFile(new File(directory, DETAILS_FILE), detailsJSON);
+        JsonUtils.marshal(this, new File(directory, DETAILS_FILE));
     }
 
     private void refreshAssets(RefreshProgress progress) throws TembaException, IOException {
-        List<Field> fields = SurveyorApplication.get().getTembaService().getFields(getToken());
+        TembaService svc = SurveyorApplication.get().getTembaService();
+
+        List<Field> fields = svc.getFields(getToken());
 
         progress.reportProgress(20);
 
-        List<Group> groups = SurveyorApplication.get().getTembaService().getGroups(getToken());
+        List<Group> groups = svc.getGroups(getToken());
 
         progress.reportProgress(30);
 
-        List<io.rapidpro.surveyor.net.responses.Flow> flows = SurveyorApplication.get().getTembaService().getFlows(getToken());
+        List<io.rapidpro.surveyor.net.responses.Flow> flows = svc.getFlows(getToken());
 
         progress.reportProgress(40);
 
-        List<RawJson> definitions = SurveyorApplication.get().getTembaService().getDefinitions(getToken(), flows);
+        // write a new generation alongside the current one, which runs can keep using meanwhile
+        final AssetGenerations.Generation generation = generations.create();
+        try {
+            // write each flow definition to its shard as it arrives, so that only one is ever in memory
+            final List<Flow> summaries = new ArrayList<>(flows.size());
+            final List<String> flowUUIDs = new ArrayList<>(flows.size());
 
-        progress.reportProgress(60);
+            svc.streamDefinitions(getToken(), flows, new TembaService.DefinitionHandler() {
+                @Override
+                public void onDefinition(RawJson definition) throws IOException {
+                    Flow summary = Flow.extract(definition);
+                    generation.getShards().writeFlow(summary.getUuid(), definition);
 
-        List<Boundary> boundaries = SurveyorApplication.get().getTembaService().getBoundaries(getToken());
+                    summaries.add(summary);
+                    flowUUIDs.add(summary.getUuid());
+                }
+            });
 
-        progress.reportProgress(70);
+            progress.reportProgress(60);
 
-        OrgAssets assets = OrgAssets.fromTemba(fields, groups, boundaries, definitions);
-        String assetsJSON = JsonUtils.marshal(assets);
+            List<Boundary> boundaries = svc.getBoundaries(getToken());
 
-        FileUtils.writeStringToFile(new File(directory, ASSETS_FILE), assetsJSON);
+            progress.reportProgress(70);
 
-        progress.reportProgress(80);
+            checkFlowCompatibility(summaries);
 
-        // update the flow summaries
-        this.flows.clear();
-        this.flows.addAll(assets.getFlows());
+            generation.getShards().write(OrgAssets.fromTemba(fields, groups, boundaries), flowUUIDs);
+            JsonUtils.marshal(summaries, new File(generation.getDirectory(), FLOWS_FILE));
 
-        // and write that to flows.json as well
-        String summariesJSON = JsonUtils.marshal(this.flows);
-        FileUtils.writeStringToFile(new File(directory, FLOWS_FILE), summariesJSON);
+            progress.reportProgress(80);
+
+            generation.getShards().validate(flowUUIDs);
+
+            generations.publish(generation);
+            this.flows = summaries;
+            assetsGeneration = null;
+        } finally {
+            generations.release(generation);
+        }
+
+        // remove the old single assets file and flow summaries if this org had them
+        FileUtils.deleteQuietly(new File(directory, ASSETS_FILE));
+        FileUtils.deleteQuietly(new File(directory, FLOWS_FILE));
+
+        // any session assets loaded from the previous assets are now stale, though runs which
+        // already have them can keep using them
+        SessionAssetsCache.getInstance().invalidate(this);
 
         progress.reportProgress(100);
 
-        Logger.d("Refreshed assets for org " + getUuid() + " (flows=" + flows.size() + ", fields=" + fields.size() + ", groups=" + groups.size() + ")");
+        Logger.d("Refreshed assets for org " + getUuid() + " (flows=" + this.flows.size() + ", fields=" + fields.size() + ", groups=" + groups.size() + ")");
+    }
+
+    /**
+     * Determines whether each flow can be run by the engine, unless that's already been determined
+     * for the current engine version
+     *
+     * @return whether any flow was checked
+     */
+    private static boolean checkFlowCompatibility(List<Flow> flows) {
+        String engineVersion = Engine.currentSpecVersion().getValue();
+        boolean changed = false;
+
+        for (Flow flow : flows) {
+            if (!engineVersion.equals(flow.getCheckedSpecVersion())) {
+                Flow.Compatibility compatibility = Engine.checkCompatibility(flow.getSpecVersion());
+                if (compatibility != Flow.Compatibility.SUPPORTED) {
+                    Logger.w("Found flow " + flow.getUuid() + " with unsupported version " + flow.getSpecVersion());
+                }
+
+                flow.setCompatibility(compatibility, engineVersion);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Gets the file of the flow summaries which describe the given assets generation
+     */
+    private File flowsFile(AssetGenerations.Generation generation) {
+        if (generation != null && !generation.isLegacy()) {
+            return new File(generation.getDirectory(), FLOWS_FILE);
+        }
+        return new File(directory, FLOWS_FILE);
     }
 
     public interface RefreshProgress {
         void reportProgress(int percent);
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write org details without reflection
+     */
+    public static class Adapter extends TypeAdapter<Org> {
+        @Override
+        public void write(JsonWriter out, Org org) throws IOException {
+            out.beginObject();
+            out.name("token").value(org.token);
+            out.name("name").value(org.name);
+            out.name("primary_language").value(org.primaryLanguage);
+            out.name("languages");
+            JsonUtils.writeStringArray(out, org.languages);
+            out.name("timezone").value(org.timezone);
+            out.name("country").value(org.country);
+            out.name("date_style").value(org.dateStyle);
+            out.name("anon").value(org.anon);
+            out.name("legacySubmissionsDirectory").value(org.legacySubmissionsDirectory);
+            out.endObject();
+        }
+
+        @Override
+        public Org read(JsonReader in) throws IOException {
+            Org org = new Org();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "token":
+                        org.token = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        org.name = JsonUtils.nextString(in);
+                        break;
+                    case "primary_language":
+                        org.primaryLanguage = JsonUtils.nextString(in);
+                        break;
+                    case "languages":
+                        org.languages = JsonUtils.nextStringArray(in);
+                        break;
+                    case "timezone":
+                        org.timezone = JsonUtils.nextString(in);
+                        break;
+                    case "country":
+                        org.country = JsonUtils.nextString(in);
+                        break;
+                    case "date_style":
+                        org.dateStyle = JsonUtils.nextString(in);
+                        break;
+                    case "anon":
+                        org.anon = JsonUtils.nextBoolean(in, org.anon);
+                        break;
+                    case "legacySubmissionsDirectory":
+                        org.legacySubmissionsDirectory = JsonUtils.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return org;
+        }
+    }
 }
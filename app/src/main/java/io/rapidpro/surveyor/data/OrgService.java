@@ -1,5 +1,7 @@
 package io.rapidpro.surveyor.data;
 
+import org.apache.commons.io.FileUtils;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
@@ -23,7 +25,7 @@ public class OrgService {
         Logger.d("OrgService created for directory " + this.rootDir.getAbsolutePath());
     }
 
-    public Org get(String uuid) throws IOException {
+    public synchronized Org get(String uuid) throws IOException {
         if (cache.containsKey(uuid)) {
             Logger.d("Returning cached org " + uuid);
             return cache.get(uuid);
@@ -54,7 +56,17 @@ public class OrgService {
         return org;
     }
 
-    public void clearCache() {
+    /**
+     * Deletes the org with the given UUID, e.g. once the user no longer has access to it
+     *
+     * @param uuid the UUID of the org
+     */
+    public synchronized void delete(String uuid) throws IOException {
+        cache.remove(uuid);
+        FileUtils.deleteDirectory(new File(rootDir, uuid));
+    }
+
+    public synchronized void clearCache() {
         cache.clear();
     }
 }
@@ -0,0 +1,297 @@
+package io.rapidpro.surveyor.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.net.requests.SubmissionPayload;
+
+/**
+ * Append-only log of text records, e.g. a submission's events. Each record is framed by its length
+ * and a CRC32 checksum of its length and content, so that a record torn by the app being killed
+ * part way through writing it is detected when the log is read, and can be truncated away. Records
+ * can't be empty, so a tail of zeros left by a file system that extended the file before the
+ * record reached storage is never read as valid empty records.
+ */
+public class RecordLog {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Records are never anywhere near this big, so a larger length means a corrupt header
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private File file;
+
+    public RecordLog(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends the given records and closes the log
+     *
+     * @param records the records
+     */
+    public void append(List<String> records) throws IOException {
+        Writer writer = openWriter();
+        try {
+            for (String record : records) {
+                writer.append(record);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Opens this log for appending
+     *
+     * @return the writer
+     */
+    public Writer openWriter() throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * Opens this log for reading one record at a time
+     *
+     * @return the reader
+     */
+    public Reader openReader() throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * Reads all records in this log up to any torn record
+     *
+     * @return the records
+     */
+    public List<String> readAll() throws IOException {
+        List<String> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+
+        Reader reader = openReader();
+        try {
+            String record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    /**
+     * Validates every record in this log without decoding them, and truncates any torn or corrupt
+     * records at the end
+     *
+     * @return the number of valid records
+     */
+    public int repair() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        long validLength;
+        Reader reader = openReader();
+        try {
+            while (reader.skip()) {
+                count++;
+            }
+            validLength = reader.getValidLength();
+        } finally {
+            reader.close();
+        }
+
+        if (validLength < file.length()) {
+            Logger.w("Truncating " + (file.length() - validLength) + " bytes of torn records from " + file.getPath());
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends records to a log
+     */
+    public static class Writer {
+        private FileOutputStream file;
+        private DataOutputStream out;
+        private CRC32 crc = new CRC32();
+
+        Writer(File file) throws IOException {
+            this.file = new FileOutputStream(file, true);
+            this.out = new DataOutputStream(new BufferedOutputStream(this.file));
+        }
+
+        /**
+         * Appends a record. It's only guaranteed to be written once the writer is flushed or closed.
+         *
+         * @param record the record which can't be empty
+         */
+        public void append(String record) throws IOException {
+            if (record.isEmpty()) {
+                throw new IllegalArgumentException("Can't append an empty record");
+            }
+
+            byte[] data = record.getBytes(UTF8);
+            crc.reset();
+            updateLength(crc, data.length);
+            crc.update(data, 0, data.length);
+
+            out.writeInt(data.length);
+            out.writeInt((int) crc.getValue());
+            out.write(data);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Flushes appended records and waits for them to be written to the storage device
+         */
+        public void sync() throws IOException {
+            out.flush();
+            file.getFD().sync();
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads records from a log one at a time, stopping at the first torn or corrupt record
+     */
+    public static class Reader implements SubmissionPayload.Records {
+        private DataInputStream in;
+        private CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[4096];
+        private long validLength = 0;
+
+        Reader(File file) throws IOException {
+            this(new FileInputStream(file));
+        }
+
+        /**
+         * Reads records from a stream positioned at the start of a log, e.g. an archive entry
+         */
+        Reader(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+        }
+
+        /**
+         * Reads the next record
+         *
+         * @return the record or null if there are no more valid records
+         */
+        @Override
+        public String next() throws IOException {
+            byte[] data = read(true);
+            return data != null ? new String(data, UTF8) : null;
+        }
+
+        /**
+         * Validates the next record without decoding it
+         *
+         * @return true if there was a valid record
+         */
+        boolean skip() throws IOException {
+            return read(false) != null;
+        }
+
+        /**
+         * Gets the length of the log up to the end of the last valid record read
+         *
+         * @return the length in bytes
+         */
+        long getValidLength() {
+            return validLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Reads and checks the next record, returning its content if requested, otherwise an empty array
+         */
+        private byte[] read(boolean keep) throws IOException {
+            int length, checksum;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                return null;
+            }
+
+            byte[] data = keep ? new byte[length] : null;
+            crc.reset();
+            updateLength(crc, length);
+
+            int remaining = length;
+            while (remaining > 0) {
+                int n = Math.min(remaining, buffer.length);
+                try {
+                    in.readFully(buffer, 0, n);
+                } catch (EOFException e) {
+                    return null;
+                }
+                crc.update(buffer, 0, n);
+                if (keep) {
+                    System.arraycopy(buffer, 0, data, length - remaining, n);
+                }
+                remaining -= n;
+            }
+
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+
+            validLength += 8 + length;
+            return keep ? data : new byte[0];
+        }
+    }
+
+    /**
+     * Adds a record's length to its checksum, as the big-endian bytes of its header
+     */
+    private static void updateLength(CRC32 crc, int length) {
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+    }
+}
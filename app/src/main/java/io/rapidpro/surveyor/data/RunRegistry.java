@@ -0,0 +1,184 @@
+package io.rapidpro.surveyor.data;
+
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.utils.JsonUtils;
+
+/**
+ * Persisted registry of the in-progress runs, i.e. the draft submissions, of each flow, so that
+ * starting or resuming a run only has to look at the drafts of that flow, however many completed
+ * submissions it has waiting to be sent. A flow that isn't in the registry yet, e.g. after
+ * upgrading or if the registry couldn't be read, has its drafts found by the store once. Each run is
+ * also given a respondent number, which it keeps as other runs of the flow come and go.
+ */
+class RunRegistry {
+
+    private static final String REGISTRY_FILE = "runs.json";
+
+    private File rootDir;
+
+    private SubmissionStore store;
+
+    /**
+     * The respondent numbers of draft submissions by their UUID, by org and flow UUID, lazily loaded
+     */
+    private Map<String, Map<String, Integer>> runs;
+
+    /**
+     * The UUIDs of the drafts registered by this process
+     */
+    private final Set<String> added = new HashSet<>();
+
+    RunRegistry(File rootDir, SubmissionStore store) {
+        this.rootDir = rootDir;
+        this.store = store;
+    }
+
+    /**
+     * Gets the draft submissions of the given flow
+     *
+     * @param org      the org
+     * @param flowUuid the flow UUID
+     * @return the submissions
+     */
+    synchronized List<Submission> get(Org org, String flowUuid) {
+        Map<String, Integer> uuids = load(org, flowUuid);
+        List<Submission> drafts = new ArrayList<>(uuids.size());
+
+        boolean changed = false;
+        for (String uuid : new ArrayList<>(uuids.keySet())) {
+            Submission submission = store.get(org, flowUuid, uuid);
+            if (submission != null && !submission.isCompleted()) {
+                drafts.add(submission);
+            } else {
+                // completed or deleted without us hearing about it
+                uuids.remove(uuid);
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+        return drafts;
+    }
+
+    /**
+     * Registers a new draft submission
+     *
+     * @param submission the submission
+     */
+    synchronized void add(Submission submission) {
+        added.add(submission.getUuid());
+
+        Map<String, Integer> uuids = load(submission.getOrg(), submission.getFlowUuid());
+        if (!uuids.containsKey(submission.getUuid())) {
+            int number = uuids.isEmpty() ? 1 : Collections.max(uuids.values()) + 1;
+            uuids.put(submission.getUuid(), number);
+            save();
+        }
+    }
+
+    /**
+     * Gets whether a draft submission was registered by this process, rather than left over from
+     * an earlier one
+     *
+     * @param submission the submission
+     * @return true if it was registered by this process
+     */
+    synchronized boolean isAddedByThisProcess(Submission submission) {
+        return added.contains(submission.getUuid());
+    }
+
+    /**
+     * Gets the respondent number of a draft submission
+     *
+     * @param submission the submission
+     * @return the number or 0 if it's not registered
+     */
+    synchronized int getNumber(Submission submission) {
+        Integer number = load(submission.getOrg(), submission.getFlowUuid()).get(submission.getUuid());
+        return number != null ? number : 0;
+    }
+
+    /**
+     * Unregisters a submission which is no longer a draft, i.e. it's been completed or deleted
+     *
+     * @param submission the submission
+     */
+    synchronized void remove(Submission submission) {
+        Map<String, Integer> uuids = load(submission.getOrg(), submission.getFlowUuid());
+        if (uuids.remove(submission.getUuid()) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Forgets the loaded registry so that it's read from disk again when next needed
+     */
+    synchronized void invalidate() {
+        runs = null;
+    }
+
+    /**
+     * Forgets all runs, e.g. once all submissions have been cleared
+     */
+    synchronized void reset() {
+        runs = new HashMap<>();
+        save();
+    }
+
+    /**
+     * Loads the drafts of the given flow, asking the store for them if the flow isn't registered
+     */
+    private Map<String, Integer> load(Org org, String flowUuid) {
+        if (runs == null) {
+            File file = new File(rootDir, REGISTRY_FILE);
+            if (file.exists()) {
+                try {
+                    runs = JsonUtils.unmarshal(file, new TypeToken<Map<String, Map<String, Integer>>>() {
+                    });
+                } catch (IOException | RuntimeException e) {
+                    Logger.e("Unable to read run registry", e);
+                }
+            }
+            if (runs == null) {
+                runs = new HashMap<>();
+            }
+        }
+
+        String key = org.getUuid() + "/" + flowUuid;
+        Map<String, Integer> uuids = runs.get(key);
+        if (uuids == null) {
+            uuids = new LinkedHashMap<>();
+            for (Submission draft : store.getDrafts(org, flowUuid)) {
+                uuids.put(draft.getUuid(), uuids.size() + 1);
+            }
+            runs.put(key, uuids);
+            save();
+
+            Logger.d("Registered " + uuids.size() + " runs of flow " + flowUuid);
+        }
+        return uuids;
+    }
+
+    private void save() {
+        try {
+            JsonUtils.marshal(runs, new File(rootDir, REGISTRY_FILE));
+        } catch (IOException e) {
+            // flows will be registered again from the store
+            Logger.e("Unable to save run registry", e);
+        }
+    }
+}
@@ -0,0 +1,799 @@
+package io.rapidpro.surveyor.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.net.requests.SubmissionPayload;
+import io.rapidpro.surveyor.utils.JsonUtils;
+
+/**
+ * Submission store which keeps sessions, events and modifiers in a SQLite database, so that a run
+ * doesn't create a file for each of them. Media is still saved in a directory per submission, laid
+ * out as org/flow/submission like the directory store, so that submissions can be migrated from
+ * that store without rewriting the media URIs in their events.
+ */
+public class SQLiteSubmissionStore implements SubmissionStore {
+
+    private static final String DATABASE_FILE = "submissions.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static FileFilter DIR_FILTER = DirectoryFileFilter.INSTANCE;
+
+    private File rootDir;
+
+    private Helper helper;
+
+    /**
+     * Creates a new SQLite based store. Submissions left in the directory layout aren't visible
+     * until they've been migrated with {@link #migrate(MigrationProgress)}.
+     *
+     * @param context the context
+     * @param rootDir the root directory, where the database and media are kept
+     */
+    public SQLiteSubmissionStore(Context context, File rootDir) {
+        this.rootDir = rootDir;
+        this.helper = new Helper(context, new File(rootDir, DATABASE_FILE).getAbsolutePath());
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+        Helper(Context context, String path) {
+            super(context, path, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            db.enableWriteAheadLogging();
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE submissions (" +
+                    "uuid TEXT PRIMARY KEY, " +
+                    "org_uuid TEXT NOT NULL, " +
+                    "flow_uuid TEXT NOT NULL, " +
+                    "completed INTEGER NOT NULL DEFAULT 0, " +
+                    "size INTEGER NOT NULL DEFAULT 0, " +
+                    "session TEXT, " +
+                    "checkpoint TEXT, " +
+                    "checkpoint_seq INTEGER NOT NULL DEFAULT 0, " +
+                    "checkpoint_events INTEGER NOT NULL DEFAULT 0, " +
+                    "checkpoint_modifiers INTEGER NOT NULL DEFAULT 0, " +
+                    "last_saved INTEGER NOT NULL DEFAULT 0, " +
+                    "bucket TEXT)");
+            db.execSQL("CREATE INDEX submissions_flow ON submissions (org_uuid, flow_uuid, completed)");
+
+            // events, modifiers and inputs are numbered from zero within each submission
+            db.execSQL("CREATE TABLE events (submission_uuid TEXT NOT NULL, seq INTEGER NOT NULL, payload TEXT NOT NULL, PRIMARY KEY (submission_uuid, seq))");
+            db.execSQL("CREATE TABLE modifiers (submission_uuid TEXT NOT NULL, seq INTEGER NOT NULL, payload TEXT NOT NULL, PRIMARY KEY (submission_uuid, seq))");
+            db.execSQL("CREATE TABLE inputs (submission_uuid TEXT NOT NULL, seq INTEGER NOT NULL, text TEXT, attachment TEXT, modifiers TEXT, events TEXT, delta TEXT, PRIMARY KEY (submission_uuid, seq))");
+
+            db.execSQL("CREATE TABLE meta (key TEXT PRIMARY KEY, value TEXT)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                // existing submissions keep their media directories unsharded
+                db.execSQL("ALTER TABLE submissions ADD COLUMN bucket TEXT");
+            }
+            if (oldVersion < 3) {
+                // inputs are journaled with the results of their sprints
+                db.execSQL("ALTER TABLE inputs ADD COLUMN modifiers TEXT");
+                db.execSQL("ALTER TABLE inputs ADD COLUMN events TEXT");
+                db.execSQL("ALTER TABLE inputs ADD COLUMN delta TEXT");
+            }
+        }
+    }
+
+    /**
+     * Closes the database, e.g. in tests
+     */
+    public void close() {
+        helper.close();
+    }
+
+    @Override
+    public Submission create(Org org, String flowUuid) throws IOException {
+        // media directories are sharded by day like those of the directory store
+        String bucket = DirectorySubmissionStore.bucketFor(System.currentTimeMillis());
+        File directory = directoryFor(org.getUuid(), flowUuid, bucket, UUID.randomUUID().toString());
+        if (!directory.mkdirs()) {
+            throw new IOException("Unable to create submission directory " + directory.getPath());
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("uuid", directory.getName());
+        values.put("org_uuid", org.getUuid());
+        values.put("flow_uuid", flowUuid);
+        values.put("bucket", bucket);
+        db().insertOrThrow("submissions", null, values);
+
+        return new Submission(org, flowUuid, directory, this);
+    }
+
+    @Override
+    public Submission get(Org org, String flowUuid, String uuid) {
+        Cursor cursor = db().rawQuery("SELECT uuid, bucket FROM submissions WHERE uuid = ? AND org_uuid = ? AND flow_uuid = ?", new String[]{uuid, org.getUuid(), flowUuid});
+        try {
+            return cursor.moveToNext() ? submissionAt(cursor, org, flowUuid) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public List<Submission> getAll(Org org, String flowUuid) {
+        List<Submission> all = new ArrayList<>();
+        Cursor cursor = db().rawQuery("SELECT uuid, bucket FROM submissions WHERE org_uuid = ? AND flow_uuid = ?", new String[]{org.getUuid(), flowUuid});
+        try {
+            while (cursor.moveToNext()) {
+                all.add(submissionAt(cursor, org, flowUuid));
+            }
+        } finally {
+            cursor.close();
+        }
+        return all;
+    }
+
+    @Override
+    public List<Submission> getDrafts(Org org, String flowUuid) {
+        List<Submission> drafts = new ArrayList<>();
+        Cursor cursor = db().rawQuery("SELECT uuid, bucket FROM submissions WHERE org_uuid = ? AND flow_uuid = ? AND completed = 0", new String[]{org.getUuid(), flowUuid});
+        try {
+            while (cursor.moveToNext()) {
+                drafts.add(submissionAt(cursor, org, flowUuid));
+            }
+        } finally {
+            cursor.close();
+        }
+        return drafts;
+    }
+
+    /**
+     * Pages are ordered by submission UUID, which is also the position of each page's end
+     */
+    @Override
+    public Page getCompleted(Org org, String flowUuid, String after, int limit) {
+        List<Submission> submissions = new ArrayList<>();
+        String end = after;
+
+        String[] args = new String[]{org.getUuid(), flowUuid, after != null ? after : "", String.valueOf(limit)};
+        Cursor cursor = db().rawQuery("SELECT uuid, bucket FROM submissions WHERE org_uuid = ? AND flow_uuid = ? AND completed = 1 AND uuid > ? ORDER BY uuid LIMIT ?", args);
+        try {
+            while (cursor.moveToNext()) {
+                submissions.add(submissionAt(cursor, org, flowUuid));
+                end = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return new Page(submissions, end);
+    }
+
+    @Override
+    public Map<String, SubmissionIndex.Counts> countAll() {
+        Map<String, SubmissionIndex.Counts> all = new HashMap<>();
+        Cursor cursor = db().rawQuery("SELECT org_uuid, flow_uuid, SUM(1 - completed), SUM(completed), SUM(completed * size) FROM submissions GROUP BY org_uuid, flow_uuid", null);
+        try {
+            while (cursor.moveToNext()) {
+                SubmissionIndex.Counts c = new SubmissionIndex.Counts();
+                c.add(cursor.getInt(2), cursor.getInt(3), 0, cursor.getLong(4));
+                all.put(cursor.getString(0) + "/" + cursor.getString(1), c);
+            }
+        } finally {
+            cursor.close();
+        }
+        return all;
+    }
+
+    @Override
+    public void clearAll() throws IOException {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            db.delete("submissions", null, null);
+            db.delete("events", null, null);
+            db.delete("modifiers", null, null);
+            db.delete("inputs", null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // the database lives alongside the org directories so only delete those
+        for (File orgDir : rootDir.listFiles(DIR_FILTER)) {
+            FileUtils.deleteDirectory(orgDir);
+        }
+    }
+
+    @Override
+    public boolean isCompleted(Submission submission) {
+        return DatabaseUtils.longForQuery(db(), "SELECT completed FROM submissions WHERE uuid = ?", args(submission)) == 1;
+    }
+
+    @Override
+    public boolean hasSession(Submission submission) {
+        return DatabaseUtils.longForQuery(db(), "SELECT session IS NOT NULL OR checkpoint IS NOT NULL FROM submissions WHERE uuid = ?", args(submission)) == 1;
+    }
+
+    @Override
+    public long getLastSaved(Submission submission) {
+        return DatabaseUtils.longForQuery(db(), "SELECT last_saved FROM submissions WHERE uuid = ?", args(submission));
+    }
+
+    @Override
+    public String readSession(Submission submission) throws IOException {
+        String session = DatabaseUtils.stringForQuery(db(), "SELECT session FROM submissions WHERE uuid = ?", args(submission));
+        if (session == null) {
+            throw new IOException("Submission " + submission.getUuid() + " has no saved session");
+        }
+        return session;
+    }
+
+    @Override
+    public List<String> readEvents(Submission submission) throws IOException {
+        return readPayloads("events", submission);
+    }
+
+    @Override
+    public List<String> readModifiers(Submission submission) throws IOException {
+        return readPayloads("modifiers", submission);
+    }
+
+    /**
+     * Reads are queries against the open database, so there's nothing to hold open
+     */
+    @Override
+    public Closeable openForReading(Submission submission) {
+        return new Closeable() {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public SubmissionPayload.Records openEvents(Submission submission) {
+        return new CursorRecords(db().rawQuery("SELECT payload FROM events WHERE submission_uuid = ? ORDER BY seq", args(submission)));
+    }
+
+    @Override
+    public SubmissionPayload.Records openModifiers(Submission submission) {
+        return new CursorRecords(db().rawQuery("SELECT payload FROM modifiers WHERE submission_uuid = ? ORDER BY seq", args(submission)));
+    }
+
+    @Override
+    public List<File> getMedia(Submission submission) throws IOException {
+        List<File> media = new ArrayList<>();
+        File[] files = new File(submission.getDirectory(), Submission.MEDIA_DIR).listFiles();
+        if (files != null) {
+            Collections.addAll(media, files);
+        }
+        File refs = new File(submission.getDirectory(), MediaStore.REFS_FILE);
+        if (refs.exists()) {
+            media.addAll(MediaStore.parseRefs(FileUtils.readFileToString(refs, "UTF-8")));
+        }
+        return media;
+    }
+
+    @Override
+    public void addMedia(Submission submission, File blob) throws IOException {
+        MediaStore.addRef(submission.getDirectory(), blob);
+    }
+
+    @Override
+    public InputStream openMedia(Submission submission, File file) throws IOException {
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public void appendEvents(Submission submission, List<String> events) throws IOException {
+        appendPayloads("events", submission, events);
+    }
+
+    @Override
+    public void appendModifiers(Submission submission, List<String> modifiers) throws IOException {
+        appendPayloads("modifiers", submission, modifiers);
+    }
+
+    @Override
+    public Appender openAppender(final Submission submission) {
+        return new Appender() {
+            private List<String> events = new ArrayList<>();
+            private List<String> modifiers = new ArrayList<>();
+
+            @Override
+            public void appendEvents(List<String> records) {
+                events.addAll(records);
+            }
+
+            @Override
+            public void appendModifiers(List<String> records) {
+                modifiers.addAll(records);
+            }
+
+            /**
+             * Writes the buffered records in a single transaction, whose commit is as durable as
+             * the database is configured to be, so there's nothing further to sync
+             */
+            @Override
+            public void flush(boolean sync) {
+                if (events.isEmpty() && modifiers.isEmpty()) {
+                    return;
+                }
+
+                SQLiteDatabase db = db();
+                db.beginTransaction();
+                try {
+                    insertPayloads(db, "events", submission, lastSequence(db, "events", submission) + 1, events);
+                    insertPayloads(db, "modifiers", submission, lastSequence(db, "modifiers", submission) + 1, modifiers);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                events.clear();
+                modifiers.clear();
+            }
+
+            @Override
+            public void close() {
+                flush(false);
+            }
+        };
+    }
+
+    /**
+     * Saves an input in its own transaction. It's as durable once committed as the database is
+     * configured to be, so there's nothing further to sync.
+     */
+    @Override
+    public int saveInput(Submission submission, SessionJournal.Input input, boolean sync) throws IOException {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            long checkpointSeq = DatabaseUtils.longForQuery(db, "SELECT checkpoint_seq FROM submissions WHERE uuid = ?", args(submission));
+            long seq = Math.max(checkpointSeq, lastSequence(db, "inputs", submission)) + 1;
+            insertInput(db, submission, seq, input);
+
+            db.setTransactionSuccessful();
+            return (int) (seq - checkpointSeq);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Saves a checkpoint in its own transaction. It's as durable once committed as the database is
+     * configured to be, so there's nothing further to sync.
+     */
+    @Override
+    public void checkpointSession(Submission submission, String sessionJSON, boolean sync) throws IOException {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            long checkpointSeq = DatabaseUtils.longForQuery(db, "SELECT checkpoint_seq FROM submissions WHERE uuid = ?", args(submission));
+            long seq = Math.max(checkpointSeq, lastSequence(db, "inputs", submission));
+
+            ContentValues values = new ContentValues();
+            values.put("checkpoint", sessionJSON);
+            values.put("checkpoint_seq", seq);
+            values.put("checkpoint_events", lastSequence(db, "events", submission) + 1);
+            values.put("checkpoint_modifiers", lastSequence(db, "modifiers", submission) + 1);
+            values.put("last_saved", System.currentTimeMillis());
+            db.update("submissions", values, "uuid = ?", args(submission));
+
+            db.delete("inputs", "submission_uuid = ?", args(submission));
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Recovers a journaled session from its checkpoint, restoring the events, modifiers and session
+     * from the inputs journaled since. The journal is left as it is, so recovering again before the
+     * next checkpoint gives the same result.
+     */
+    @Override
+    public String recoverSession(Submission submission, List<SessionJournal.Input> unsaved) throws IOException {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("SELECT session, checkpoint, checkpoint_seq, checkpoint_events, checkpoint_modifiers FROM submissions WHERE uuid = ?", args(submission));
+            String session, checkpoint;
+            long checkpointSeq, checkpointEvents, checkpointModifiers;
+            try {
+                if (!cursor.moveToFirst()) {
+                    throw new IOException("No such submission " + submission.getUuid());
+                }
+                session = cursor.getString(0);
+                checkpoint = cursor.getString(1);
+                checkpointSeq = cursor.getLong(2);
+                checkpointEvents = cursor.getLong(3);
+                checkpointModifiers = cursor.getLong(4);
+            } finally {
+                cursor.close();
+            }
+
+            if (checkpoint == null) {
+                if (session == null) {
+                    throw new IOException("Submission " + submission.getUuid() + " has no saved session");
+                }
+                db.setTransactionSuccessful();
+                return session;
+            }
+
+            List<SessionJournal.Input> inputs = new ArrayList<>();
+            cursor = db.rawQuery("SELECT text, attachment, modifiers, events, delta FROM inputs WHERE submission_uuid = ? AND seq > ? ORDER BY seq", new String[]{submission.getUuid(), String.valueOf(checkpointSeq)});
+            try {
+                while (cursor.moveToNext()) {
+                    inputs.add(new SessionJournal.Input(cursor.getString(0), cursor.getString(1), readPayloadList(cursor.getString(2)), readPayloadList(cursor.getString(3)), cursor.getString(4)));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            String recovered = SessionJournal.apply(checkpoint, inputs, unsaved);
+
+            // results of sprints after the checkpoint are replaced by those journaled with the inputs restored
+            db.delete("events", "submission_uuid = ? AND seq >= ?", new String[]{submission.getUuid(), String.valueOf(checkpointEvents)});
+            db.delete("modifiers", "submission_uuid = ? AND seq >= ?", new String[]{submission.getUuid(), String.valueOf(checkpointModifiers)});
+
+            long events = checkpointEvents, modifiers = checkpointModifiers;
+            for (SessionJournal.Input input : inputs) {
+                insertPayloads(db, "events", submission, events, input.getEvents());
+                insertPayloads(db, "modifiers", submission, modifiers, input.getModifiers());
+                events += input.getEvents().size();
+                modifiers += input.getModifiers().size();
+            }
+
+            db.setTransactionSuccessful();
+
+            Logger.d("Recovered session checkpoint with " + inputs.size() + " inputs restored and " + unsaved.size() + " not");
+            return recovered;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void saveSession(Submission submission, String sessionJSON) throws IOException {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("session", sessionJSON);
+            values.putNull("checkpoint");
+            values.put("last_saved", System.currentTimeMillis());
+            db.update("submissions", values, "uuid = ?", args(submission));
+
+            db.delete("inputs", "submission_uuid = ?", args(submission));
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public long complete(Submission submission) throws IOException {
+        SQLiteDatabase db = db();
+        String uuid = submission.getUuid();
+        long size = DatabaseUtils.longForQuery(db, "SELECT COALESCE(LENGTH(session), 0) + " +
+                "(SELECT COALESCE(SUM(LENGTH(payload)), 0) FROM events WHERE submission_uuid = ?) + " +
+                "(SELECT COALESCE(SUM(LENGTH(payload)), 0) FROM modifiers WHERE submission_uuid = ?) " +
+                "FROM submissions WHERE uuid = ?", new String[]{uuid, uuid, uuid});
+
+        File mediaDir = new File(submission.getDirectory(), Submission.MEDIA_DIR);
+        if (mediaDir.exists()) {
+            size += FileUtils.sizeOfDirectory(mediaDir);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("completed", 1);
+        values.put("size", size);
+        db.update("submissions", values, "uuid = ?", args(submission));
+        return size;
+    }
+
+    @Override
+    public long getCompletedSize(Submission submission) {
+        return DatabaseUtils.longForQuery(db(), "SELECT size FROM submissions WHERE uuid = ?", args(submission));
+    }
+
+    @Override
+    public void delete(Submission submission) throws IOException {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            db.delete("submissions", "uuid = ?", args(submission));
+            db.delete("events", "submission_uuid = ?", args(submission));
+            db.delete("modifiers", "submission_uuid = ?", args(submission));
+            db.delete("inputs", "submission_uuid = ?", args(submission));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        FileUtils.deleteDirectory(submission.getDirectory());
+    }
+
+    /**
+     * Moves submissions left in the directory layout into the database. Each is moved in its own
+     * transaction and then its files are deleted, leaving only its media, so if we're interrupted
+     * this can safely run again. This can take a while so shouldn't be called on the UI thread.
+     *
+     * @param progress the progress listener
+     */
+    public void migrate(MigrationProgress progress) {
+        DirectorySubmissionStore legacy = new DirectorySubmissionStore(rootDir);
+        List<Pair<File, File>> submissions = new ArrayList<>();
+
+        for (File orgDir : rootDir.listFiles(DIR_FILTER)) {
+            for (File flowDir : orgDir.listFiles(DIR_FILTER)) {
+                for (File bucketDir : DirectorySubmissionStore.listBuckets(flowDir)) {
+                    unpackArchives(bucketDir);
+
+                    for (File subDir : DirectorySubmissionStore.listSubmissions(bucketDir)) {
+                        submissions.add(new ImmutablePair<>(flowDir, subDir));
+                    }
+                }
+            }
+        }
+
+        int migrated = 0;
+        for (int s = 0; s < submissions.size(); s++) {
+            File flowDir = submissions.get(s).getLeft();
+            File subDir = submissions.get(s).getRight();
+            String orgUuid = flowDir.getParentFile().getName();
+            try {
+                if (migrate(legacy, new Submission(null, flowDir.getName(), subDir, legacy), orgUuid, flowDir.getName())) {
+                    migrated++;
+                }
+            } catch (IOException e) {
+                Logger.e("Unable to migrate submission " + subDir.getPath(), e);
+            }
+
+            progress.reportProgress(100 * (s + 1) / submissions.size());
+        }
+
+        putMeta("migrated", String.valueOf(System.currentTimeMillis()));
+
+        Logger.d("Migrated " + migrated + " submissions to database");
+    }
+
+    private boolean migrate(DirectorySubmissionStore legacy, Submission submission, String orgUuid, String flowUuid) throws IOException {
+        File directory = submission.getDirectory();
+
+        if (DatabaseUtils.longForQuery(db(), "SELECT COUNT(*) FROM submissions WHERE uuid = ?", args(submission)) > 0) {
+            // migrated already but we were interrupted before its files were deleted
+            deleteLegacyFiles(directory);
+            return false;
+        }
+
+        boolean completed = legacy.isCompleted(submission);
+        String session = null, checkpoint = null;
+        List<SessionJournal.Input> unsaved = new ArrayList<>();
+
+        if (new File(directory, DirectorySubmissionStore.SESSION_FILE).exists()) {
+            session = legacy.readSession(submission);
+        } else if (submission.getJournal().exists()) {
+            // recovery leaves the logs up to date with every restored input, and the rest are
+            // journaled again to be run through the engine when the session is opened
+            checkpoint = legacy.recoverSession(submission, unsaved);
+        }
+
+        List<String> events = legacy.readEvents(submission);
+        List<String> modifiers = legacy.readModifiers(submission);
+
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("uuid", submission.getUuid());
+            values.put("org_uuid", orgUuid);
+            values.put("flow_uuid", flowUuid);
+            values.put("completed", completed ? 1 : 0);
+            values.put("size", completed ? legacy.getCompletedSize(submission) : 0);
+            values.put("session", session);
+            values.put("checkpoint", checkpoint);
+            values.put("checkpoint_events", (long) events.size());
+            values.put("checkpoint_modifiers", (long) modifiers.size());
+            values.put("last_saved", legacy.getLastSaved(submission));
+            values.put("bucket", DirectorySubmissionStore.isBucket(directory.getParentFile()) ? directory.getParentFile().getName() : null);
+            db.insertOrThrow("submissions", null, values);
+
+            insertPayloads(db, "events", submission, 0, events);
+            insertPayloads(db, "modifiers", submission, 0, modifiers);
+
+            for (int i = 0; i < unsaved.size(); i++) {
+                insertInput(db, submission, i + 1, unsaved.get(i));
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        deleteLegacyFiles(directory);
+        return true;
+    }
+
+    /**
+     * Unpacks any completed submissions packed into archives by the directory store, so they can
+     * be migrated like any other and their media kept on disk
+     */
+    private static void unpackArchives(File bucketDir) {
+        for (File file : bucketDir.listFiles()) {
+            if (SubmissionArchive.isArchive(file)) {
+                File directory = SubmissionArchive.directoryOf(file);
+                try {
+                    new SubmissionArchive(directory).unpack(directory);
+                    FileUtils.forceDelete(file);
+                } catch (IOException e) {
+                    Logger.e("Unable to unpack submission " + file.getPath(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes everything in a migrated submission directory except its media and blob references
+     */
+    private static void deleteLegacyFiles(File directory) {
+        for (File file : directory.listFiles()) {
+            if (!file.getName().equals(Submission.MEDIA_DIR) && !file.getName().equals(MediaStore.REFS_FILE)) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private List<String> readPayloads(String table, Submission submission) {
+        List<String> payloads = new ArrayList<>();
+        Cursor cursor = db().rawQuery("SELECT payload FROM " + table + " WHERE submission_uuid = ? ORDER BY seq", args(submission));
+        try {
+            while (cursor.moveToNext()) {
+                payloads.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return payloads;
+    }
+
+    private static void insertInput(SQLiteDatabase db, Submission submission, long seq, SessionJournal.Input input) {
+        ContentValues values = new ContentValues();
+        values.put("submission_uuid", submission.getUuid());
+        values.put("seq", seq);
+        values.put("text", input.getText());
+        values.put("attachment", input.getAttachment());
+        values.put("modifiers", input.hasResults() ? JsonUtils.marshal(input.getModifiers()) : null);
+        values.put("events", input.hasResults() ? JsonUtils.marshal(input.getEvents()) : null);
+        values.put("delta", input.getDelta());
+        db.insertOrThrow("inputs", null, values);
+    }
+
+    /**
+     * Reads a list of payloads journaled with an input, which inputs journaled before version 3 don't have
+     *
+     * @return the payloads or null if they weren't journaled
+     */
+    private static List<String> readPayloadList(String json) {
+        return json != null ? JsonUtils.<List<String>>unmarshal(json, new TypeToken<List<String>>() {
+        }) : null;
+    }
+
+    private void appendPayloads(String table, Submission submission, List<String> payloads) {
+        if (payloads.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            insertPayloads(db, table, submission, lastSequence(db, table, submission) + 1, payloads);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void insertPayloads(SQLiteDatabase db, String table, Submission submission, long firstSeq, List<String> payloads) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + table + " (submission_uuid, seq, payload) VALUES (?, ?, ?)");
+        try {
+            long seq = firstSeq;
+            for (String payload : payloads) {
+                insert.bindString(1, submission.getUuid());
+                insert.bindLong(2, seq++);
+                insert.bindString(3, payload);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Gets the last sequence number in the given table for the given submission, or -1 if it has none
+     */
+    private static long lastSequence(SQLiteDatabase db, String table, Submission submission) {
+        return DatabaseUtils.longForQuery(db, "SELECT COALESCE(MAX(seq), -1) FROM " + table + " WHERE submission_uuid = ?", args(submission));
+    }
+
+    /**
+     * Reads records from the first column of a query
+     */
+    private static class CursorRecords implements SubmissionPayload.Records {
+        private Cursor cursor;
+
+        CursorRecords(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public String next() {
+            return cursor.moveToNext() ? cursor.getString(0) : null;
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    private void putMeta(String key, String value) {
+        db().execSQL("INSERT OR REPLACE INTO meta (key, value) VALUES (?, ?)", new Object[]{key, value});
+    }
+
+    private Submission submissionAt(Cursor cursor, Org org, String flowUuid) {
+        return new Submission(org, flowUuid, directoryFor(org.getUuid(), flowUuid, cursor.getString(1), cursor.getString(0)), this);
+    }
+
+    /**
+     * Gets the media directory of a submission, which is only sharded if it has a bucket
+     */
+    private File directoryFor(String orgUuid, String flowUuid, String bucket, String uuid) {
+        File flowDir = new File(new File(rootDir, orgUuid), flowUuid);
+        return new File(bucket != null ? new File(flowDir, bucket) : flowDir, uuid);
+    }
+
+    private SQLiteDatabase db() {
+        return helper.getWritableDatabase();
+    }
+
+    private static String[] args(Submission submission) {
+        return new String[]{submission.getUuid()};
+    }
+
+    public interface MigrationProgress {
+        void reportProgress(int percent);
+    }
+}
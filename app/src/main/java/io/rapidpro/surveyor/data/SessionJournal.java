@@ -0,0 +1,376 @@
+package io.rapidpro.surveyor.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.utils.JsonDelta;
+import io.rapidpro.surveyor.utils.JsonUtils;
+import io.rapidpro.surveyor.utils.RawJson;
+import io.rapidpro.surveyor.utils.SurveyUtils;
+
+/**
+ * Journal of an in-progress session, so that we don't have to serialize or rewrite the whole
+ * session after every sprint. It holds a checkpoint of the session and the inputs received since
+ * that checkpoint, each with the modifiers and events it produced. Every few inputs, the change
+ * made to the session since it was last saved is journaled with the input too. A session is
+ * recovered by applying those changes to the checkpoint, so it's restored exactly as it was up to
+ * the last saved change, and only the inputs after that are run through the flow again.
+ */
+public class SessionJournal {
+    /**
+     * Contains the last checkpoint of the session and the lengths of the event and modifier logs
+     * at that point. Written to a temp file and renamed so it's never partially written.
+     */
+    private static final String CHECKPOINT_FILE = "checkpoint.json";
+
+    /**
+     * Contains an input and the results of its sprint per line, appended after each sprint
+     */
+    private static final String INPUTS_FILE = "inputs.jsonl";
+
+    private File directory;
+
+    /**
+     * The sequence number of the last input, lazily read from disk
+     */
+    private Integer lastSequence;
+
+    /**
+     * The sequence number of the last input included in the checkpoint, lazily read from disk
+     */
+    private Integer checkpointSequence;
+
+    SessionJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * An input to a session, i.e. an incoming message, along with the modifiers and events of the
+     * sprint it resumed and, every few inputs, the change made to the session since it was last saved
+     */
+    public static class Input {
+        int seq;
+
+        private String text;
+
+        private String attachment;
+
+        private List<RawJson> modifiers;
+
+        private List<RawJson> events;
+
+        private RawJson delta;
+
+        /**
+         * Creates a new input to be journaled
+         *
+         * @param text       the message text
+         * @param attachment the message attachment (may be null)
+         * @param modifiers  the modifier payloads of its sprint (null if not saved)
+         * @param events     the event payloads of its sprint (null if not saved)
+         * @param delta      the change made to the session since it was last saved, as computed by
+         *                   {@link JsonDelta} (null if not saved with this input)
+         */
+        public Input(String text, String attachment, List<String> modifiers, List<String> events, String delta) {
+            this.text = text;
+            this.attachment = attachment;
+            this.modifiers = toRaw(modifiers);
+            this.events = toRaw(events);
+            this.delta = delta != null ? new RawJson(delta) : null;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getAttachment() {
+            return attachment;
+        }
+
+        public List<String> getModifiers() {
+            return fromRaw(modifiers);
+        }
+
+        public List<String> getEvents() {
+            return fromRaw(events);
+        }
+
+        /**
+         * Gets the change made to the session since it was last saved, up to and including the
+         * sprint of this input
+         *
+         * @return the delta JSON or null if it wasn't journaled with this input
+         */
+        public String getDelta() {
+            return delta != null ? delta.toString() : null;
+        }
+
+        /**
+         * Gets whether this was journaled along with the results of its sprint, which inputs
+         * journaled by older versions weren't
+         */
+        boolean hasResults() {
+            return events != null;
+        }
+
+        private static List<RawJson> toRaw(List<String> payloads) {
+            if (payloads == null) {
+                return null;
+            }
+            List<RawJson> raw = new ArrayList<>(payloads.size());
+            for (String payload : payloads) {
+                raw.add(new RawJson(payload));
+            }
+            return raw;
+        }
+
+        private static List<String> fromRaw(List<RawJson> raw) {
+            List<String> payloads = new ArrayList<>();
+            if (raw != null) {
+                for (RawJson payload : raw) {
+                    payloads.add(payload.toString());
+                }
+            }
+            return payloads;
+        }
+    }
+
+    private static class Checkpoint {
+        private int seq;
+
+        @SerializedName("events_length")
+        private long eventsLength;
+
+        @SerializedName("modifiers_length")
+        private long modifiersLength;
+
+        private RawJson session;
+    }
+
+    /**
+     * Gets whether this journal has a checkpoint
+     *
+     * @return true if it has a checkpoint
+     */
+    boolean exists() {
+        return new File(directory, CHECKPOINT_FILE).exists();
+    }
+
+    /**
+     * Gets the time this journal was last written to
+     *
+     * @return the time in milliseconds
+     */
+    long lastModified() {
+        return Math.max(new File(directory, CHECKPOINT_FILE).lastModified(), new File(directory, INPUTS_FILE).lastModified());
+    }
+
+    /**
+     * Appends an input
+     *
+     * @param input the input and the results of its sprint
+     * @param sync  whether to wait for the input to be written to the storage device
+     * @return the number of inputs since the last checkpoint
+     */
+    int append(Input input, boolean sync) throws IOException {
+        input.seq = getLastSequence() + 1;
+
+        FileOutputStream out = new FileOutputStream(new File(directory, INPUTS_FILE), true);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        try {
+            JsonUtils.marshal(input, writer);
+            writer.newLine();
+            writer.flush();
+
+            if (sync) {
+                out.getFD().sync();
+            }
+        } finally {
+            writer.close();
+        }
+
+        lastSequence = input.seq;
+        return input.seq - getCheckpointSequence();
+    }
+
+    /**
+     * Writes a new checkpoint and clears the inputs which it includes
+     *
+     * @param sessionJSON     the session JSON
+     * @param eventsLength    the current length of the event log
+     * @param modifiersLength the current length of the modifier log
+     * @param sync            whether to wait for the checkpoint to be written to the storage device
+     */
+    void checkpoint(String sessionJSON, long eventsLength, long modifiersLength, boolean sync) throws IOException {
+        int seq = getLastSequence();
+
+        // write the checkpoint around the session JSON rather than building it as another string
+        File temp = new File(directory, CHECKPOINT_FILE + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        try {
+            writer.write("{\"seq\":" + seq + ",\"events_length\":" + eventsLength + ",\"modifiers_length\":" + modifiersLength + ",\"session\":");
+            writer.write(sessionJSON);
+            writer.write("}");
+            writer.flush();
+
+            // the content must reach storage before the rename does, or we could be left with an empty checkpoint
+            if (sync) {
+                out.getFD().sync();
+            }
+        } finally {
+            writer.close();
+        }
+
+        // rename replaces any existing checkpoint atomically
+        if (!temp.renameTo(new File(directory, CHECKPOINT_FILE))) {
+            throw new IOException("Unable to write session checkpoint in " + directory.getPath());
+        }
+        if (sync) {
+            SurveyUtils.syncDirectory(directory);
+        }
+
+        // inputs up to the checkpoint are ignored on recovery anyway, so a crash before this is harmless
+        FileUtils.deleteQuietly(new File(directory, INPUTS_FILE));
+
+        checkpointSequence = seq;
+    }
+
+    /**
+     * Reads the last checkpoint and truncates the event and modifier logs back to their lengths at
+     * that point, as they may end with the results of a sprint which wasn't journaled. The caller
+     * should apply the changes of the returned inputs to the returned session with
+     * {@link #apply(String, List, List)}, and append the modifiers and events of those it restores
+     * to the logs again.
+     *
+     * @param events    the event log
+     * @param modifiers the modifier log
+     * @param inputs    the list to add inputs received since the checkpoint to
+     * @return the session JSON of the checkpoint
+     */
+    String recover(File events, File modifiers, List<Input> inputs) throws IOException {
+        Checkpoint checkpoint = readCheckpoint();
+        checkpointSequence = checkpoint.seq;
+
+        truncate(events, checkpoint.eventsLength);
+        truncate(modifiers, checkpoint.modifiersLength);
+
+        for (Input input : readInputs()) {
+            if (input.seq > checkpoint.seq) {
+                inputs.add(input);
+            }
+        }
+
+        Logger.d("Recovered session checkpoint with " + inputs.size() + " inputs since");
+        return checkpoint.session.toString();
+    }
+
+    /**
+     * Applies the changes journaled with the given inputs to a checkpointed session. The session
+     * can only be restored up to the last input journaled with a change, and not past an input
+     * journaled without its results, so inputs after that are moved to the unsaved list to be run
+     * through the flow again.
+     *
+     * @param sessionJSON the session JSON of the checkpoint
+     * @param inputs      the inputs received since the checkpoint
+     * @param unsaved     the list to move inputs which can't be restored to
+     * @return the session JSON as of the last restored input
+     */
+    static String apply(String sessionJSON, List<Input> inputs, List<Input> unsaved) {
+        int restored = 0;
+        for (int i = 0; i < inputs.size() && inputs.get(i).hasResults(); i++) {
+            if (inputs.get(i).delta != null) {
+                restored = i + 1;
+            }
+        }
+
+        List<Input> tail = inputs.subList(restored, inputs.size());
+        unsaved.addAll(tail);
+        tail.clear();
+
+        if (inputs.isEmpty()) {
+            return sessionJSON;
+        }
+
+        JsonElement session = new JsonParser().parse(sessionJSON);
+        for (Input input : inputs) {
+            if (input.delta != null) {
+                session = JsonDelta.apply(session, input.delta.getParsed());
+            }
+        }
+        return session.toString();
+    }
+
+    /**
+     * Deletes this journal, e.g. once the full session has been saved
+     */
+    void delete() {
+        FileUtils.deleteQuietly(new File(directory, CHECKPOINT_FILE));
+        FileUtils.deleteQuietly(new File(directory, INPUTS_FILE));
+        lastSequence = null;
+        checkpointSequence = null;
+    }
+
+    private Checkpoint readCheckpoint() throws IOException {
+        return JsonUtils.unmarshal(new File(directory, CHECKPOINT_FILE), Checkpoint.class);
+    }
+
+    private int getCheckpointSequence() throws IOException {
+        if (checkpointSequence == null) {
+            checkpointSequence = exists() ? readCheckpoint().seq : 0;
+        }
+        return checkpointSequence;
+    }
+
+    private List<Input> readInputs() throws IOException {
+        File file = new File(directory, INPUTS_FILE);
+        List<Input> inputs = new ArrayList<>();
+        if (file.exists()) {
+            for (String line : FileUtils.readLines(file, "UTF-8")) {
+                // a partially written last line means the app was killed before the sprint was saved
+                try {
+                    inputs.add(JsonUtils.unmarshal(line, Input.class));
+                } catch (RuntimeException e) {
+                    Logger.w("Ignoring unreadable session input: " + line);
+                }
+            }
+        }
+        return inputs;
+    }
+
+    private int getLastSequence() throws IOException {
+        if (lastSequence == null) {
+            int seq = getCheckpointSequence();
+            for (Input input : readInputs()) {
+                seq = Math.max(seq, input.seq);
+            }
+            lastSequence = seq;
+        }
+        return lastSequence;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (file.exists() && file.length() > length) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.rapidpro.surveyor.Logger;
+
+/**
+ * Accounts for the space used by orgs, submissions, media and scratch files, and keeps it within a
+ * quota and the device's free space above a reserve. When either is exceeded, data which is safe to
+ * drop is evicted, cheapest to lose first: stale scratch files and bug reports, then media which
+ * has already been uploaded, then the assets of orgs the user no longer has access to. Submissions
+ * which haven't been sent are never evicted.
+ */
+public class StorageManager {
+
+    /**
+     * The name of the bug report dump in the user directory
+     */
+    public static final String BUG_REPORT_FILE = "bug-report.txt";
+
+    /**
+     * How old a capture left in the cache directory must be before it's dropped, since the app can
+     * be killed while a capture is in progress and still receive its result when restarted
+     */
+    private static final long SCRATCH_MAX_AGE = 24 * 60 * 60 * 1000;
+
+    /**
+     * How old a bug report must be before it's dropped, by which time it has been sent
+     */
+    private static final long BUG_REPORT_MAX_AGE = 60 * 60 * 1000;
+
+    /**
+     * How much free space to always leave on the device, so that it and other apps keep working
+     */
+    private static final long RESERVE = 100 * 1024 * 1024;
+
+    private final File orgsDir;
+    private final File userDir;
+    private final File cacheDir;
+    private final OrgService orgs;
+    private final SubmissionService submissions;
+
+    private long quota = 0;
+
+    /**
+     * The space used by each kind of data
+     */
+    public static class Usage {
+        private long submissions;
+        private long media;
+        private long scratch;
+        private Map<String, Long> assets = new HashMap<>();
+
+        /**
+         * Gets the size of the completed submissions waiting to be sent, not including their media
+         *
+         * @return the size in bytes
+         */
+        public long getSubmissions() {
+            return submissions;
+        }
+
+        /**
+         * Gets the size of the media of all submissions
+         *
+         * @return the size in bytes
+         */
+        public long getMedia() {
+            return media;
+        }
+
+        /**
+         * Gets the size of scratch files, i.e. captures in the cache directory and bug reports
+         *
+         * @return the size in bytes
+         */
+        public long getScratch() {
+            return scratch;
+        }
+
+        /**
+         * Gets the size of each org's assets. The size of each org's and flow's submissions are
+         * counted by the submission service.
+         *
+         * @return the sizes in bytes by org UUID
+         */
+        public Map<String, Long> getAssets() {
+            return Collections.unmodifiableMap(assets);
+        }
+
+        /**
+         * Gets the total size of everything
+         *
+         * @return the size in bytes
+         */
+        public long getTotal() {
+            long total = submissions + media + scratch;
+            for (long bytes : assets.values()) {
+                total += bytes;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Creates a new storage manager
+     *
+     * @param orgsDir     the directory of org configurations
+     * @param userDir     the directory of user collected data
+     * @param cacheDir    the directory of scratch files, e.g. captures
+     * @param orgs        the org service
+     * @param submissions the submission service
+     */
+    public StorageManager(File orgsDir, File userDir, File cacheDir, OrgService orgs, SubmissionService submissions) {
+        this.orgsDir = orgsDir;
+        this.userDir = userDir;
+        this.cacheDir = cacheDir;
+        this.orgs = orgs;
+        this.submissions = submissions;
+    }
+
+    /**
+     * Sets the quota to keep within
+     *
+     * @param quota the most space we can use in bytes, or zero for no quota
+     */
+    public synchronized void setQuota(long quota) {
+        this.quota = quota;
+    }
+
+    /**
+     * Measures the space used by each kind of data
+     *
+     * @return the usage
+     */
+    public Usage getUsage() {
+        Usage usage = new Usage();
+        usage.submissions = submissions.getTotalCounts().getBytes();
+        usage.media = submissions.getMediaStore().getSize();
+        usage.scratch = sizeOf(cacheDir) + sizeOf(new File(userDir, BUG_REPORT_FILE));
+
+        File[] orgDirs = orgsDir.listFiles();
+        if (orgDirs != null) {
+            for (File orgDir : orgDirs) {
+                if (orgDir.isDirectory()) {
+                    usage.assets.put(orgDir.getName(), FileUtils.sizeOfDirectory(orgDir));
+                }
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Gets whether there's room for something of the given size without evicting anything, which
+     * only checks the device's free space so it's cheap enough to call from the UI thread
+     *
+     * @param bytes the size in bytes
+     * @return true if there's room
+     */
+    public boolean hasSpaceFor(long bytes) {
+        return userDir.getUsableSpace() - bytes >= RESERVE;
+    }
+
+    /**
+     * Makes room on the device for something of the given size, evicting data only if there isn't
+     * already room, e.g. before a capture. Evicting means sizing and deleting files, so this
+     * shouldn't be called on the UI thread.
+     *
+     * @param bytes      the size in bytes
+     * @param activeOrgs the UUIDs of the orgs the user has access to, or null if that isn't known
+     * @return true if there's room
+     */
+    public synchronized boolean ensureSpaceFor(long bytes, Set<String> activeOrgs) {
+        if (hasSpaceFor(bytes)) {
+            return true;
+        }
+        trim(bytes, activeOrgs);
+        return hasSpaceFor(bytes);
+    }
+
+    /**
+     * Evicts data until we're within our quota and the device has its reserve of free space, plus
+     * room for something of the given size
+     *
+     * @param bytes      the size in bytes to make room for
+     * @param activeOrgs the UUIDs of the orgs the user has access to, or null if that isn't known
+     * @return the number of bytes freed
+     */
+    public synchronized long trim(long bytes, Set<String> activeOrgs) {
+        long used = getUsage().getTotal();
+        long freed = 0;
+
+        if (getShortfall(used - freed, bytes) > 0) {
+            freed += evictScratch();
+        }
+        if (getShortfall(used - freed, bytes) > 0) {
+            freed += submissions.getMediaStore().evictUploaded(getShortfall(used - freed, bytes));
+        }
+        if (getShortfall(used - freed, bytes) > 0 && activeOrgs != null) {
+            freed += evictStaleOrgs(activeOrgs);
+        }
+
+        long shortfall = getShortfall(used - freed, bytes);
+        if (shortfall > 0) {
+            Logger.w("Still short of " + shortfall + " bytes after evicting " + freed + " bytes");
+        } else if (freed > 0) {
+            Logger.d("Evicted " + freed + " bytes to make room for " + bytes + " bytes");
+        }
+        return freed;
+    }
+
+    /**
+     * Gets how many bytes need freeing to make room for something of the given size
+     */
+    private long getShortfall(long used, long bytes) {
+        long shortfall = RESERVE + bytes - userDir.getUsableSpace();
+        if (quota > 0) {
+            shortfall = Math.max(shortfall, used + bytes - quota);
+        }
+        return Math.max(shortfall, 0);
+    }
+
+    /**
+     * Deletes captures abandoned in the cache directory and old bug reports
+     */
+    private long evictScratch() {
+        long now = System.currentTimeMillis();
+        long freed = 0;
+
+        File[] files = cacheDir != null ? cacheDir.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                if (now - file.lastModified() > SCRATCH_MAX_AGE) {
+                    freed += delete(file);
+                }
+            }
+        }
+
+        File bugReport = new File(userDir, BUG_REPORT_FILE);
+        if (bugReport.exists() && now - bugReport.lastModified() > BUG_REPORT_MAX_AGE) {
+            freed += delete(bugReport);
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes the assets of orgs which the user no longer has access to and which have no
+     * submissions, since they can be downloaded again if needed
+     */
+    private long evictStaleOrgs(Set<String> activeOrgs) {
+        long freed = 0;
+
+        File[] orgDirs = orgsDir.listFiles();
+        if (orgDirs != null) {
+            for (File orgDir : orgDirs) {
+                String uuid = orgDir.getName();
+                if (!orgDir.isDirectory() || activeOrgs.contains(uuid)) {
+                    continue;
+                }
+                SubmissionIndex.Counts counts = submissions.getCounts(uuid);
+                if (counts.getDraft() + counts.getCompleted() > 0) {
+                    continue;
+                }
+
+                long bytes = FileUtils.sizeOfDirectory(orgDir);
+                try {
+                    orgs.delete(uuid);
+                    freed += bytes;
+
+                    Logger.d("Evicted assets of stale org " + uuid);
+                } catch (IOException e) {
+                    Logger.e("Unable to delete stale org " + uuid, e);
+                }
+            }
+        }
+        return freed;
+    }
+
+    private static long sizeOf(File file) {
+        if (file == null || !file.exists()) {
+            return 0;
+        }
+        return file.isDirectory() ? FileUtils.sizeOfDirectory(file) : file.length();
+    }
+
+    private static long delete(File file) {
+        long bytes = sizeOf(file);
+        return FileUtils.deleteQuietly(file) ? bytes : 0;
+    }
+}
@@ -2,17 +2,17 @@ package io.rapidpro.surveyor.data;
 
 import android.net.Uri;
 
-import com.nyaruka.goflow.mobile.Event;
 import com.nyaruka.goflow.mobile.Modifier;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.StringUtils;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,36 +23,80 @@ import java.util.UUID;
 import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.SurveyorApplication;
 import io.rapidpro.surveyor.engine.EngineException;
+import io.rapidpro.surveyor.engine.Event;
 import io.rapidpro.surveyor.engine.Session;
 import io.rapidpro.surveyor.net.TembaException;
 import io.rapidpro.surveyor.net.requests.SubmissionPayload;
-import io.rapidpro.surveyor.utils.RawJson;
 import io.rapidpro.surveyor.utils.SurveyUtils;
 
 public class Submission {
 
-    private static final String SESSION_FILE = "session.json";
-    private static final String MODIFIERS_FILE = "modifiers.jsonl";
-    private static final String EVENTS_FILE = "events.jsonl";
-    private static final String COMPLETION_FILE = ".completed";
-    private static final String MEDIA_DIR = "media";
+    static final String MEDIA_DIR = "media";
 
     private Org org;
+    private String flowUuid;
     private File directory;
+    private SubmissionStore store;
+    private SubmissionIndex index;
+    private RunRegistry runs;
+    private MediaStore media;
+    private SessionJournal journal;
 
     /**
-     * Creates a new submission for the given org in the given directory
+     * Creates a new submission for the given org stored in the given directory, i.e. org/flow/submission
      *
      * @param org       the org
      * @param directory the directory
      */
     public Submission(Org org, File directory) {
+        // the store is only used for this submission's own files
+        this(org, directory.getParentFile().getName(), directory, new DirectorySubmissionStore(directory.getParentFile()));
+    }
+
+    /**
+     * Creates a new submission for the given org in the given store
+     *
+     * @param org       the org
+     * @param flowUuid  the flow UUID
+     * @param directory the directory of its media
+     * @param store     the store
+     */
+    Submission(Org org, String flowUuid, File directory, SubmissionStore store) {
         this.org = org;
+        this.flowUuid = flowUuid;
         this.directory = directory;
+        this.store = store;
+    }
+
+    /**
+     * Sets the index to keep up to date as this submission is completed and deleted
+     *
+     * @param index the submission index
+     */
+    void setIndex(SubmissionIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Sets the registry to remove this submission from once it's no longer a draft
+     *
+     * @param runs the run registry
+     */
+    void setRegistry(RunRegistry runs) {
+        this.runs = runs;
+    }
+
+    /**
+     * Sets the media store to save new media to and to release media from once this is deleted
+     *
+     * @param media the media store
+     */
+    void setMediaStore(MediaStore media) {
+        this.media = media;
     }
 
     /**
-     * Gets the UUID of this org (i.e. the name of its directory)
+     * Gets the UUID of this submission (i.e. the name of its directory)
      *
      * @return the UUID
      */
@@ -69,6 +113,15 @@ public class Submission {
         return org;
     }
 
+    /**
+     * Gets the UUID of the flow this submission is for
+     *
+     * @return the flow UUID
+     */
+    public String getFlowUuid() {
+        return flowUuid;
+    }
+
     /**
      * Get's the directory this submission is stored in
      *
@@ -93,16 +146,102 @@ public class Submission {
      * @return true if complete
      */
     public boolean isCompleted() {
-        return new File(directory, COMPLETION_FILE).exists();
+        return store.isCompleted(this);
+    }
+
+    /**
+     * Gets whether this submission has a saved session, i.e. it has been started
+     *
+     * @return true if it has a session
+     */
+    public boolean hasSession() {
+        return store.hasSession(this);
+    }
+
+    /**
+     * Gets the time this submission's session was last saved
+     *
+     * @return the time in milliseconds or 0 if it has no session
+     */
+    public long getLastSaved() {
+        return store.getLastSaved(this);
+    }
+
+    /**
+     * Gets the number of the respondent this draft was started for, which it keeps as other drafts
+     * of the flow are completed or discarded
+     *
+     * @return the number or 0 if this isn't a registered draft
+     */
+    public int getRespondentNumber() {
+        return runs != null ? runs.getNumber(this) : 0;
+    }
+
+    /**
+     * Reads the saved session JSON
+     *
+     * @return the session JSON
+     */
+    public String readSession() throws IOException {
+        return store.readSession(this);
+    }
+
+    /**
+     * Reads the saved events. Each event is only decoded if it's inspected.
+     *
+     * @return the events
+     */
+    public List<Event> readEvents() throws IOException {
+        List<String> lines = store.readEvents(this);
+        List<Event> events = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            events.add(Event.fromJSON(line));
+        }
+        return events;
+    }
+
+    /**
+     * Recovers the saved state of an in-progress session. If the session was journaled, it's
+     * restored from the last checkpoint and the changes journaled with the inputs since, along
+     * with the events and modifiers of those inputs. Inputs after the last saved change have to be
+     * run through the engine again, which replaces their events and modifiers.
+     *
+     * @param unsaved the list to add inputs which weren't restored to
+     * @return the session JSON
+     */
+    public String recoverSession(List<SessionJournal.Input> unsaved) throws IOException {
+        return store.recoverSession(this, unsaved);
+    }
+
+    /**
+     * Saves the input which resumed the session along with the results of its sprint, which is all
+     * that needs saving after most sprints
+     *
+     * @param input the input
+     * @param sync  whether to wait for the input to be written to the storage device
+     * @return the number of inputs saved since the last checkpoint
+     */
+    public int saveInput(SessionJournal.Input input, boolean sync) throws IOException {
+        return store.saveInput(this, input, sync);
+    }
+
+    /**
+     * Saves a checkpoint of the current session, after which inputs are saved relative to it
+     *
+     * @param sessionJSON the current session JSON
+     * @param sync        whether to wait for the checkpoint to be written to the storage device
+     */
+    public void checkpointSession(String sessionJSON, boolean sync) throws IOException {
+        store.checkpointSession(this, sessionJSON, sync);
     }
 
     /**
-     * Saves the current session
+     * Saves the full current session, e.g. once it has completed, replacing any checkpoint
      *
      * @param session the current session
      */
     public void saveSession(Session session) throws IOException, EngineException {
-        FileUtils.writeStringToFile(new File(directory, SESSION_FILE), session.toJSON());
+        store.saveSession(this, session.toJSON());
     }
 
     /**
@@ -111,16 +250,11 @@ public class Submission {
      * @param modifiers the modifiers to save
      */
     public void saveNewModifiers(List<Modifier> modifiers) throws IOException {
-        File file = new File(directory, MODIFIERS_FILE);
-
-        BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
-
+        List<String> payloads = new ArrayList<>(modifiers.size());
         for (Modifier mod : modifiers) {
-            writer.write(mod.payload());
-            writer.newLine();
+            payloads.add(mod.payload());
         }
-
-        writer.close();
+        store.appendModifiers(this, payloads);
     }
 
     /**
@@ -129,16 +263,11 @@ public class Submission {
      * @param events the events to save
      */
     public void saveNewEvents(List<Event> events) throws IOException {
-        File file = new File(directory, EVENTS_FILE);
-
-        BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
-
+        List<String> payloads = new ArrayList<>(events.size());
         for (Event event : events) {
-            writer.write(event.payload());
-            writer.newLine();
+            payloads.add(event.payload());
         }
-
-        writer.close();
+        store.appendEvents(this, payloads);
     }
 
     /**
@@ -149,9 +278,7 @@ public class Submission {
      * @return the URI of the saved file
      */
     public Uri saveMedia(byte[] data, String extension) throws IOException {
-        File file = new File(getMediaDirectory(), UUID.randomUUID().toString() + "." + extension);
-        FileUtils.writeByteArrayToFile(file, data);
-        return SurveyorApplication.get().getUriForFile(file);
+        return saveMedia(new ByteArrayInputStream(data), extension);
     }
 
     /**
@@ -161,9 +288,22 @@ public class Submission {
      * @return the URI of the saved file
      */
     public Uri saveMedia(File src) throws IOException {
-        String extension = FilenameUtils.getExtension(src.getName());
-        File file = new File(getMediaDirectory(), UUID.randomUUID().toString() + "." + extension);
-        FileUtils.copyFile(src, file);
+        return saveMedia(new FileInputStream(src), FilenameUtils.getExtension(src.getName()));
+    }
+
+    /**
+     * Saves new media to the media store, where it's shared with any other submission with the
+     * same content, or if this submission doesn't have a media store, to its own media directory
+     */
+    private Uri saveMedia(InputStream in, String extension) throws IOException {
+        File file;
+        if (media != null) {
+            file = media.save(in, extension);
+            store.addMedia(this, file);
+        } else {
+            file = new File(getMediaDirectory(), UUID.randomUUID().toString() + "." + extension);
+            FileUtils.copyInputStreamToFile(in, file);
+        }
         return SurveyorApplication.get().getUriForFile(file);
     }
 
@@ -171,87 +311,206 @@ public class Submission {
      * Marks this submission as completed
      */
     public void complete() throws IOException {
-        FileUtils.writeStringToFile(new File(directory, COMPLETION_FILE), "");
+        long size;
+
+        beginChange();
+        try {
+            size = store.complete(this);
+        } catch (IOException e) {
+            abortChange();
+            throw e;
+        }
+        commitChange(-1, 1, 0, size);
+        unregister();
     }
 
     /**
-     * Deletes this submission from the file system
+     * Deletes this submission from its store
      */
     public void delete() {
+        deleteAndIndex(false);
+    }
+
+    /**
+     * Deletes this submission and updates the index to count it as a draft or completed submission
+     * removed, or as a completed submission sent
+     */
+    private void deleteAndIndex(boolean sent) {
+        boolean completed = isCompleted();
+        long size = completed ? store.getCompletedSize(this) : 0;
+
+        beginChange();
         try {
-            FileUtils.deleteDirectory(directory);
-            directory = null;
+            deleteFromStore();
         } catch (IOException e) {
             Logger.e("Unable to delete submission " + directory.getAbsolutePath(), e);
+            abortChange();
+            return;
+        }
+
+        if (completed) {
+            commitChange(0, -1, sent ? 1 : 0, -size);
+        } else {
+            commitChange(-1, 0, 0, 0);
+            unregister();
         }
+        directory = null;
     }
 
-    public void submit() throws IOException, TembaException {
-        Logger.d("Submitting submission " + getUuid() + "...");
+    /**
+     * Deletes this submission from its store, and releases the blobs it referred to
+     */
+    void deleteFromStore() throws IOException {
+        List<File> blobs = new ArrayList<>();
+        if (media != null) {
+            for (File file : store.getMedia(this)) {
+                if (media.contains(file)) {
+                    blobs.add(file);
+                }
+            }
+        }
+
+        store.delete(this);
+
+        for (File blob : blobs) {
+            media.release(blob);
+        }
+    }
+
+    /**
+     * Gets the store this submission is kept in
+     */
+    SubmissionStore getStore() {
+        return store;
+    }
+
+    /**
+     * Gets the journal of this submission's in-progress session, for stores which keep one on disk
+     */
+    SessionJournal getJournal() {
+        if (journal == null) {
+            journal = new SessionJournal(directory);
+        }
+        return journal;
+    }
 
-        String session = FileUtils.readFileToString(new File(directory, SESSION_FILE));
-        List<String> modifiers = FileUtils.readLines(new File(directory, MODIFIERS_FILE));
-        List<String> events = FileUtils.readLines(new File(directory, EVENTS_FILE));
-
-        // upload all media and get a new remote URL for each item
-        Map<Uri, String> mediaUrls = uploadMedia();
-
-        // convert the map to parallel arrays of strings for replacement
-        String[] oldUris = new String[mediaUrls.size()];
-        String[] newUrls = new String[mediaUrls.size()];
-        int e = 0;
-        for (Map.Entry<Uri, String> entry : mediaUrls.entrySet()) {
-            oldUris[e] = entry.getKey().toString();
-            newUrls[e] = entry.getValue();
-            e++;
+    private void beginChange() {
+        if (index != null) {
+            index.begin();
         }
+    }
 
-        for (int i = 0; i < oldUris.length; i++) {
-            Logger.d(oldUris[i] + " --> " + newUrls[i]);
+    private void commitChange(int draft, int completed, int sent, long bytes) {
+        if (index != null) {
+            index.commit(org.getUuid(), getFlowUuid(), draft, completed, sent, bytes);
         }
+    }
 
-        RawJson sessionJson = new RawJson(StringUtils.replaceEach(session, oldUris, newUrls));
-        List<RawJson> modifiersJson = new ArrayList<>(modifiers.size());
-        for (String modifier : modifiers) {
-            modifiersJson.add(new RawJson(modifier));
+    private void unregister() {
+        if (runs != null) {
+            runs.remove(this);
         }
-        List<RawJson> eventsJson = new ArrayList<>(events.size());
-        for (String event : events) {
-            eventsJson.add(new RawJson(StringUtils.replaceEach(event, oldUris, newUrls)));
+    }
+
+    private void abortChange() {
+        if (index != null) {
+            index.abort();
         }
+    }
 
-        SubmissionPayload payload = new SubmissionPayload(sessionJson, modifiersJson, eventsJson);
+    public void submit() throws IOException, TembaException {
+        Logger.d("Submitting submission " + getUuid() + "...");
 
-        SurveyorApplication.get().getTembaService().submit(org.getToken(), payload);
+        // the session, media and logs are all read from one open submission
+        Closeable reading = store.openForReading(this);
+        try {
+            String session = store.readSession(this);
+
+            // upload all media and get a new remote URL for each item
+            Map<Uri, String> mediaUrls = uploadMedia();
+
+            // convert the map to parallel arrays of strings for replacement
+            String[] oldUris = new String[mediaUrls.size()];
+            String[] newUrls = new String[mediaUrls.size()];
+            int e = 0;
+            for (Map.Entry<Uri, String> entry : mediaUrls.entrySet()) {
+                oldUris[e] = entry.getKey().toString();
+                newUrls[e] = entry.getValue();
+                e++;
+            }
+
+            for (int i = 0; i < oldUris.length; i++) {
+                Logger.d(oldUris[i] + " --> " + newUrls[i]);
+            }
+
+            // modifiers and events are streamed from the store as the payload is sent
+            SubmissionPayload.RecordSource modifiers = new SubmissionPayload.RecordSource() {
+                @Override
+                public SubmissionPayload.Records open() throws IOException {
+                    return store.openModifiers(Submission.this);
+                }
+            };
+            SubmissionPayload.RecordSource events = new SubmissionPayload.RecordSource() {
+                @Override
+                public SubmissionPayload.Records open() throws IOException {
+                    return store.openEvents(Submission.this);
+                }
+            };
+
+            SubmissionPayload payload = new SubmissionPayload(session, modifiers, events, oldUris, newUrls);
+
+            SurveyorApplication.get().getTembaService().submit(org.getToken(), payload);
+        } finally {
+            reading.close();
+        }
 
-        delete();
+        deleteAndIndex(true);
     }
 
     /**
-     * Upload all media files for this submission and return a map of their new URLs
+     * Upload all media files for this submission and return a map of their new URLs. Blobs which
+     * have been uploaded before, whether by this submission or another, aren't uploaded again.
      *
      * @return the map of local URIs to remote URLs
      */
     private Map<Uri, String> uploadMedia() throws IOException, TembaException {
-        if (!hasMedia()) {
+        List<File> mediaFiles = store.getMedia(this);
+        if (mediaFiles.isEmpty()) {
             return Collections.emptyMap();
         }
 
         SurveyorApplication app = SurveyorApplication.get();
         Map<Uri, String> uploads = new HashMap<>();
 
-        for (File mediaFile : getMediaDirectory().listFiles()) {
+        for (File mediaFile : mediaFiles) {
+            // the media may have been packed away since, but it's referred to by where it was saved
             Uri mediaUri = app.getUriForFile(mediaFile);
-            String newUrl = app.getTembaService().uploadMedia(org.getToken(), mediaUri);
+            if (uploads.containsKey(mediaUri)) {
+                continue;
+            }
+
+            boolean blob = media != null && media.contains(mediaFile);
+            String newUrl = blob ? media.getUploadedUrl(mediaFile) : null;
+
+            if (newUrl == null) {
+                InputStream stream = store.openMedia(this, mediaFile);
+                try {
+                    newUrl = app.getTembaService().uploadMedia(org.getToken(), mediaFile.getName(), stream);
+                } finally {
+                    stream.close();
+                }
+
+                if (blob) {
+                    media.setUploadedUrl(mediaFile, newUrl);
+                }
+
+                Logger.d("Uploaded media " + mediaUri + " to " + newUrl);
+            } else {
+                Logger.d("Media " + mediaUri + " already uploaded to " + newUrl);
+            }
 
             uploads.put(mediaUri, newUrl);
-
-            Logger.d("Uploaded media " + mediaUri + " to " + newUrl);
         }
         return uploads;
     }
-
-    private boolean hasMedia() {
-        return new File(directory, MEDIA_DIR).exists();
-    }
 }
@@ -0,0 +1,273 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A completed submission packed into a single zip archive alongside where its directory was. Its
+ * session and logs are compressed but its media is stored as is, since it's compressed already.
+ * The archive's central directory lets any one entry be read without reading those before it.
+ * Each read opens the archive and reads its central directory again, unless the archive is held
+ * open for a series of reads, e.g. while it's being submitted, until it's closed.
+ */
+class SubmissionArchive implements Closeable {
+
+    static final String EXTENSION = ".zip";
+
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private File file;
+
+    /**
+     * The open archive while it's being held open
+     */
+    private ZipFile held;
+
+    /**
+     * Gets the archive of the submission with the given directory, which may not exist
+     *
+     * @param directory the submission directory
+     */
+    SubmissionArchive(File directory) {
+        this.file = new File(directory.getParentFile(), directory.getName() + EXTENSION);
+    }
+
+    /**
+     * Gets whether the given file is a submission archive
+     */
+    static boolean isArchive(File file) {
+        return file.isFile() && file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Gets the directory of the submission packed into the given archive file
+     */
+    static File directoryOf(File file) {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Holds this archive open so that reads until it's closed share one open archive
+     */
+    synchronized void hold() throws IOException {
+        if (held == null) {
+            held = new ZipFile(file);
+        }
+    }
+
+    /**
+     * Closes this archive if it's being held open
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (held != null) {
+            held.close();
+            held = null;
+        }
+    }
+
+    /**
+     * Packs the files of the given submission directory into this archive. The archive is written
+     * to a temporary file first so it only ever exists complete.
+     *
+     * @param directory the submission directory
+     */
+    void pack(File directory) throws IOException {
+        File temp = new File(file.getPath() + TEMP_EXTENSION);
+
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            for (File child : directory.listFiles()) {
+                if (child.isDirectory() && child.getName().equals(Submission.MEDIA_DIR)) {
+                    for (File media : child.listFiles()) {
+                        writeStored(out, Submission.MEDIA_DIR + "/" + media.getName(), media);
+                    }
+                } else if (child.isFile()) {
+                    writeDeflated(out, child.getName(), child);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            FileUtils.deleteQuietly(temp);
+            throw new IOException("Unable to rename " + temp.getPath() + " to " + file.getPath());
+        }
+    }
+
+    /**
+     * Extracts the files of this archive into the given submission directory
+     *
+     * @param directory the submission directory
+     */
+    void unpack(File directory) throws IOException {
+        ZipFile zip = acquire();
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    FileUtils.copyInputStreamToFile(in, new File(directory, entry.getName()));
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            release(zip);
+        }
+    }
+
+    /**
+     * Gets whether this archive has an entry with the given name
+     */
+    boolean has(String name) throws IOException {
+        ZipFile zip = acquire();
+        try {
+            return zip.getEntry(name) != null;
+        } finally {
+            release(zip);
+        }
+    }
+
+    /**
+     * Lists the names of the entries in this archive under the given directory
+     *
+     * @param directory the directory name, e.g. media
+     * @return the entry names
+     */
+    List<String> list(String directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        String prefix = directory + "/";
+
+        ZipFile zip = acquire();
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                }
+            }
+        } finally {
+            release(zip);
+        }
+        return names;
+    }
+
+    /**
+     * Reads the given entry as UTF-8 text
+     *
+     * @param name the entry name
+     * @return the text
+     */
+    String read(String name) throws IOException {
+        InputStream in = open(name);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens the given entry for reading. Closing the stream closes the archive unless it's being
+     * held open.
+     *
+     * @param name the entry name
+     * @return the stream
+     */
+    InputStream open(String name) throws IOException {
+        final ZipFile zip = acquire();
+
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            release(zip);
+            throw new IOException("No entry " + name + " in " + file.getPath());
+        }
+
+        return new FilterInputStream(zip.getInputStream(entry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release(zip);
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets the archive held open, or opens it for a single read
+     */
+    private synchronized ZipFile acquire() throws IOException {
+        return held != null ? held : new ZipFile(file);
+    }
+
+    /**
+     * Closes an archive opened for a single read
+     */
+    private synchronized void release(ZipFile zip) throws IOException {
+        if (zip != held) {
+            zip.close();
+        }
+    }
+
+    private static void writeDeflated(ZipOutputStream out, String name, File file) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setTime(file.lastModified());
+        out.putNextEntry(entry);
+        copy(file, out);
+        out.closeEntry();
+    }
+
+    private static void writeStored(ZipOutputStream out, String name, File file) throws IOException {
+        // stored entries must have their size and checksum up front
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setTime(file.lastModified());
+        entry.setSize(file.length());
+        entry.setCompressedSize(file.length());
+        entry.setCrc(FileUtils.checksumCRC32(file));
+        out.putNextEntry(entry);
+        copy(file, out);
+        out.closeEntry();
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package io.rapidpro.surveyor.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.utils.JsonUtils;
+
+/**
+ * Persisted counts of the submissions of each flow, so that we don't have to list and stat every
+ * submission directory to show how many are pending. Each change to the submissions on disk is
+ * bracketed by {@link #begin()} and {@link #commit}, and if the app is killed in between, the
+ * index is rebuilt from disk the next time it's loaded.
+ */
+public class SubmissionIndex {
+
+    private static final String INDEX_FILE = "index.json";
+
+    private File rootDir;
+
+    private SubmissionStore store;
+
+    /**
+     * The counts by org and flow UUID, lazily loaded
+     */
+    private Map<String, Counts> counts;
+
+    /**
+     * The number of changes which have begun but not yet been committed
+     */
+    private int changing;
+
+    SubmissionIndex(File rootDir, SubmissionStore store) {
+        this.rootDir = rootDir;
+        this.store = store;
+    }
+
+    /**
+     * The submission counts for a flow
+     */
+    public static class Counts {
+        private int draft;
+
+        private int completed;
+
+        private int sent;
+
+        private long bytes;
+
+        /**
+         * Gets the number of submissions which haven't been completed
+         *
+         * @return the number of drafts
+         */
+        public int getDraft() {
+            return draft;
+        }
+
+        /**
+         * Gets the number of completed submissions waiting to be sent
+         *
+         * @return the number of completed submissions
+         */
+        public int getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Gets the number of submissions which have been sent
+         *
+         * @return the number of sent submissions
+         */
+        public int getSent() {
+            return sent;
+        }
+
+        /**
+         * Gets the total size of the completed submissions waiting to be sent
+         *
+         * @return the size in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        void add(int draft, int completed, int sent, long bytes) {
+            this.draft += draft;
+            this.completed += completed;
+            this.sent += sent;
+            this.bytes += bytes;
+        }
+
+        private boolean isValid() {
+            return draft >= 0 && completed >= 0 && sent >= 0 && bytes >= 0;
+        }
+    }
+
+    private static class State {
+        private boolean changing;
+
+        private Map<String, Counts> flows;
+    }
+
+    /**
+     * Gets the counts for the given flow
+     *
+     * @param orgUuid  the org UUID
+     * @param flowUuid the flow UUID
+     * @return the counts
+     */
+    synchronized Counts get(String orgUuid, String flowUuid) {
+        Counts copy = new Counts();
+        Counts c = load().get(keyFor(orgUuid, flowUuid));
+        if (c != null) {
+            add(copy, c);
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the total counts for all flows in the given org
+     *
+     * @param orgUuid the org UUID
+     * @return the counts
+     */
+    synchronized Counts get(String orgUuid) {
+        Counts total = new Counts();
+        String prefix = orgUuid + "/";
+        for (Map.Entry<String, Counts> entry : load().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                add(total, entry.getValue());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gets the total counts for all flows in all orgs
+     *
+     * @return the counts
+     */
+    synchronized Counts getTotal() {
+        Counts total = new Counts();
+        for (Counts c : load().values()) {
+            add(total, c);
+        }
+        return total;
+    }
+
+    /**
+     * Records that a change to the submissions on disk is about to be made
+     */
+    synchronized void begin() {
+        load();
+        changing++;
+        save();
+    }
+
+    /**
+     * Records that a change to the submissions of the given flow has been made
+     *
+     * @param orgUuid   the org UUID
+     * @param flowUuid  the flow UUID
+     * @param draft     the change in drafts
+     * @param completed the change in completed submissions
+     * @param sent      the change in sent submissions
+     * @param bytes     the change in the size of completed submissions
+     */
+    synchronized void commit(String orgUuid, String flowUuid, int draft, int completed, int sent, long bytes) {
+        Map<String, Counts> all = load();
+        String key = keyFor(orgUuid, flowUuid);
+        Counts c = all.get(key);
+        if (c == null) {
+            c = new Counts();
+            all.put(key, c);
+        }
+        c.add(draft, completed, sent, bytes);
+
+        changing = Math.max(changing - 1, 0);
+
+        if (!c.isValid()) {
+            Logger.w("Submission index out of sync with " + key + ", rebuilding...");
+            counts = rebuild(counts);
+        }
+        save();
+    }
+
+    /**
+     * Records that a change which has begun failed, so we no longer know what's on disk
+     */
+    synchronized void abort() {
+        changing = Math.max(changing - 1, 0);
+        counts = rebuild(load());
+        save();
+    }
+
+    /**
+     * Forgets the loaded counts so that they're read from disk again when next needed
+     */
+    synchronized void invalidate() {
+        counts = null;
+        changing = 0;
+    }
+
+    /**
+     * Forgets all counts, e.g. once all submissions have been cleared
+     */
+    synchronized void reset() {
+        counts = new HashMap<>();
+        changing = 0;
+        save();
+    }
+
+    private Map<String, Counts> load() {
+        if (counts == null) {
+            File file = new File(rootDir, INDEX_FILE);
+            State state = null;
+            if (file.exists()) {
+                try {
+                    state = JsonUtils.unmarshal(file, State.class);
+                } catch (IOException | RuntimeException e) {
+                    Logger.e("Unable to read submission index", e);
+                }
+            }
+
+            if (state != null && !state.changing && state.flows != null) {
+                counts = state.flows;
+            } else {
+                // first launch, or we were killed part way through a change
+                counts = rebuild(state != null ? state.flows : null);
+                save();
+            }
+        }
+        return counts;
+    }
+
+    private void save() {
+        State state = new State();
+        state.changing = changing > 0;
+        state.flows = counts;
+
+        try {
+            JsonUtils.marshal(state, new File(rootDir, INDEX_FILE));
+        } catch (IOException e) {
+            // the next load will rebuild it
+            Logger.e("Unable to save submission index", e);
+        }
+    }
+
+    /**
+     * Rebuilds the index by counting all submissions in the store. Sent submissions are no longer
+     * stored so those counts are carried over from the previous index if it had them.
+     */
+    private Map<String, Counts> rebuild(Map<String, Counts> previous) {
+        long start = System.currentTimeMillis();
+        Map<String, Counts> rebuilt = store.countAll();
+
+        if (previous != null) {
+            for (Map.Entry<String, Counts> entry : previous.entrySet()) {
+                Counts c = rebuilt.get(entry.getKey());
+                if (c == null) {
+                    c = new Counts();
+                    rebuilt.put(entry.getKey(), c);
+                }
+                c.sent = Math.max(entry.getValue() != null ? entry.getValue().sent : 0, 0);
+            }
+        }
+
+        Logger.d("Rebuilt submission index in " + (System.currentTimeMillis() - start) + "ms");
+        return rebuilt;
+    }
+
+    private static void add(Counts total, Counts c) {
+        total.add(c.draft, c.completed, c.sent, c.bytes);
+    }
+
+    private static String keyFor(String orgUuid, String flowUuid) {
+        return orgUuid + "/" + flowUuid;
+    }
+}
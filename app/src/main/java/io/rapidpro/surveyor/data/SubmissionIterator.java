@@ -0,0 +1,87 @@
+package io.rapidpro.surveyor.data;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the completed submissions of one or more flows, reading them from the store a page
+ * at a time so that only one page is ever held in memory. Submissions can be sent, and so deleted,
+ * as they're iterated over.
+ */
+public class SubmissionIterator implements Iterator<Submission> {
+
+    static final int PAGE_SIZE = 50;
+
+    private final SubmissionStore store;
+    private final SubmissionIndex index;
+    private final MediaStore media;
+    private final Org org;
+    private final Iterator<String> flowUuids;
+    private final int pageSize;
+
+    private String flowUuid;
+    private String after;
+    private boolean lastPage = true;
+    private Iterator<Submission> page = Collections.<Submission>emptyList().iterator();
+
+    /**
+     * Creates a new iterator
+     *
+     * @param store     the store
+     * @param index     the index to keep up to date as submissions are sent
+     * @param media     the media store to release media from as submissions are sent
+     * @param org       the org
+     * @param flowUuids the UUIDs of the flows
+     * @param pageSize  the number of submissions to read at a time
+     */
+    SubmissionIterator(SubmissionStore store, SubmissionIndex index, MediaStore media, Org org, List<String> flowUuids, int pageSize) {
+        this.store = store;
+        this.index = index;
+        this.media = media;
+        this.org = org;
+        this.flowUuids = flowUuids.iterator();
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext()) {
+            if (!lastPage) {
+                readPage();
+            } else if (flowUuids.hasNext()) {
+                flowUuid = flowUuids.next();
+                after = null;
+                readPage();
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Submission next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Submission submission = page.next();
+        submission.setIndex(index);
+        submission.setMediaStore(media);
+        return submission;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void readPage() {
+        SubmissionStore.Page p = store.getCompleted(org, flowUuid, after, pageSize);
+
+        page = p.getSubmissions().iterator();
+        after = p.getEnd();
+        lastPage = p.getSubmissions().size() < pageSize;
+    }
+}
@@ -0,0 +1,267 @@
+package io.rapidpro.surveyor.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.rapidpro.surveyor.Logger;
+
+/**
+ * Write-behind persistence of a submission's sprints, so that saving one never makes the caller
+ * wait on disk. Sprints are queued and written on a single persister thread shared by all
+ * submissions, which keeps the submission's logs open and writes the sprints queued since its last
+ * flush together. Everything queued is written, in order, by the time {@link #drain()} returns.
+ * If a write fails, nothing more is written, as the logs would no longer match the journal, and the
+ * failure is thrown by every later call to {@link #save} or {@link #drain()}.
+ */
+public class SubmissionPersister {
+
+    /**
+     * How long sprints are grouped for before they're written
+     */
+    private static final long GROUP_WINDOW_MS = 300;
+
+    /**
+     * How durable each sprint is once queued
+     */
+    public enum Durability {
+        /**
+         * Each sprint is written and synced to disk straight away
+         */
+        SYNC,
+
+        /**
+         * Sprints queued within a short window are written together, and left to the OS to sync
+         */
+        GROUPED
+    }
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "persister");
+        }
+    });
+
+    private final Submission submission;
+
+    private final Durability durability;
+
+    private final List<Write> pending = new ArrayList<>();
+
+    private ScheduledFuture<?> scheduled;
+
+    private boolean closed;
+
+    /**
+     * The open logs of the submission - only accessed on the persister thread
+     */
+    private SubmissionStore.Appender appender;
+
+    /**
+     * The first failure to write, after which nothing more is written
+     */
+    private IOException failure;
+
+    /**
+     * Creates a new persister for the given submission
+     *
+     * @param submission the submission
+     * @param durability the durability of each sprint
+     */
+    public SubmissionPersister(Submission submission, Durability durability) {
+        this.submission = submission;
+        this.durability = durability;
+    }
+
+    /**
+     * The results of a sprint to be written
+     */
+    private static class Write {
+        private SessionJournal.Input input;
+        private List<String> modifiers;
+        private List<String> events;
+        private String checkpoint;
+        private String session;
+    }
+
+    /**
+     * Queues the results of a sprint to be written
+     *
+     * @param input      the input which resumed the session, to be journaled with the results of
+     *                   the sprint (may be null)
+     * @param modifiers  the modifier payloads
+     * @param events     the event payloads
+     * @param checkpoint the session JSON if the session should be checkpointed (may be null)
+     * @param session    the session JSON if the session has completed (may be null)
+     */
+    public void save(SessionJournal.Input input, List<String> modifiers, List<String> events, String checkpoint, String session) throws IOException {
+        Write write = new Write();
+        write.input = input;
+        write.modifiers = modifiers;
+        write.events = events;
+        write.checkpoint = checkpoint;
+        write.session = session;
+
+        synchronized (this) {
+            // surface any failure to write earlier sprints as soon as possible
+            if (failure != null) {
+                throw failure;
+            }
+            if (closed) {
+                throw new IllegalStateException("Persister for submission " + submission.getUuid() + " is closed");
+            }
+            pending.add(write);
+
+            if (scheduled == null) {
+                long delay = durability == Durability.SYNC ? 0 : GROUP_WINDOW_MS;
+
+                scheduled = executor.schedule(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        flush();
+                        return null;
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Writes everything queued so far and waits for it to be written
+     *
+     * @throws IOException if anything queued couldn't be written
+     */
+    public void drain() throws IOException {
+        await(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                flush();
+                return null;
+            }
+        }));
+
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Writes everything queued so far and closes the submission's logs
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            drain();
+        } finally {
+            closeAppender(false);
+        }
+    }
+
+    /**
+     * Closes the submission's logs, forgetting anything queued, e.g. because it's being discarded
+     */
+    public void abandon() {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+        }
+        closeAppender(true);
+    }
+
+    /**
+     * Writes all queued sprints. Called on the persister thread.
+     */
+    private void flush() {
+        List<Write> writes;
+        synchronized (this) {
+            writes = new ArrayList<>(pending);
+            pending.clear();
+            scheduled = null;
+
+            if (failure != null) {
+                return;
+            }
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        SubmissionStore store = submission.getStore();
+        boolean sync = durability == Durability.SYNC;
+
+        try {
+            if (appender == null) {
+                appender = store.openAppender(submission);
+            }
+
+            for (Write write : writes) {
+                // the input is journaled with its results before they're logged, so if we're killed part
+                // way, recovery can restore the logs from the journal
+                if (write.input != null) {
+                    store.saveInput(submission, write.input, sync);
+                }
+                appender.appendModifiers(write.modifiers);
+                appender.appendEvents(write.events);
+
+                // the session is saved relative to the logs so they must be written first
+                if (write.session != null) {
+                    appender.flush(sync);
+                    store.saveSession(submission, write.session);
+                } else if (write.checkpoint != null) {
+                    appender.flush(sync);
+                    store.checkpointSession(submission, write.checkpoint, sync);
+                }
+            }
+            appender.flush(sync);
+
+        } catch (IOException e) {
+            Logger.e("Unable to write " + writes.size() + " sprints of submission " + submission.getUuid(), e);
+
+            synchronized (this) {
+                failure = e;
+            }
+        }
+    }
+
+    private void closeAppender(final boolean quietly) {
+        await(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (appender != null) {
+                    try {
+                        appender.close();
+                    } catch (IOException e) {
+                        if (!quietly) {
+                            Logger.e("Unable to close logs of submission " + submission.getUuid(), e);
+                        }
+                    }
+                    appender = null;
+                }
+                return null;
+            }
+        }));
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
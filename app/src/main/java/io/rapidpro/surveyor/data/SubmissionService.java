@@ -1,120 +1,195 @@
 package io.rapidpro.surveyor.data;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
 
 import io.rapidpro.surveyor.Logger;
-import io.rapidpro.surveyor.utils.SurveyUtils;
 
 /**
- * Directory based service for flow session submissions
+ * Service for flow session submissions
  */
 public class SubmissionService {
 
-    private File rootDir;
+    private static final String MEDIA_DIR = "media";
+
+    private SubmissionStore store;
+
+    private SubmissionIndex index;
 
-    private static FileFilter DIR_FILTER = DirectoryFileFilter.INSTANCE;
+    private RunRegistry runs;
+
+    private MediaStore media;
 
     /**
-     * Creates a new submission service
+     * Creates a new submission service which keeps each submission in its own directory
      *
      * @param rootDir the root directory
      */
     public SubmissionService(File rootDir) {
-        this.rootDir = rootDir;
+        this(rootDir, new DirectorySubmissionStore(rootDir));
+    }
+
+    /**
+     * Creates a new submission service backed by the given store
+     *
+     * @param rootDir the root directory, where the index and media are kept
+     * @param store   the store
+     */
+    public SubmissionService(File rootDir, SubmissionStore store) {
+        this.store = store;
+        this.index = new SubmissionIndex(rootDir, store);
+        this.runs = new RunRegistry(rootDir, store);
+        this.media = new MediaStore(new File(rootDir, MEDIA_DIR));
 
-        Logger.d("SubmissionService created for directory " + this.rootDir.getAbsolutePath());
+        Logger.d("SubmissionService created for directory " + rootDir.getAbsolutePath() + " with " + store.getClass().getSimpleName());
     }
 
     /**
-     * Creates a new submission for the given flow in the given org
+     * Creates a new submission for the given flow in the given org, leaving any existing incomplete
+     * submissions, e.g. when running the flow for several respondents at once
      *
      * @param org  the org
      * @param flow the flow
      * @return the new submission
      */
-    public Submission newSubmission(Org org, Flow flow) throws IOException {
-        File flowDir = SurveyUtils.mkdir(rootDir, org.getUuid(), flow.getUuid());
+    public Submission addSubmission(Org org, Flow flow) throws IOException {
+        Submission submission;
 
-        // blow away any existing incomplete submissions for this flow
-        discardIncomplete(org, flow);
+        // clears out any drafts abandoned before their sessions were started
+        getDrafts(org, flow);
 
-        File directory = new File(flowDir, UUID.randomUUID().toString());
-        directory.mkdirs();
+        index.begin();
+        try {
+            submission = store.create(org, flow.getUuid());
+        } catch (IOException e) {
+            index.abort();
+            throw e;
+        }
+        index.commit(org.getUuid(), flow.getUuid(), 1, 0, 0, 0);
+        runs.add(submission);
+
+        Logger.d("Creating new submission in " + submission.getDirectory().getPath());
 
-        Logger.d("Creating new submission in " + directory.getPath());
+        return track(submission);
+    }
 
-        return new Submission(org, directory);
+    /**
+     * Gets an existing submission for the given flow in the given org
+     *
+     * @param org  the org
+     * @param flow the flow
+     * @param uuid the submission UUID
+     * @return the submission or null if it doesn't exist
+     */
+    public Submission get(Org org, Flow flow, String uuid) {
+        Submission submission = store.get(org, flow.getUuid(), uuid);
+        return submission != null ? track(submission) : null;
     }
 
-    private void discardIncomplete(Org org, Flow flow) throws IOException {
-        for (Submission sub : getAll(org, flow)) {
-            if (!sub.isCompleted()) {
-                FileUtils.deleteDirectory(sub.getDirectory());
+    /**
+     * Gets the incomplete submissions for the given flow in the given org which can be resumed, e.g.
+     * runs that were interrupted by the app being killed, most recently saved first
+     *
+     * @param org  the org
+     * @param flow the flow
+     * @return the submissions
+     */
+    public List<Submission> getIncomplete(Org org, Flow flow) {
+        List<Submission> incomplete = new ArrayList<>();
+        final Map<Submission, Long> lastSaved = new HashMap<>();
+        for (Submission sub : getDrafts(org, flow)) {
+            if (sub.hasSession()) {
+                incomplete.add(sub);
+                lastSaved.put(sub, sub.getLastSaved());
             }
         }
+
+        Collections.sort(incomplete, new Comparator<Submission>() {
+            @Override
+            public int compare(Submission s1, Submission s2) {
+                return Long.compare(lastSaved.get(s2), lastSaved.get(s1));
+            }
+        });
+        return incomplete;
     }
 
     /**
-     * Return the completed submissions across all flows for the given org
+     * Return the completed submissions across all flows for the given org, which are read a page
+     * at a time as they're iterated over
      *
      * @param org the org
      * @return the submissions
      */
-    public List<Submission> getCompleted(Org org) {
-        List<Submission> pending = new ArrayList<>();
+    public Iterator<Submission> getCompleted(Org org) {
+        List<String> flowUuids = new ArrayList<>();
         for (Flow flow : org.getFlows()) {
-            pending.addAll(getCompleted(org, flow));
+            flowUuids.add(flow.getUuid());
         }
-        return pending;
+        return new SubmissionIterator(store, index, media, org, flowUuids, SubmissionIterator.PAGE_SIZE);
     }
 
-    private List<Submission> getAll(Org org, Flow flow) {
-        List<Submission> all = new ArrayList<>();
-        File orgDir = new File(rootDir, org.getUuid());
-        File flowDir = new File(orgDir, flow.getUuid());
-        if (flowDir.exists()) {
-            for (File file : flowDir.listFiles(DIR_FILTER)) {
-                all.add(new Submission(org, file));
+    /**
+     * Gets the drafts of the given flow, deleting any left over from an earlier process without a
+     * session, e.g. because the app was killed while the session was being started
+     */
+    private List<Submission> getDrafts(Org org, Flow flow) {
+        List<Submission> drafts = new ArrayList<>();
+        for (Submission sub : runs.get(org, flow.getUuid())) {
+            track(sub);
+
+            if (!sub.hasSession() && !runs.isAddedByThisProcess(sub)) {
+                Logger.d("Deleting abandoned submission " + sub.getUuid());
+                sub.delete();
+            } else {
+                drafts.add(sub);
             }
         }
-        return all;
+        return drafts;
+    }
+
+    private Submission track(Submission submission) {
+        submission.setIndex(index);
+        submission.setRegistry(runs);
+        submission.setMediaStore(media);
+        return submission;
     }
 
+    /**
+     * Gets the store of the media of all submissions
+     *
+     * @return the media store
+     */
+    public MediaStore getMediaStore() {
+        return media;
+    }
+
+    /**
+     * Gets whether there are any draft or completed submissions for any org
+     *
+     * @return true if there are submissions
+     */
     public boolean hasSubmissions() {
-        for (File orgDir : rootDir.listFiles(DIR_FILTER)) {
-            for (File flowDir : orgDir.listFiles(DIR_FILTER)) {
-                File[] subDirs = flowDir.listFiles(DIR_FILTER);
-                if (subDirs != null && subDirs.length > 0) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        SubmissionIndex.Counts total = index.getTotal();
+        return total.getDraft() + total.getCompleted() > 0;
     }
 
     /**
-     * Return the pending submissions for the given flow in the given org
+     * Return the pending submissions for the given flow in the given org, which are read a page at
+     * a time as they're iterated over
      *
      * @param org  the org
      * @param flow the flow
      * @return the submissions
      */
-    public List<Submission> getCompleted(Org org, Flow flow) {
-        List<Submission> completed = new ArrayList<>();
-        for (Submission sub : getAll(org, flow)) {
-            if (sub.isCompleted()) {
-                completed.add(sub);
-            }
-        }
-        return completed;
+    public Iterator<Submission> getCompleted(Org org, Flow flow) {
+        return new SubmissionIterator(store, index, media, org, Collections.singletonList(flow.getUuid()), SubmissionIterator.PAGE_SIZE);
     }
 
     /**
@@ -124,7 +199,7 @@ public class SubmissionService {
      * @return the count of submissions
      */
     public int getCompletedCount(Org org) {
-        return getCompleted(org).size();
+        return getCounts(org).getCompleted();
     }
 
     /**
@@ -135,14 +210,65 @@ public class SubmissionService {
      * @return the count of submissions
      */
     public int getCompletedCount(Org org, Flow flow) {
-        return getCompleted(org, flow).size();
+        return getCounts(org, flow).getCompleted();
+    }
+
+    /**
+     * Return the submission counts across all flows for the given org, without touching the
+     * submissions themselves
+     *
+     * @param org the org
+     * @return the counts
+     */
+    public SubmissionIndex.Counts getCounts(Org org) {
+        return getCounts(org.getUuid());
+    }
+
+    /**
+     * Return the submission counts across all flows for the org with the given UUID, which may
+     * not be loaded
+     *
+     * @param orgUuid the org UUID
+     * @return the counts
+     */
+    SubmissionIndex.Counts getCounts(String orgUuid) {
+        return index.get(orgUuid);
+    }
+
+    /**
+     * Return the submission counts across all orgs
+     *
+     * @return the counts
+     */
+    public SubmissionIndex.Counts getTotalCounts() {
+        return index.getTotal();
+    }
+
+    /**
+     * Return the submission counts for the given flow in the given org, without touching the
+     * submissions themselves
+     *
+     * @param org  the org
+     * @param flow the flow
+     * @return the counts
+     */
+    public SubmissionIndex.Counts getCounts(Org org, Flow flow) {
+        return index.get(org.getUuid(), flow.getUuid());
     }
 
     /**
      * Clear all submissions
      */
     public void clearAll() throws IOException {
-        FileUtils.deleteDirectory(rootDir);
-        rootDir.mkdir();
+        store.clearAll();
+        index.reset();
+        runs.reset();
+        media.reset();
+    }
+
+    public void clearCache() {
+        index.invalidate();
+        runs.invalidate();
+        media.invalidate();
     }
 }
@@ -0,0 +1,219 @@
+package io.rapidpro.surveyor.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import io.rapidpro.surveyor.net.requests.SubmissionPayload;
+
+/**
+ * Storage for flow session submissions. Whatever the store, each submission has a directory on
+ * disk where its media is saved, so that media URIs in its events stay valid.
+ */
+public interface SubmissionStore {
+
+    /**
+     * Creates a new empty submission for the given flow in the given org
+     *
+     * @param org      the org
+     * @param flowUuid the flow UUID
+     * @return the submission
+     */
+    Submission create(Org org, String flowUuid) throws IOException;
+
+    /**
+     * Gets an existing submission
+     *
+     * @param org      the org
+     * @param flowUuid the flow UUID
+     * @param uuid     the submission UUID
+     * @return the submission or null if it doesn't exist
+     */
+    Submission get(Org org, String flowUuid, String uuid);
+
+    /**
+     * Gets all submissions for the given flow in the given org
+     *
+     * @param org      the org
+     * @param flowUuid the flow UUID
+     * @return the submissions
+     */
+    List<Submission> getAll(Org org, String flowUuid);
+
+    /**
+     * Gets the draft submissions for the given flow in the given org, e.g. to register them as
+     * in-progress runs
+     *
+     * @param org      the org
+     * @param flowUuid the flow UUID
+     * @return the submissions
+     */
+    List<Submission> getDrafts(Org org, String flowUuid);
+
+    /**
+     * Gets a page of the completed submissions for the given flow in the given org. Pages are in a
+     * stable order, which isn't disturbed by submissions being deleted, e.g. as they're sent.
+     *
+     * @param org      the org
+     * @param flowUuid the flow UUID
+     * @param after    the end of the previous page or null for the first page
+     * @param limit    the maximum number of submissions in the page
+     * @return the page
+     */
+    Page getCompleted(Org org, String flowUuid, String after, int limit);
+
+    /**
+     * Counts the draft and completed submissions of every flow, e.g. to rebuild the index
+     *
+     * @return the counts by org and flow UUID separated by a slash
+     */
+    Map<String, SubmissionIndex.Counts> countAll();
+
+    /**
+     * Deletes all submissions
+     */
+    void clearAll() throws IOException;
+
+    boolean isCompleted(Submission submission);
+
+    boolean hasSession(Submission submission);
+
+    /**
+     * @return the time the session was last saved in milliseconds or 0 if it has no session
+     */
+    long getLastSaved(Submission submission);
+
+    /**
+     * @return the full session JSON, saved once the session completed
+     */
+    String readSession(Submission submission) throws IOException;
+
+    List<String> readEvents(Submission submission) throws IOException;
+
+    List<String> readModifiers(Submission submission) throws IOException;
+
+    /**
+     * Opens the given submission for a series of reads, e.g. while it's being submitted, so that
+     * reads until the returned handle is closed don't each open it again
+     */
+    Closeable openForReading(Submission submission) throws IOException;
+
+    /**
+     * Opens the events of the given submission for reading one at a time
+     */
+    SubmissionPayload.Records openEvents(Submission submission) throws IOException;
+
+    /**
+     * Opens the modifiers of the given submission for reading one at a time
+     */
+    SubmissionPayload.Records openModifiers(Submission submission) throws IOException;
+
+    /**
+     * Lists the media files of the given submission, by the paths they were saved to, which may no
+     * longer exist if the store has since moved them. This includes the blobs it refers to in the
+     * media store.
+     */
+    List<File> getMedia(Submission submission) throws IOException;
+
+    /**
+     * Records that the given submission refers to a blob in the media store
+     */
+    void addMedia(Submission submission, File blob) throws IOException;
+
+    /**
+     * Opens one of the media files of the given submission for reading
+     */
+    InputStream openMedia(Submission submission, File file) throws IOException;
+
+    void appendEvents(Submission submission, List<String> events) throws IOException;
+
+    void appendModifiers(Submission submission, List<String> modifiers) throws IOException;
+
+    /**
+     * Opens the logs of the given submission for appending to repeatedly
+     */
+    Appender openAppender(Submission submission) throws IOException;
+
+    /**
+     * @return the number of inputs saved since the last checkpoint
+     * @see Submission#saveInput(SessionJournal.Input, boolean)
+     */
+    int saveInput(Submission submission, SessionJournal.Input input, boolean sync) throws IOException;
+
+    /**
+     * @see Submission#checkpointSession(String, boolean)
+     */
+    void checkpointSession(Submission submission, String sessionJSON, boolean sync) throws IOException;
+
+    /**
+     * @see Submission#recoverSession(List)
+     */
+    String recoverSession(Submission submission, List<SessionJournal.Input> unsaved) throws IOException;
+
+    /**
+     * @see Submission#saveSession(io.rapidpro.surveyor.engine.Session)
+     */
+    void saveSession(Submission submission, String sessionJSON) throws IOException;
+
+    /**
+     * Marks the given submission as completed
+     *
+     * @return the size of the submission in bytes
+     */
+    long complete(Submission submission) throws IOException;
+
+    /**
+     * @return the size in bytes recorded when the given submission was completed
+     */
+    long getCompletedSize(Submission submission);
+
+    /**
+     * Deletes the given submission, including its media
+     */
+    void delete(Submission submission) throws IOException;
+
+    /**
+     * A page of submissions
+     */
+    class Page {
+        private final List<Submission> submissions;
+        private final String end;
+
+        /**
+         * @param submissions the submissions
+         * @param end         where the next page starts, i.e. the position of the last submission
+         */
+        public Page(List<Submission> submissions, String end) {
+            this.submissions = submissions;
+            this.end = end;
+        }
+
+        public List<Submission> getSubmissions() {
+            return submissions;
+        }
+
+        public String getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * The open logs of a submission. Appended records are only guaranteed to be visible to the
+     * store, e.g. to a checkpoint, once the appender is flushed.
+     */
+    interface Appender extends Closeable {
+        void appendEvents(List<String> events) throws IOException;
+
+        void appendModifiers(List<String> modifiers) throws IOException;
+
+        /**
+         * Writes out all appended records
+         *
+         * @param sync whether to also wait for them to reach the storage device
+         */
+        void flush(boolean sync) throws IOException;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
+import io.rapidpro.surveyor.data.Flow;
 import io.rapidpro.surveyor.data.Org;
 
 /**
@@ -31,6 +32,8 @@ public class Engine {
      */
     private static Engine engine = new Engine();
 
+    private static Semver currentSpecVersion;
+
     private com.nyaruka.goflow.mobile.Engine target;
 
     public static Engine getInstance() {
@@ -49,8 +52,11 @@ public class Engine {
      *
      * @return the spec version
      */
-    public static Semver currentSpecVersion() {
-        return new Semver(Mobile.currentSpecVersion(), Semver.SemverType.LOOSE);
+    public static synchronized Semver currentSpecVersion() {
+        if (currentSpecVersion == null) {
+            currentSpecVersion = new Semver(Mobile.currentSpecVersion(), Semver.SemverType.LOOSE);
+        }
+        return currentSpecVersion;
     }
 
     /**
@@ -68,6 +74,25 @@ public class Engine {
         return Mobile.isVersionSupported(ver);
     }
 
+    /**
+     * Determines whether a flow with the given spec version can be run by the flow engine, and if
+     * not, whether that's because the flow is too old or too new
+     *
+     * @param ver the spec version
+     * @return the compatibility
+     */
+    public static Flow.Compatibility checkCompatibility(String ver) {
+        if (isSpecVersionSupported(ver)) {
+            return Flow.Compatibility.SUPPORTED;
+        }
+
+        Semver flowVersion = new Semver(ver, Semver.SemverType.LOOSE);
+        if (flowVersion.isGreaterThan(currentSpecVersion())) {
+            return Flow.Compatibility.NEEDS_UPGRADE;
+        }
+        return Flow.Compatibility.NEEDS_REFRESH;
+    }
+
     /**
      * Creates an engine environment from the given org
      *
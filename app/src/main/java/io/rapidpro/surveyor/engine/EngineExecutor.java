@@ -0,0 +1,112 @@
+package io.rapidpro.surveyor.engine;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.rapidpro.surveyor.Logger;
+
+/**
+ * Single-threaded queue for calls into the flow engine, so that they're made in order and never on
+ * the UI thread. Results are either returned as futures or delivered to callbacks on the UI thread.
+ *
+ * There's no method per engine call (new session, resume, read, to JSON). Each call is followed by
+ * work which must happen in the same queued step, e.g. queueing a sprint's results to be saved or
+ * reading back a run's wait state, so the typed session API lives in {@link SessionManager} and is
+ * built on {@link #submit(Callable, Callback)}.
+ */
+public class EngineExecutor {
+    /**
+     * The executor singleton
+     */
+    private static EngineExecutor executor = new EngineExecutor();
+
+    private final ExecutorService queue;
+
+    private Handler mainHandler;
+
+    public static EngineExecutor getInstance() {
+        return executor;
+    }
+
+    private EngineExecutor() {
+        this.queue = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "engine");
+            }
+        });
+    }
+
+    /**
+     * Callback for the result of a queued call
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Queues a call to be made on the engine thread
+     *
+     * @param call     the call
+     * @param callback the callback to notify on the UI thread (may be null)
+     * @return the future result
+     */
+    public <T> Future<T> submit(final Callable<T> call, final Callback<T> callback) {
+        return queue.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    final T result = call.call();
+
+                    if (callback != null) {
+                        postToMain(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onSuccess(result);
+                            }
+                        });
+                    }
+                    return result;
+
+                } catch (final Exception e) {
+                    if (callback != null) {
+                        postToMain(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(e);
+                            }
+                        });
+                    } else {
+                        Logger.e("Error in queued engine call", e);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a call to be made on the engine thread
+     *
+     * @param call the call
+     * @return the future result
+     */
+    public <T> Future<T> submit(Callable<T> call) {
+        return submit(call, null);
+    }
+
+    private synchronized void postToMain(Runnable runnable) {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        mainHandler.post(runnable);
+    }
+}
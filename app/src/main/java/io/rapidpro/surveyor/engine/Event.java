@@ -0,0 +1,161 @@
+package io.rapidpro.surveyor.engine;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A typed view of an engine event. The payload is fetched from the engine once, and only decoded
+ * (with a streaming reader) when one of the typed properties is first accessed.
+ */
+public class Event {
+    private String payload;
+
+    private boolean decoded;
+    private String type;
+    private String msgText;
+    private List<String> msgAttachments;
+    private List<String> msgQuickReplies;
+
+    private Event(String payload) {
+        this.payload = payload;
+    }
+
+    static Event fromNative(com.nyaruka.goflow.mobile.Event e) {
+        return new Event(e.payload());
+    }
+
+    /**
+     * Creates an event view from its JSON payload, e.g. as read back from a submission
+     *
+     * @param payload the JSON payload
+     * @return the event
+     */
+    public static Event fromJSON(String payload) {
+        return new Event(payload);
+    }
+
+    /**
+     * Gets the JSON payload of this event
+     *
+     * @return the payload
+     */
+    public String payload() {
+        return payload;
+    }
+
+    /**
+     * Gets the type of this event, e.g. msg_created
+     *
+     * @return the type
+     */
+    public String type() {
+        decode();
+        return type;
+    }
+
+    /**
+     * Gets whether this event contains a message, i.e. is msg_created or msg_received
+     *
+     * @return true if event has a message
+     */
+    public boolean hasMsg() {
+        decode();
+        return msgText != null;
+    }
+
+    /**
+     * Gets the text of the message in this event (null if event has no message)
+     *
+     * @return the message text
+     */
+    public String getMsgText() {
+        decode();
+        return msgText;
+    }
+
+    /**
+     * Gets the attachments of the message in this event
+     *
+     * @return the message attachments
+     */
+    public List<String> getMsgAttachments() {
+        decode();
+        return msgAttachments;
+    }
+
+    /**
+     * Gets the quick replies of the message in this event
+     *
+     * @return the message quick replies
+     */
+    public List<String> getMsgQuickReplies() {
+        decode();
+        return msgQuickReplies;
+    }
+
+    private synchronized void decode() {
+        if (decoded) {
+            return;
+        }
+
+        msgAttachments = Collections.emptyList();
+        msgQuickReplies = Collections.emptyList();
+
+        try {
+            JsonReader reader = new JsonReader(new StringReader(payload));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("type")) {
+                    type = reader.nextString();
+                } else if (name.equals("msg") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    decodeMsg(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new RuntimeException("Unable to decode event payload: " + payload, e);
+        }
+
+        decoded = true;
+    }
+
+    private void decodeMsg(JsonReader reader) throws IOException {
+        msgText = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals("text")) {
+                msgText = reader.nextString();
+            } else if (name.equals("attachments")) {
+                msgAttachments = readStrings(reader);
+            } else if (name.equals("quick_replies")) {
+                msgQuickReplies = readStrings(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static List<String> readStrings(JsonReader reader) throws IOException {
+        List<String> items = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            items.add(reader.nextString());
+        }
+        reader.endArray();
+        return items;
+    }
+}
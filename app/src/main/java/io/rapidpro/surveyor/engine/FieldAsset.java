@@ -1,6 +1,13 @@
 package io.rapidpro.surveyor.engine;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 import io.rapidpro.surveyor.net.responses.Field;
+import io.rapidpro.surveyor.utils.JsonUtils;
 
 public class FieldAsset {
     private String key;
@@ -17,4 +24,44 @@ public class FieldAsset {
         String type = field.getValueType().equals("numeric") ? "number" : field.getValueType();
         return new FieldAsset(field.getKey(), field.getLabel(), type);
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write field assets without reflection
+     */
+    public static class Adapter extends TypeAdapter<FieldAsset> {
+        @Override
+        public void write(JsonWriter out, FieldAsset field) throws IOException {
+            out.beginObject();
+            out.name("key").value(field.key);
+            out.name("name").value(field.name);
+            out.name("type").value(field.type);
+            out.endObject();
+        }
+
+        @Override
+        public FieldAsset read(JsonReader in) throws IOException {
+            String key = null;
+            String name = null;
+            String type = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "key":
+                        key = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        name = JsonUtils.nextString(in);
+                        break;
+                    case "type":
+                        type = JsonUtils.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new FieldAsset(key, name, type);
+        }
+    }
 }
@@ -1,6 +1,13 @@
 package io.rapidpro.surveyor.engine;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 import io.rapidpro.surveyor.net.responses.Group;
+import io.rapidpro.surveyor.utils.JsonUtils;
 
 public class GroupAsset {
     private String uuid;
@@ -16,4 +23,44 @@ public class GroupAsset {
     public static GroupAsset fromTemba(Group group) {
         return new GroupAsset(group.getUuid(), group.getName(), group.getQuery());
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write group assets without reflection
+     */
+    public static class Adapter extends TypeAdapter<GroupAsset> {
+        @Override
+        public void write(JsonWriter out, GroupAsset group) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(group.uuid);
+            out.name("name").value(group.name);
+            out.name("query").value(group.query);
+            out.endObject();
+        }
+
+        @Override
+        public GroupAsset read(JsonReader in) throws IOException {
+            String uuid = null;
+            String name = null;
+            String query = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "uuid":
+                        uuid = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        name = JsonUtils.nextString(in);
+                        break;
+                    case "query":
+                        query = JsonUtils.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new GroupAsset(uuid, name, query);
+        }
+    }
 }
@@ -1,11 +1,17 @@
 package io.rapidpro.surveyor.engine;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import io.rapidpro.surveyor.net.responses.Boundary;
+import io.rapidpro.surveyor.utils.JsonUtils;
 
 public class LocationAsset {
     private String name;
@@ -53,4 +59,47 @@ public class LocationAsset {
 
         return root;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write location hierarchies without reflection
+     */
+    public static class Adapter extends TypeAdapter<LocationAsset> {
+        private final TypeAdapter<LocationAsset> childAdapter = nullSafe();
+
+        @Override
+        public void write(JsonWriter out, LocationAsset location) throws IOException {
+            out.beginObject();
+            out.name("name").value(location.name);
+            out.name("aliases");
+            JsonUtils.writeStringArray(out, location.aliases);
+            out.name("children");
+            JsonUtils.writeList(out, location.children, childAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public LocationAsset read(JsonReader in) throws IOException {
+            LocationAsset location = new LocationAsset(null, null);
+            location.children = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        location.name = JsonUtils.nextString(in);
+                        break;
+                    case "aliases":
+                        location.aliases = JsonUtils.nextStringArray(in);
+                        break;
+                    case "children":
+                        location.children = JsonUtils.nextList(in, childAdapter);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return location;
+        }
+    }
 }
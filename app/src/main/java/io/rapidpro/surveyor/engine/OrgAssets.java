@@ -1,5 +1,10 @@
 package io.rapidpro.surveyor.engine;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -8,6 +13,7 @@ import io.rapidpro.surveyor.data.Flow;
 import io.rapidpro.surveyor.net.responses.Boundary;
 import io.rapidpro.surveyor.net.responses.Field;
 import io.rapidpro.surveyor.net.responses.Group;
+import io.rapidpro.surveyor.utils.JsonUtils;
 import io.rapidpro.surveyor.utils.RawJson;
 
 public class OrgAssets {
@@ -26,6 +32,14 @@ public class OrgAssets {
         this.flows = flows;
     }
 
+    /**
+     * Constructs a new set of org assets without flows from the data returned from the Temba API,
+     * e.g. when flow definitions are streamed separately
+     */
+    public static OrgAssets fromTemba(List<Field> fields, List<Group> groups, List<Boundary> boundaries) {
+        return fromTemba(fields, groups, boundaries, Collections.<RawJson>emptyList());
+    }
+
     /**
      * Constructs a new set of org assets from the data returned from the Temba API
      */
@@ -49,6 +63,22 @@ public class OrgAssets {
         return new OrgAssets(fieldAssets, groupAssets, locationAssets, flows);
     }
 
+    public List<FieldAsset> getFields() {
+        return fields;
+    }
+
+    public List<GroupAsset> getGroups() {
+        return groups;
+    }
+
+    public List<LocationAsset> getLocations() {
+        return locations;
+    }
+
+    public List<RawJson> getFlowDefinitions() {
+        return flows;
+    }
+
     /**
      * Extract the flow summaries from this set of org assets
      */
@@ -59,4 +89,55 @@ public class OrgAssets {
         }
         return summaries;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write org assets without reflection
+     */
+    public static class Adapter extends TypeAdapter<OrgAssets> {
+        private final TypeAdapter<FieldAsset> fieldAdapter = new FieldAsset.Adapter().nullSafe();
+        private final TypeAdapter<GroupAsset> groupAdapter = new GroupAsset.Adapter().nullSafe();
+        private final TypeAdapter<LocationAsset> locationAdapter = new LocationAsset.Adapter().nullSafe();
+        private final TypeAdapter<RawJson> flowAdapter = new RawJson.Adapter();
+
+        @Override
+        public void write(JsonWriter out, OrgAssets assets) throws IOException {
+            out.beginObject();
+            out.name("fields");
+            JsonUtils.writeList(out, assets.fields, fieldAdapter);
+            out.name("groups");
+            JsonUtils.writeList(out, assets.groups, groupAdapter);
+            out.name("locations");
+            JsonUtils.writeList(out, assets.locations, locationAdapter);
+            out.name("flows");
+            JsonUtils.writeList(out, assets.flows, flowAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public OrgAssets read(JsonReader in) throws IOException {
+            OrgAssets assets = new OrgAssets(null, null, null, null);
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fields":
+                        assets.fields = JsonUtils.nextList(in, fieldAdapter);
+                        break;
+                    case "groups":
+                        assets.groups = JsonUtils.nextList(in, groupAdapter);
+                        break;
+                    case "locations":
+                        assets.locations = JsonUtils.nextList(in, locationAdapter);
+                        break;
+                    case "flows":
+                        assets.flows = JsonUtils.nextList(in, flowAdapter);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return assets;
+        }
+    }
 }
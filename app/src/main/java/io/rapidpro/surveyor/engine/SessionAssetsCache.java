@@ -0,0 +1,202 @@
+package io.rapidpro.surveyor.engine;
+
+import com.nyaruka.goflow.mobile.Environment;
+import com.nyaruka.goflow.mobile.SessionAssets;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.data.Flow;
+import io.rapidpro.surveyor.data.Org;
+
+/**
+ * Process-wide cache of session assets, keyed by org UUID, assets generation and flow, so that
+ * starting a run doesn't require re-reading and re-parsing the org's assets each time. Alongside the assets
+ * we also keep each org's engine environment. Contacts aren't cached, as every run needs its own.
+ */
+public class SessionAssetsCache {
+    /**
+     * The maximum number of session assets we keep in memory at once
+     */
+    private static final int MAX_ENTRIES = 2;
+
+    /**
+     * The cache singleton
+     */
+    private static SessionAssetsCache cache = new SessionAssetsCache();
+
+    /**
+     * Loads are held as futures so that a caller asking for assets which are being prewarmed waits
+     * for that load to finish rather than starting another
+     */
+    private final Map<String, FutureTask<SessionAssets>> entries = new LinkedHashMap<String, FutureTask<SessionAssets>>(MAX_ENTRIES + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<SessionAssets>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Environments by org UUID, along with the org details they were built from
+     */
+    private final Map<String, Pair<String, Environment>> environments = new HashMap<>();
+
+    public static SessionAssetsCache getInstance() {
+        return cache;
+    }
+
+    private SessionAssetsCache() {
+    }
+
+    /**
+     * Gets the session assets for running the given flow, loading them if they're not already cached
+     *
+     * @param org  the org
+     * @param flow the flow
+     * @return the session assets
+     */
+    public SessionAssets get(Org org, Flow flow) throws EngineException, IOException {
+        FutureTask<SessionAssets> task = getOrCreateTask(org, flow);
+
+        // if we created the task, we run the load on this thread, otherwise this is a no-op
+        task.run();
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading assets for org " + org.getUuid());
+        } catch (ExecutionException e) {
+            // don't cache failures so that the next caller can retry
+            remove(org, flow, task);
+
+            Throwable cause = e.getCause();
+            if (cause instanceof EngineException) {
+                throw (EngineException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Gets the engine environment for the given org, only rebuilding it if the org's details have
+     * changed since it was last built, e.g. by a refresh
+     *
+     * @param org the org
+     * @return the environment
+     */
+    public synchronized Environment getEnvironment(Org org) {
+        String details = environmentDetails(org);
+        Pair<String, Environment> cached = environments.get(org.getUuid());
+
+        if (cached == null || !cached.getLeft().equals(details)) {
+            cached = new ImmutablePair<>(details, Engine.createEnvironment(org));
+            environments.put(org.getUuid(), cached);
+        }
+        return cached.getRight();
+    }
+
+    /**
+     * Loads the session assets and environment for running the given flow on the engine thread if
+     * they're not already cached, so that starting a run of it doesn't wait on them
+     *
+     * @param org  the org
+     * @param flow the flow
+     */
+    public void prewarm(final Org org, final Flow flow) {
+        if (!org.hasAssets() || isCached(org, flow)) {
+            return;
+        }
+
+        EngineExecutor.getInstance().submit(new Callable<SessionAssets>() {
+            @Override
+            public SessionAssets call() throws Exception {
+                getEnvironment(org);
+                return get(org, flow);
+            }
+        });
+    }
+
+    /**
+     * Removes all cached session assets for the given org
+     *
+     * @param org the org
+     */
+    public synchronized void invalidate(Org org) {
+        String prefix = org.getUuid() + ":";
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached session assets, e.g. when the system is low on memory
+     */
+    public synchronized void clear() {
+        if (!entries.isEmpty()) {
+            Logger.d("Clearing " + entries.size() + " cached session assets");
+        }
+        entries.clear();
+        environments.clear();
+    }
+
+    private synchronized boolean isCached(Org org, Flow flow) {
+        return entries.containsKey(keyFor(org, flow));
+    }
+
+    private synchronized FutureTask<SessionAssets> getOrCreateTask(final Org org, final Flow flow) {
+        String key = keyFor(org, flow);
+        FutureTask<SessionAssets> task = entries.get(key);
+        if (task == null) {
+            task = new FutureTask<>(new Callable<SessionAssets>() {
+                @Override
+                public SessionAssets call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    SessionAssets assets = Engine.createSessionAssets(Engine.loadAssets(org.getAssets(flow)));
+
+                    Logger.d("Loaded session assets for flow " + flow.getUuid() + " in " + (System.currentTimeMillis() - start) + "ms");
+                    return assets;
+                }
+            });
+            entries.put(key, task);
+        }
+        return task;
+    }
+
+    private synchronized void remove(Org org, Flow flow, FutureTask<SessionAssets> task) {
+        String key = keyFor(org, flow);
+        if (entries.get(key) == task) {
+            entries.remove(key);
+        }
+    }
+
+    private static String keyFor(Org org, Flow flow) {
+        // orgs without asset shards load the same assets for every flow
+        String assetsKey = org.hasAssetShards() ? flow.getUuid() : "*";
+
+        return org.getUuid() + ":" + org.getAssetsGeneration() + ":" + assetsKey;
+    }
+
+    /**
+     * Gets the org details which go into an environment
+     */
+    private static String environmentDetails(Org org) {
+        return org.getDateStyle() + "|" + org.getTimezone() + "|" + org.getPrimaryLanguage() + "|" + Arrays.toString(org.getLanguages()) + "|" + org.getCountry() + "|" + org.isAnon();
+    }
+}
@@ -0,0 +1,529 @@
+package io.rapidpro.surveyor.engine;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.nyaruka.goflow.mobile.Environment;
+import com.nyaruka.goflow.mobile.Hint;
+import com.nyaruka.goflow.mobile.Modifier;
+import com.nyaruka.goflow.mobile.MsgIn;
+import com.nyaruka.goflow.mobile.Resume;
+import com.nyaruka.goflow.mobile.SessionAssets;
+import com.nyaruka.goflow.mobile.Trigger;
+import com.nyaruka.goflow.mobile.Wait;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.data.Flow;
+import io.rapidpro.surveyor.data.Org;
+import io.rapidpro.surveyor.data.SessionJournal;
+import io.rapidpro.surveyor.data.Submission;
+import io.rapidpro.surveyor.data.SubmissionPersister;
+import io.rapidpro.surveyor.utils.JsonDelta;
+
+/**
+ * Hosts several runs of a flow at once, e.g. for different respondents in the same household,
+ * so that an enumerator can switch between them. All runs share a single session assets instance
+ * which is loaded once, so each additional run only costs its own session. All engine calls are
+ * made on the engine thread and results delivered to callbacks on the UI thread. The results of
+ * each sprint are written behind on the persister thread, so resuming a run never waits on disk.
+ */
+public class SessionManager {
+    /**
+     * How many inputs can be journaled before we journal the changes they made to a session
+     */
+    private static final int DELTA_INTERVAL = 10;
+
+    /**
+     * How many inputs can be journaled before we write a new checkpoint of a session
+     */
+    private static final int CHECKPOINT_INTERVAL = 50;
+
+    private final Org org;
+    private final Flow flow;
+    private final SubmissionPersister.Durability durability;
+
+    /**
+     * The session assets shared by all runs - only accessed on the engine thread
+     */
+    private SessionAssets assets;
+
+    private final List<Run> runs = new ArrayList<>();
+
+    private Run current;
+
+    /**
+     * Creates a new session manager for the given flow
+     *
+     * @param org  the org
+     * @param flow the flow
+     */
+    public SessionManager(Org org, Flow flow) {
+        this(org, flow, SubmissionPersister.Durability.GROUPED);
+    }
+
+    /**
+     * Creates a new session manager for the given flow
+     *
+     * @param org        the org
+     * @param flow       the flow
+     * @param durability the durability of each sprint once it's been saved
+     */
+    public SessionManager(Org org, Flow flow, SubmissionPersister.Durability durability) {
+        this.org = org;
+        this.flow = flow;
+        this.durability = durability;
+    }
+
+    /**
+     * A run of the flow, i.e. a session and the submission it is saved to
+     */
+    public static class Run {
+        private final Submission submission;
+        private final Session session;
+        private final SubmissionPersister persister;
+
+        /**
+         * The number of inputs journaled since the last checkpoint - only accessed on the engine thread
+         */
+        private int journaled = 0;
+
+        /**
+         * The number of inputs journaled since the session was last saved, as a checkpoint or as the
+         * changes made to it - only accessed on the engine thread
+         */
+        private int unsaved = 0;
+
+        /**
+         * The session as it was last saved, which the next changes are computed against - only
+         * accessed on the engine thread
+         */
+        private JsonElement saved;
+
+        /**
+         * Whether the session is waiting for input and the type of media it hints at, as of its
+         * last sprint, so that the UI thread never has to ask the engine
+         */
+        private volatile boolean waiting;
+        private volatile String hintType;
+
+        Run(Submission submission, Session session, SubmissionPersister.Durability durability) {
+            this.submission = submission;
+            this.session = session;
+            this.persister = new SubmissionPersister(submission, durability);
+        }
+
+        public Submission getSubmission() {
+            return submission;
+        }
+
+        /**
+         * Gets the session of this run, which should only be called into on the engine thread
+         *
+         * @return the session
+         */
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Gets whether the session was waiting for input after its last sprint
+         *
+         * @return true if session is waiting
+         */
+        public boolean isWaiting() {
+            return waiting;
+        }
+
+        /**
+         * Gets the type of media the session hinted at when it last waited, e.g. image
+         *
+         * @return the hint type or null if there was no hint
+         */
+        public String getHintType() {
+            return hintType;
+        }
+
+        /**
+         * Records the wait state of the session. Called on the engine thread.
+         */
+        private void captureWait() {
+            Wait wait = session.isWaiting() ? session.getWait() : null;
+            Hint hint = wait != null ? wait.hint() : null;
+
+            hintType = hint != null ? hint.type() : null;
+            waiting = wait != null;
+        }
+    }
+
+    /**
+     * Starts a new session saved to the given submission, and makes it the current run. If the
+     * session can't be started, the submission is deleted.
+     *
+     * @param submission the new submission
+     * @param callback   the callback (may be null)
+     * @return the future run and its first sprint
+     */
+    public Future<Pair<Run, Sprint>> start(final Submission submission, EngineExecutor.Callback<Pair<Run, Sprint>> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<Pair<Run, Sprint>>() {
+            @Override
+            public Pair<Run, Sprint> call() throws Exception {
+                try {
+                    return begin(submission);
+                } catch (Exception e) {
+                    // nothing of the run has been shown so there's nothing worth keeping
+                    submission.delete();
+                    throw e;
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Reads back the session of an existing submission, and makes it the current run. If the
+     * session was journaled, it's restored from its last checkpoint and the changes saved since,
+     * and any inputs journaled after those changes are run through it again, so it's as it was when
+     * the user last saw it. The restored session is then checkpointed so it doesn't need restoring
+     * again, which also starts journaling sessions saved before they were journaled.
+     *
+     * @param submission the incomplete submission
+     * @param callback   the callback (may be null)
+     * @return the future run
+     */
+    public Future<Run> open(final Submission submission, EngineExecutor.Callback<Run> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<Run>() {
+            @Override
+            public Run call() throws Exception {
+                List<SessionJournal.Input> unsaved = new ArrayList<>();
+                String json = submission.recoverSession(unsaved);
+                Session session = Engine.getInstance().readSession(getAssets(), json);
+
+                int replayed = 0;
+                for (SessionJournal.Input input : unsaved) {
+                    if (!session.isWaiting()) {
+                        break;
+                    }
+                    Sprint sprint = session.resume(createResume(input.getText(), input.getAttachment()));
+                    submission.saveNewModifiers(sprint.getModifiers());
+                    submission.saveNewEvents(sprint.getEvents());
+                    replayed++;
+                }
+                if (replayed > 0) {
+                    json = session.toJSON();
+                    Logger.d("Replayed " + replayed + " journaled inputs");
+                }
+
+                // we may have been killed after journaling the last sprint but before saving the session in full
+                if (session.isWaiting()) {
+                    submission.checkpointSession(json, durability == SubmissionPersister.Durability.SYNC);
+                } else {
+                    submission.saveSession(session);
+                }
+
+                Run run = add(submission, session);
+                run.saved = new JsonParser().parse(json);
+                run.captureWait();
+                return run;
+            }
+        }, callback);
+    }
+
+    /**
+     * Resumes the given run with an incoming message
+     *
+     * @param run        the run
+     * @param text       the message text
+     * @param attachment the message attachment (may be null)
+     * @param callback   the callback (may be null)
+     * @return the future sprint
+     */
+    public Future<Sprint> resume(final Run run, final String text, final String attachment, EngineExecutor.Callback<Sprint> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<Sprint>() {
+            @Override
+            public Sprint call() throws Exception {
+                Sprint sprint = run.getSession().resume(createResume(text, attachment));
+
+                saveSprint(run, sprint, text, attachment);
+                return sprint;
+            }
+        }, callback);
+    }
+
+    /**
+     * Reads the saved events of the given run, e.g. to rebuild its transcript after switching to it
+     *
+     * @param run      the run
+     * @param callback the callback (may be null)
+     * @return the future events
+     */
+    public Future<List<Event>> readEvents(final Run run, EngineExecutor.Callback<List<Event>> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<List<Event>>() {
+            @Override
+            public List<Event> call() throws Exception {
+                run.persister.drain();
+                return run.getSubmission().readEvents();
+            }
+        }, callback);
+    }
+
+    /**
+     * Completes the submission of the given run once everything saved to it has been written
+     *
+     * @param run      the run
+     * @param callback the callback (may be null)
+     * @return the future
+     */
+    public Future<Void> complete(final Run run, EngineExecutor.Callback<Void> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                run.persister.close();
+                run.getSubmission().complete();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes the submission of the given run, abandoning anything saved to it not yet written
+     *
+     * @param run the run
+     * @return the future
+     */
+    public Future<Void> discard(final Run run) {
+        return EngineExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                run.persister.abandon();
+                run.getSubmission().delete();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes the given submission once any run queued to be started for it has started, e.g. if
+     * the user discards a run before it's been shown, and stops hosting that run
+     *
+     * @param submission the submission
+     * @param callback   the callback (may be null)
+     * @return the future
+     */
+    public Future<Void> discard(final Submission submission, EngineExecutor.Callback<Void> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (Run run : getRuns()) {
+                    if (run.getSubmission() == submission) {
+                        run.persister.abandon();
+                        remove(run);
+                    }
+                }
+                submission.delete();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Writes everything saved to all runs, e.g. before the app is paused and could be killed. This
+     * is queued on the engine thread, so sprints of calls queued before it are included, and fails
+     * if any run couldn't be written. Runs with inputs journaled since their sessions were last
+     * saved are checkpointed first, so they won't need those inputs run through them again.
+     *
+     * @param callback the callback (may be null)
+     * @return the future
+     */
+    public Future<Void> drain(EngineExecutor.Callback<Void> callback) {
+        return EngineExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                IOException failure = null;
+
+                for (Run run : getRuns()) {
+                    try {
+                        if (run.unsaved > 0 && run.isWaiting()) {
+                            checkpoint(run, run.getSession().toJSON());
+                        }
+                        run.persister.drain();
+                    } catch (IOException e) {
+                        Logger.e("Unable to write submission " + run.getSubmission().getUuid(), e);
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Makes the given run the current run
+     *
+     * @param run the run
+     */
+    public synchronized void switchTo(Run run) {
+        if (!runs.contains(run)) {
+            throw new IllegalArgumentException("Run is not hosted by this manager");
+        }
+        current = run;
+    }
+
+    /**
+     * Stops hosting the given run, e.g. once its submission has been completed or discarded. If it
+     * was the current run, the most recently added remaining run becomes the current run.
+     *
+     * @param run the run
+     */
+    public synchronized void remove(Run run) {
+        runs.remove(run);
+
+        if (current == run) {
+            current = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        }
+    }
+
+    /**
+     * Gets the current run
+     *
+     * @return the run or null if there are no runs
+     */
+    public synchronized Run getCurrent() {
+        return current;
+    }
+
+    /**
+     * Gets all hosted runs in the order they were added
+     *
+     * @return the runs
+     */
+    public synchronized List<Run> getRuns() {
+        return new ArrayList<>(runs);
+    }
+
+    /**
+     * Triggers a new session with a new contact, so that respondents aren't merged into one, and
+     * saves its first sprint to the given submission, no longer hosting the run if that fails.
+     * Called on the engine thread.
+     */
+    private Pair<Run, Sprint> begin(Submission submission) throws IOException, EngineException {
+        Run run = null;
+        try {
+            SessionAssets assets = getAssets();
+            Environment env = SessionAssetsCache.getInstance().getEnvironment(org);
+            Trigger trigger = Engine.createManualTrigger(env, Contact.createEmpty(assets), flow.toReference());
+            Pair<Session, Sprint> ss = Engine.getInstance().newSession(assets, trigger);
+
+            run = add(submission, ss.getLeft());
+            saveSprint(run, ss.getRight(), null, null);
+            return new ImmutablePair<>(run, ss.getRight());
+
+        } catch (IOException | EngineException | RuntimeException e) {
+            if (run != null) {
+                run.persister.abandon();
+                remove(run);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the shared session assets, loading them if this is the first run. Called on the engine thread.
+     */
+    private SessionAssets getAssets() throws EngineException, IOException {
+        if (assets == null) {
+            assets = SessionAssetsCache.getInstance().get(org, flow);
+        }
+        return assets;
+    }
+
+    private synchronized Run add(Submission submission, Session session) {
+        Run run = new Run(submission, session, durability);
+        runs.add(run);
+        current = run;
+
+        Logger.d("Hosting " + runs.size() + " runs of flow " + flow.getUuid());
+        return run;
+    }
+
+    /**
+     * Queues the new events and modifiers from interaction with the flow engine to be written, along
+     * with the input which resumed the session. The session itself is only serialized when it's
+     * due to be saved - in full if it needs a checkpoint or has completed, otherwise as the change
+     * made to it since it was last saved. Called on the engine thread.
+     */
+    private static void saveSprint(Run run, Sprint sprint, String text, String attachment) throws IOException, EngineException {
+        List<String> modifiers = new ArrayList<>(sprint.getModifiers().size());
+        for (Modifier mod : sprint.getModifiers()) {
+            modifiers.add(mod.payload());
+        }
+        List<String> events = new ArrayList<>(sprint.getEvents().size());
+        for (Event event : sprint.getEvents()) {
+            events.add(event.payload());
+        }
+
+        if (text != null) {
+            run.journaled++;
+            run.unsaved++;
+        }
+
+        Session session = run.getSession();
+        String completed = null, checkpointed = null, delta = null;
+
+        if (!session.isWaiting()) {
+            // the full session is saved once it has completed so that it can be submitted
+            completed = session.toJSON();
+        } else if (text == null || run.journaled >= CHECKPOINT_INTERVAL) {
+            checkpointed = session.toJSON();
+        } else if (run.unsaved >= DELTA_INTERVAL) {
+            JsonElement current = new JsonParser().parse(session.toJSON());
+            JsonElement diff = JsonDelta.diff(run.saved, current);
+            delta = (diff != null ? diff : JsonNull.INSTANCE).toString();
+            run.saved = current;
+            run.unsaved = 0;
+        }
+
+        if (checkpointed != null) {
+            run.saved = new JsonParser().parse(checkpointed);
+            run.journaled = 0;
+            run.unsaved = 0;
+        }
+
+        SessionJournal.Input input = text != null ? new SessionJournal.Input(text, attachment, modifiers, events, delta) : null;
+
+        // the input is journaled before the checkpoint which includes it
+        run.persister.save(input, modifiers, events, checkpointed, completed);
+        run.captureWait();
+
+        Logger.d("Queued new events and modifiers after engine sprint");
+    }
+
+    /**
+     * Queues a checkpoint of the session of the given run. Called on the engine thread.
+     */
+    private static void checkpoint(Run run, String json) throws IOException {
+        run.persister.save(null, Collections.<String>emptyList(), Collections.<String>emptyList(), json, null);
+        run.saved = new JsonParser().parse(json);
+        run.journaled = 0;
+        run.unsaved = 0;
+    }
+
+    private static Resume createResume(String text, String attachment) {
+        MsgIn msg = attachment != null ? Engine.createMsgIn(text, attachment) : Engine.createMsgIn(text);
+        return Engine.createMsgResume(null, null, msg);
+    }
+}
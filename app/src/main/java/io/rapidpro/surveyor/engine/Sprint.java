@@ -1,6 +1,5 @@
 package io.rapidpro.surveyor.engine;
 
-import com.nyaruka.goflow.mobile.Event;
 import com.nyaruka.goflow.mobile.EventSlice;
 import com.nyaruka.goflow.mobile.Modifier;
 import com.nyaruka.goflow.mobile.ModifierSlice;
@@ -9,38 +8,57 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Sprint {
+    private com.nyaruka.goflow.mobile.Sprint target;
+
     private List<Modifier> modifiers;
 
     private List<Event> events;
 
-    private Sprint(List<Modifier> modifiers, List<Event> events) {
-        this.modifiers = modifiers;
-        this.events = events;
+    private Sprint(com.nyaruka.goflow.mobile.Sprint target) {
+        this.target = target;
     }
 
     static Sprint fromNative(com.nyaruka.goflow.mobile.Sprint s) {
-        return new Sprint(sliceToList(s.modifiers()), sliceToList(s.events()));
+        return new Sprint(s);
     }
 
-    public List<Modifier> getModifiers() {
+    /**
+     * Gets the modifiers in this sprint, copying them from the engine on first access
+     *
+     * @return the modifiers
+     */
+    public synchronized List<Modifier> getModifiers() {
+        if (modifiers == null) {
+            modifiers = sliceToList(target.modifiers());
+        }
         return modifiers;
     }
 
-    public List<Event> getEvents() {
+    /**
+     * Gets the events in this sprint, fetching their payloads from the engine on first access
+     *
+     * @return the events
+     */
+    public synchronized List<Event> getEvents() {
+        if (events == null) {
+            events = sliceToList(target.events());
+        }
         return events;
     }
 
     private static List<Event> sliceToList(EventSlice slice) {
-        List<Event> list = new ArrayList<>((int) slice.length());
-        for (int e = 0; e < slice.length(); e++) {
-            list.add(slice.get(e));
+        int length = (int) slice.length();
+        List<Event> list = new ArrayList<>(length);
+        for (int e = 0; e < length; e++) {
+            list.add(Event.fromNative(slice.get(e)));
         }
         return list;
     }
 
     private static List<Modifier> sliceToList(ModifierSlice slice) {
-        List<Modifier> list = new ArrayList<>((int) slice.length());
-        for (int e = 0; e < slice.length(); e++) {
+        int length = (int) slice.length();
+        List<Modifier> list = new ArrayList<>(length);
+        for (int e = 0; e < length; e++) {
             list.add(slice.get(e));
         }
         return list;
@@ -2,15 +2,22 @@ package io.rapidpro.surveyor.fragment;
 
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.preference.CheckBoxPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.util.Patterns;
 import android.widget.Toast;
 
+import java.io.IOException;
+
+import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.R;
 import io.rapidpro.surveyor.SurveyorApplication;
 import io.rapidpro.surveyor.SurveyorPreferences;
 import io.rapidpro.surveyor.activity.BaseActivity;
+import io.rapidpro.surveyor.data.SQLiteSubmissionStore;
+import io.rapidpro.surveyor.task.MigrateSubmissionsTask;
+import io.rapidpro.surveyor.ui.BlockingProgress;
 
 /**
  * Fragment to show our settings
@@ -42,6 +49,66 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
                 return true;
             }
         });
+
+        // submissions can be moved to a database but not back again
+        final CheckBoxPreference database = (CheckBoxPreference) findPreference(SurveyorPreferences.SUBMISSIONS_DATABASE);
+        database.setEnabled(!database.isChecked());
+        database.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                if ((Boolean) newValue) {
+                    migrateSubmissions(database);
+                }
+                // only checked once the migration has completed
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Moves existing submissions to a database in the background and then switches to it
+     */
+    private void migrateSubmissions(final CheckBoxPreference database) {
+        final BlockingProgress progressModal = new BlockingProgress(getActivity(), R.string.one_moment, R.string.migrate_submissions);
+        progressModal.show();
+
+        SQLiteSubmissionStore store;
+        try {
+            store = getSurveyor().createSubmissionsDatabase();
+        } catch (IOException e) {
+            Logger.e("Unable to create submissions database", e);
+            progressModal.dismiss();
+            Toast.makeText(getActivity(), getString(R.string.error_submissions_migrate), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        new MigrateSubmissionsTask(new MigrateSubmissionsTask.Listener() {
+            @Override
+            public void onProgress(int percent) {
+                progressModal.setProgress(percent);
+            }
+
+            @Override
+            public void onComplete(SQLiteSubmissionStore migrated) {
+                try {
+                    getSurveyor().setSubmissionStore(migrated);
+                    database.setChecked(true);
+                    database.setEnabled(false);
+                } catch (IOException e) {
+                    Logger.e("Unable to switch to submissions database", e);
+                    Toast.makeText(getActivity(), getString(R.string.error_submissions_migrate), Toast.LENGTH_SHORT).show();
+                }
+
+                progressModal.dismiss();
+            }
+
+            @Override
+            public void onFailure() {
+                progressModal.dismiss();
+
+                Toast.makeText(getActivity(), getString(R.string.error_submissions_migrate), Toast.LENGTH_SHORT).show();
+            }
+        }).execute(store);
     }
 
     @Override
@@ -62,6 +129,9 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(SurveyorPreferences.HOST)) {
             getSurveyor().onTembaHostChanged();
+        } else if (key.equals(SurveyorPreferences.STORAGE_QUOTA)) {
+            getSurveyor().onStorageQuotaChanged();
+            getSurveyor().trimStorage();
         }
     }
 
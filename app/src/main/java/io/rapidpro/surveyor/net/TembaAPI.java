@@ -5,9 +5,7 @@ import com.google.gson.JsonObject;
 import java.util.List;
 import java.util.Map;
 
-import io.rapidpro.surveyor.net.requests.SubmissionPayload;
 import io.rapidpro.surveyor.net.responses.Boundary;
-import io.rapidpro.surveyor.net.responses.Definitions;
 import io.rapidpro.surveyor.net.responses.Field;
 import io.rapidpro.surveyor.net.responses.Flow;
 import io.rapidpro.surveyor.net.responses.Group;
@@ -15,6 +13,7 @@ import io.rapidpro.surveyor.net.responses.Org;
 import io.rapidpro.surveyor.net.responses.PaginatedResults;
 import io.rapidpro.surveyor.net.responses.TokenResults;
 import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.FormUrlEncoded;
@@ -24,6 +23,7 @@ import retrofit2.http.Multipart;
 import retrofit2.http.POST;
 import retrofit2.http.PartMap;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 public interface TembaAPI {
 
@@ -41,8 +41,9 @@ public interface TembaAPI {
             @Query("cursor") String cursor
     );
 
+    @Streaming
     @GET("/api/v2/definitions.json")
-    Call<Definitions> getDefinitions(
+    Call<ResponseBody> getDefinitions(
             @Header("Authorization") String token,
             @Query("flow") List<String> flowUUIDs,
             @Query("dependencies") String dependencies
@@ -81,6 +82,6 @@ public interface TembaAPI {
     @POST("/mr/surveyor/submit")
     Call<JsonObject> submit(
             @Header("Authorization") String token,
-            @Body SubmissionPayload submission
+            @Body RequestBody submission
     );
 }
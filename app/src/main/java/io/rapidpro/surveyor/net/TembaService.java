@@ -5,12 +5,16 @@ import android.net.Uri;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -23,7 +27,6 @@ import io.rapidpro.surveyor.SurveyorApplication;
 import io.rapidpro.surveyor.engine.Engine;
 import io.rapidpro.surveyor.net.requests.SubmissionPayload;
 import io.rapidpro.surveyor.net.responses.Boundary;
-import io.rapidpro.surveyor.net.responses.Definitions;
 import io.rapidpro.surveyor.net.responses.Field;
 import io.rapidpro.surveyor.net.responses.Flow;
 import io.rapidpro.surveyor.net.responses.Group;
@@ -35,7 +38,9 @@ import io.rapidpro.surveyor.utils.RawJson;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
+import okio.BufferedSink;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -166,6 +171,13 @@ public class TembaService {
         });
     }
 
+    /**
+     * Receives flow definitions one at a time as they're read from a response
+     */
+    public interface DefinitionHandler {
+        void onDefinition(RawJson definition) throws IOException;
+    }
+
     /**
      * Gets full definitions for the given flows
      *
@@ -173,20 +185,59 @@ public class TembaService {
      * @param flows the list of flows
      */
     public List<RawJson> getDefinitions(final String token, final List<Flow> flows) throws TembaException {
+        final List<RawJson> definitions = new ArrayList<>(flows.size());
+
+        streamDefinitions(token, flows, new DefinitionHandler() {
+            @Override
+            public void onDefinition(RawJson definition) {
+                definitions.add(definition);
+            }
+        });
+
+        return definitions;
+    }
+
+    /**
+     * Gets full definitions for the given flows, passing each to the given handler as soon as it's
+     * been read from the response, so that only one definition is ever held in memory
+     *
+     * @param token   the authentication token
+     * @param flows   the list of flows
+     * @param handler the handler of each definition
+     */
+    public void streamDefinitions(final String token, final List<Flow> flows, DefinitionHandler handler) throws TembaException {
         // gather up flow UUIDs
         final List<String> flowUUIDs = new ArrayList<>(flows.size());
         for (Flow flow : flows) {
             flowUUIDs.add(flow.getUuid());
         }
 
+        TypeAdapter<RawJson> adapter = JsonUtils.getGson().getAdapter(RawJson.class);
+
         try {
-            Response<Definitions> response = api.getDefinitions(asAuth(token), flowUUIDs, "none").execute();
+            Response<ResponseBody> response = api.getDefinitions(asAuth(token), flowUUIDs, "none").execute();
             checkResponse(response);
 
-            Definitions definitions = response.body();
-            return definitions.getFlows();
+            JsonReader reader = new JsonReader(response.body().charStream());
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("flows")) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            handler.onDefinition(adapter.read(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } finally {
+                reader.close();
+            }
 
-        } catch (IOException e) {
+        } catch (IOException | IllegalStateException e) {
             throw new TembaException("Unable to fetch definitions", e);
         }
     }
@@ -199,16 +250,35 @@ public class TembaService {
      * @return the new media URL
      */
     public String uploadMedia(String token, Uri uri) throws TembaException {
-        String uriString = uri.toString();
-        String baseName = FilenameUtils.getBaseName(uriString);
-        String extension = FilenameUtils.getExtension(uriString);
+        try {
+            InputStream stream = SurveyorApplication.get().getContentResolver().openInputStream(uri);
+            try {
+                return uploadMedia(token, uri.toString(), stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            throw new TembaException("Error uploading media", e);
+        }
+    }
+
+    /**
+     * Uploads a media file read from a stream
+     *
+     * @param token    the authentication token
+     * @param fileName the file name, whose extension is the media type
+     * @param stream   the media data
+     * @return the new media URL
+     */
+    public String uploadMedia(String token, String fileName, InputStream stream) throws TembaException {
+        String baseName = FilenameUtils.getBaseName(fileName);
+        String extension = FilenameUtils.getExtension(fileName);
 
         // build multipart request
         Map<String, RequestBody> map = new HashMap<>();
         map.put("extension", RequestBody.create(MediaType.parse("text/plain"), extension));
 
         try {
-            InputStream stream = SurveyorApplication.get().getContentResolver().openInputStream(uri);
             byte[] bytes = IOUtils.toByteArray(stream);
 
             RequestBody fileBody = RequestBody.create(MediaType.parse("multipart/form-data"), bytes);
@@ -230,9 +300,24 @@ public class TembaService {
      * @param token      the authentication token
      * @param submission the payload
      */
-    public void submit(String token, SubmissionPayload submission) throws TembaException {
+    public void submit(String token, final SubmissionPayload submission) throws TembaException {
+        // write the payload straight to the connection rather than serializing it in memory first
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("application/json; charset=UTF-8");
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                Writer writer = new OutputStreamWriter(sink.outputStream(), "UTF-8");
+                submission.writeTo(writer);
+                writer.flush();
+            }
+        };
+
         try {
-            Response<JsonObject> result = api.submit(asAuth(token), submission).execute();
+            Response<JsonObject> result = api.submit(asAuth(token), body).execute();
             checkResponse(result);
 
         } catch (IOException e) {
@@ -1,29 +1,90 @@
 package io.rapidpro.surveyor.net.requests;
 
-import java.util.List;
+import com.google.gson.stream.JsonWriter;
 
-import io.rapidpro.surveyor.utils.RawJson;
+import org.apache.commons.lang3.StringUtils;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A submission to be sent, which is written straight from storage so that its modifiers and
+ * events never all have to be held in memory
+ */
 public class SubmissionPayload {
-    private RawJson session;
-    private List<RawJson> modifiers;
-    private List<RawJson> events;
+    private String session;
+    private RecordSource modifiers;
+    private RecordSource events;
+    private String[] oldUrls;
+    private String[] newUrls;
+
+    /**
+     * A stream of JSON records, e.g. a submission's events
+     */
+    public interface Records extends Closeable {
+        /**
+         * Reads the next record
+         *
+         * @return the record or null if there are no more
+         */
+        String next() throws IOException;
+    }
 
-    public SubmissionPayload(RawJson session, List<RawJson> modifiers, List<RawJson> events) {
+    /**
+     * Opens a new stream of JSON records each time the payload is written
+     */
+    public interface RecordSource {
+        Records open() throws IOException;
+    }
+
+    /**
+     * Creates a new payload
+     *
+     * @param session   the session JSON
+     * @param modifiers the modifiers
+     * @param events    the events
+     * @param oldUrls   local media URLs to replace in the session and events
+     * @param newUrls   the uploaded media URLs to replace them with
+     */
+    public SubmissionPayload(String session, RecordSource modifiers, RecordSource events, String[] oldUrls, String[] newUrls) {
         this.session = session;
         this.modifiers = modifiers;
         this.events = events;
+        this.oldUrls = oldUrls;
+        this.newUrls = newUrls;
     }
 
-    public RawJson getSession() {
-        return session;
+    /**
+     * Writes this payload as JSON
+     *
+     * @param writer the writer
+     */
+    public void writeTo(Writer writer) throws IOException {
+        JsonWriter out = new JsonWriter(writer);
+        out.beginObject();
+        out.name("session").jsonValue(StringUtils.replaceEach(session, oldUrls, newUrls));
+        out.name("modifiers");
+        writeRecords(out, modifiers, false);
+        out.name("events");
+        writeRecords(out, events, true);
+        out.endObject();
+        out.flush();
     }
 
-    public List<RawJson> getModifiers() {
-        return modifiers;
-    }
+    private void writeRecords(JsonWriter out, RecordSource source, boolean replaceUrls) throws IOException {
+        out.beginArray();
+
+        Records records = source.open();
+        try {
+            String record;
+            while ((record = records.next()) != null) {
+                out.jsonValue(replaceUrls ? StringUtils.replaceEach(record, oldUrls, newUrls) : record);
+            }
+        } finally {
+            records.close();
+        }
 
-    public List<RawJson> getEvents() {
-        return events;
+        out.endArray();
     }
 }
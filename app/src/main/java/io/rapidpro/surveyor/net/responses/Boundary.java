@@ -1,6 +1,13 @@
 package io.rapidpro.surveyor.net.responses;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.utils.JsonUtils;
 
 public class Boundary {
     @SerializedName("osm_id")
@@ -44,5 +51,88 @@ public class Boundary {
         public String getName() {
             return name;
         }
+
+        /**
+         * Type adapter to tell Gson how to read and write boundary references without reflection
+         */
+        public static class Adapter extends TypeAdapter<Reference> {
+            @Override
+            public void write(JsonWriter out, Reference reference) throws IOException {
+                out.beginObject();
+                out.name("osm_id").value(reference.osmID);
+                out.name("name").value(reference.name);
+                out.endObject();
+            }
+
+            @Override
+            public Reference read(JsonReader in) throws IOException {
+                Reference reference = new Reference();
+
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "osm_id":
+                            reference.osmID = JsonUtils.nextString(in);
+                            break;
+                        case "name":
+                            reference.name = JsonUtils.nextString(in);
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+                return reference;
+            }
+        }
+    }
+
+    /**
+     * Type adapter to tell Gson how to read and write boundaries without reflection
+     */
+    public static class Adapter extends TypeAdapter<Boundary> {
+        private final TypeAdapter<Reference> referenceAdapter = new Reference.Adapter().nullSafe();
+
+        @Override
+        public void write(JsonWriter out, Boundary boundary) throws IOException {
+            out.beginObject();
+            out.name("osm_id").value(boundary.osmID);
+            out.name("name").value(boundary.name);
+            referenceAdapter.write(out.name("parent"), boundary.parent);
+            out.name("level").value(boundary.level);
+            out.name("aliases");
+            JsonUtils.writeStringArray(out, boundary.aliases);
+            out.endObject();
+        }
+
+        @Override
+        public Boundary read(JsonReader in) throws IOException {
+            Boundary boundary = new Boundary();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "osm_id":
+                        boundary.osmID = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        boundary.name = JsonUtils.nextString(in);
+                        break;
+                    case "parent":
+                        boundary.parent = referenceAdapter.read(in);
+                        break;
+                    case "level":
+                        boundary.level = JsonUtils.nextInt(in, boundary.level);
+                        break;
+                    case "aliases":
+                        boundary.aliases = JsonUtils.nextStringArray(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return boundary;
+        }
     }
 }
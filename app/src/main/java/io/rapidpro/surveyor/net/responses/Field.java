@@ -1,6 +1,13 @@
 package io.rapidpro.surveyor.net.responses;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.utils.JsonUtils;
 
 public class Field {
     private String key;
@@ -20,4 +27,42 @@ public class Field {
     public String getValueType() {
         return valueType;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write fields without reflection
+     */
+    public static class Adapter extends TypeAdapter<Field> {
+        @Override
+        public void write(JsonWriter out, Field field) throws IOException {
+            out.beginObject();
+            out.name("key").value(field.key);
+            out.name("label").value(field.label);
+            out.name("value_type").value(field.valueType);
+            out.endObject();
+        }
+
+        @Override
+        public Field read(JsonReader in) throws IOException {
+            Field field = new Field();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "key":
+                        field.key = JsonUtils.nextString(in);
+                        break;
+                    case "label":
+                        field.label = JsonUtils.nextString(in);
+                        break;
+                    case "value_type":
+                        field.valueType = JsonUtils.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return field;
+        }
+    }
 }
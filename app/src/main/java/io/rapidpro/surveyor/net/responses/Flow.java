@@ -1,5 +1,13 @@
 package io.rapidpro.surveyor.net.responses;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.utils.JsonUtils;
+
 public class Flow {
     private String uuid;
     private String name;
@@ -26,4 +34,50 @@ public class Flow {
     public int getExpires() {
         return expires;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write flows without reflection
+     */
+    public static class Adapter extends TypeAdapter<Flow> {
+        @Override
+        public void write(JsonWriter out, Flow flow) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(flow.uuid);
+            out.name("name").value(flow.name);
+            out.name("type").value(flow.type);
+            out.name("archived").value(flow.archived);
+            out.name("expires").value(flow.expires);
+            out.endObject();
+        }
+
+        @Override
+        public Flow read(JsonReader in) throws IOException {
+            Flow flow = new Flow();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "uuid":
+                        flow.uuid = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        flow.name = JsonUtils.nextString(in);
+                        break;
+                    case "type":
+                        flow.type = JsonUtils.nextString(in);
+                        break;
+                    case "archived":
+                        flow.archived = JsonUtils.nextBoolean(in, flow.archived);
+                        break;
+                    case "expires":
+                        flow.expires = JsonUtils.nextInt(in, flow.expires);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return flow;
+        }
+    }
 }
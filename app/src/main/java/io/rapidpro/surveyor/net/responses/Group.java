@@ -1,5 +1,13 @@
 package io.rapidpro.surveyor.net.responses;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.utils.JsonUtils;
+
 public class Group {
     private String uuid;
     private String name;
@@ -16,4 +24,42 @@ public class Group {
     public String getQuery() {
         return query;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write groups without reflection
+     */
+    public static class Adapter extends TypeAdapter<Group> {
+        @Override
+        public void write(JsonWriter out, Group group) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(group.uuid);
+            out.name("name").value(group.name);
+            out.name("query").value(group.query);
+            out.endObject();
+        }
+
+        @Override
+        public Group read(JsonReader in) throws IOException {
+            Group group = new Group();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "uuid":
+                        group.uuid = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        group.name = JsonUtils.nextString(in);
+                        break;
+                    case "query":
+                        group.query = JsonUtils.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return group;
+        }
+    }
 }
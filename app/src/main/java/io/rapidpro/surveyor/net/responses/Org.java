@@ -1,6 +1,13 @@
 package io.rapidpro.surveyor.net.responses;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.utils.JsonUtils;
 
 public class Org {
     private String uuid;
@@ -52,4 +59,63 @@ public class Org {
     public boolean isAnon() {
         return anon;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write orgs without reflection
+     */
+    public static class Adapter extends TypeAdapter<Org> {
+        @Override
+        public void write(JsonWriter out, Org org) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(org.uuid);
+            out.name("name").value(org.name);
+            out.name("country").value(org.country);
+            out.name("languages");
+            JsonUtils.writeStringArray(out, org.languages);
+            out.name("primary_language").value(org.primaryLanguage);
+            out.name("timezone").value(org.timezone);
+            out.name("date_style").value(org.dateStyle);
+            out.name("anon").value(org.anon);
+            out.endObject();
+        }
+
+        @Override
+        public Org read(JsonReader in) throws IOException {
+            Org org = new Org();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "uuid":
+                        org.uuid = JsonUtils.nextString(in);
+                        break;
+                    case "name":
+                        org.name = JsonUtils.nextString(in);
+                        break;
+                    case "country":
+                        org.country = JsonUtils.nextString(in);
+                        break;
+                    case "languages":
+                        org.languages = JsonUtils.nextStringArray(in);
+                        break;
+                    case "primary_language":
+                        org.primaryLanguage = JsonUtils.nextString(in);
+                        break;
+                    case "timezone":
+                        org.timezone = JsonUtils.nextString(in);
+                        break;
+                    case "date_style":
+                        org.dateStyle = JsonUtils.nextString(in);
+                        break;
+                    case "anon":
+                        org.anon = JsonUtils.nextBoolean(in, org.anon);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return org;
+        }
+    }
 }
@@ -2,8 +2,20 @@ package io.rapidpro.surveyor.net.responses;
 
 import android.net.Uri;
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.List;
 
+import io.rapidpro.surveyor.utils.JsonUtils;
+
 public class PaginatedResults<T> {
     private String next;
     private String previous;
@@ -29,4 +41,70 @@ public class PaginatedResults<T> {
     public List<T> getResults() {
         return results;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write pages of results without reflection
+     */
+    public static class Adapter<T> extends TypeAdapter<PaginatedResults<T>> {
+        private final TypeAdapter<T> resultAdapter;
+
+        public Adapter(TypeAdapter<T> resultAdapter) {
+            this.resultAdapter = resultAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, PaginatedResults<T> page) throws IOException {
+            out.beginObject();
+            out.name("next").value(page.next);
+            out.name("previous").value(page.previous);
+            out.name("results");
+            JsonUtils.writeList(out, page.results, resultAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public PaginatedResults<T> read(JsonReader in) throws IOException {
+            PaginatedResults<T> page = new PaginatedResults<>();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "next":
+                        page.next = JsonUtils.nextString(in);
+                        break;
+                    case "previous":
+                        page.previous = JsonUtils.nextString(in);
+                        break;
+                    case "results":
+                        page.results = JsonUtils.nextList(in, resultAdapter);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return page;
+        }
+    }
+
+    /**
+     * Creates adapters for pages of each type of result, using the adapter of that type
+     */
+    public static class AdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <A> TypeAdapter<A> create(Gson gson, TypeToken<A> type) {
+            if (type.getRawType() != PaginatedResults.class) {
+                return null;
+            }
+
+            Type resultType = Object.class;
+            if (type.getType() instanceof ParameterizedType) {
+                resultType = ((ParameterizedType) type.getType()).getActualTypeArguments()[0];
+            }
+
+            TypeAdapter<?> resultAdapter = gson.getAdapter(TypeToken.get(resultType));
+            return (TypeAdapter<A>) new Adapter<>(resultAdapter).nullSafe();
+        }
+    }
 }
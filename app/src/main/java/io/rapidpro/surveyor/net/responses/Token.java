@@ -2,6 +2,14 @@ package io.rapidpro.surveyor.net.responses;
 
 import android.net.UrlQuerySanitizer;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.rapidpro.surveyor.utils.JsonUtils;
+
 public class Token {
     private String token;
     private OrgReference org;
@@ -54,5 +62,75 @@ public class Token {
         public String getName() {
             return name;
         }
+
+        /**
+         * Type adapter to tell Gson how to read and write org references without reflection
+         */
+        public static class Adapter extends TypeAdapter<OrgReference> {
+            @Override
+            public void write(JsonWriter out, OrgReference org) throws IOException {
+                out.beginObject();
+                out.name("uuid").value(org.uuid);
+                out.name("name").value(org.name);
+                out.endObject();
+            }
+
+            @Override
+            public OrgReference read(JsonReader in) throws IOException {
+                OrgReference org = new OrgReference();
+
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "uuid":
+                            org.uuid = JsonUtils.nextString(in);
+                            break;
+                        case "name":
+                            org.name = JsonUtils.nextString(in);
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+                return org;
+            }
+        }
+    }
+
+    /**
+     * Type adapter to tell Gson how to read and write tokens without reflection
+     */
+    public static class Adapter extends TypeAdapter<Token> {
+        private final TypeAdapter<OrgReference> orgAdapter = new OrgReference.Adapter().nullSafe();
+
+        @Override
+        public void write(JsonWriter out, Token token) throws IOException {
+            out.beginObject();
+            out.name("token").value(token.token);
+            orgAdapter.write(out.name("org"), token.org);
+            out.endObject();
+        }
+
+        @Override
+        public Token read(JsonReader in) throws IOException {
+            Token token = new Token();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "token":
+                        token.token = JsonUtils.nextString(in);
+                        break;
+                    case "org":
+                        token.org = orgAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return token;
+        }
     }
 }
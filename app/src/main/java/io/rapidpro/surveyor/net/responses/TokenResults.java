@@ -1,7 +1,14 @@
 package io.rapidpro.surveyor.net.responses;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.List;
 
+import io.rapidpro.surveyor.utils.JsonUtils;
+
 public class TokenResults {
 
     private List<Token> tokens;
@@ -22,4 +29,37 @@ public class TokenResults {
         }
         return raw;
     }
+
+    /**
+     * Type adapter to tell Gson how to read and write token results without reflection
+     */
+    public static class Adapter extends TypeAdapter<TokenResults> {
+        private final TypeAdapter<Token> tokenAdapter = new Token.Adapter().nullSafe();
+
+        @Override
+        public void write(JsonWriter out, TokenResults results) throws IOException {
+            out.beginObject();
+            out.name("tokens");
+            JsonUtils.writeList(out, results.tokens, tokenAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public TokenResults read(JsonReader in) throws IOException {
+            TokenResults results = new TokenResults();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "tokens":
+                        results.tokens = JsonUtils.nextList(in, tokenAdapter);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return results;
+        }
+    }
 }
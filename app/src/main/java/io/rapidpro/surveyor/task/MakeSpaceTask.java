@@ -0,0 +1,52 @@
+package io.rapidpro.surveyor.task;
+
+import android.os.AsyncTask;
+
+import java.util.Set;
+
+import io.rapidpro.surveyor.data.StorageManager;
+
+/**
+ * Task to make room on the device for something, evicting data if there isn't already room
+ */
+public class MakeSpaceTask extends AsyncTask<Void, Void, Boolean> {
+
+    private StorageManager storage;
+    private long bytes;
+    private Set<String> activeOrgs;
+    private Listener listener;
+
+    /**
+     * Creates a new task
+     *
+     * @param storage    the storage manager
+     * @param bytes      the size in bytes to make room for
+     * @param activeOrgs the UUIDs of the orgs the user has access to, or null if that isn't known
+     * @param listener   the listener
+     */
+    public MakeSpaceTask(StorageManager storage, long bytes, Set<String> activeOrgs, Listener listener) {
+        this.storage = storage;
+        this.bytes = bytes;
+        this.activeOrgs = activeOrgs;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        return storage.ensureSpaceFor(bytes, activeOrgs);
+    }
+
+    /**
+     * @see AsyncTask#onPostExecute(Object)
+     */
+    @Override
+    protected void onPostExecute(Boolean hasSpace) {
+        super.onPostExecute(hasSpace);
+
+        listener.onComplete(hasSpace);
+    }
+
+    public interface Listener {
+        void onComplete(boolean hasSpace);
+    }
+}
@@ -0,0 +1,71 @@
+package io.rapidpro.surveyor.task;
+
+import android.os.AsyncTask;
+
+import io.rapidpro.surveyor.Logger;
+import io.rapidpro.surveyor.data.SQLiteSubmissionStore;
+
+/**
+ * Task to move submissions from the directory layout into a database
+ */
+public class MigrateSubmissionsTask extends AsyncTask<SQLiteSubmissionStore, Integer, SQLiteSubmissionStore> {
+
+    private Listener listener;
+    private boolean failed;
+
+    public MigrateSubmissionsTask(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    protected SQLiteSubmissionStore doInBackground(SQLiteSubmissionStore... args) {
+        SQLiteSubmissionStore store = args[0];
+
+        try {
+            store.migrate(new SQLiteSubmissionStore.MigrationProgress() {
+                @Override
+                public void reportProgress(int percent) {
+                    publishProgress(percent);
+                }
+            });
+
+        } catch (Exception e) {
+            Logger.e("Unable to migrate submissions", e);
+            this.failed = true;
+        }
+
+        return store;
+    }
+
+    /**
+     * @see AsyncTask#onProgressUpdate(Object[])
+     */
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        super.onProgressUpdate(values);
+
+        listener.onProgress(values[0]);
+    }
+
+    /**
+     * @see AsyncTask#onPostExecute(Object)
+     */
+    @Override
+    protected void onPostExecute(SQLiteSubmissionStore store) {
+        super.onPostExecute(store);
+
+        if (this.failed) {
+            this.listener.onFailure();
+        } else {
+            this.listener.onComplete(store);
+        }
+    }
+
+    public interface Listener {
+        void onProgress(int percent);
+
+        void onComplete(SQLiteSubmissionStore store);
+
+        void onFailure();
+    }
+}
@@ -3,6 +3,7 @@ package io.rapidpro.surveyor.task;
 import android.os.AsyncTask;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import io.rapidpro.surveyor.Logger;
 import io.rapidpro.surveyor.data.Submission;
@@ -11,21 +12,31 @@ import io.rapidpro.surveyor.net.TembaException;
 /**
  * Task for sending submissions to the server
  */
-public class SubmitSubmissionsTask extends AsyncTask<Submission, Integer, Integer> {
+public class SubmitSubmissionsTask extends AsyncTask<Void, Integer, Integer> {
 
+    private Iterator<Submission> submissions;
+    private int expected;
     private Listener listener;
     private int numFailed = 0;
 
-    public SubmitSubmissionsTask(Listener listener) {
+    /**
+     * Creates a new task
+     *
+     * @param submissions the submissions, which can be read lazily as they're iterated over
+     * @param expected    the number of submissions expected, to report progress against
+     * @param listener    the listener
+     */
+    public SubmitSubmissionsTask(Iterator<Submission> submissions, int expected, Listener listener) {
+        this.submissions = submissions;
+        this.expected = expected;
         this.listener = listener;
     }
 
     @Override
-    protected Integer doInBackground(Submission... submissions) {
-        int total = submissions.length;
-
+    protected Integer doInBackground(Void... params) {
         int s = 0;
-        for (Submission submission : submissions) {
+        while (submissions.hasNext()) {
+            Submission submission = submissions.next();
             try {
                 submission.submit();
             } catch (IOException | TembaException e) {
@@ -34,10 +45,10 @@ public class SubmitSubmissionsTask extends AsyncTask<Submission, Integer, Intege
             }
 
             s++;
-            publishProgress(100 * s / total);
+            publishProgress(100 * Math.min(s, expected) / Math.max(expected, 1));
         }
 
-        return total;
+        return s;
     }
 
     /**
@@ -0,0 +1,161 @@
+package io.rapidpro.surveyor.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.util.Map;
+
+/**
+ * Computes and applies the difference between two JSON values, e.g. a session before and after a
+ * sprint, so that only what changed needs to be saved. A delta is one of:
+ *
+ * <ul>
+ * <li><code>{"=": value}</code> - replace with the value</li>
+ * <li><code>{"{": {"name": delta|null, ...}}</code> - change the named members of an object,
+ * where null removes the member</li>
+ * <li><code>{"[": {"keep": n, "items": {"i": delta, ...}, "append": [values]}}</code> - keep the
+ * first n items of an array, changing those listed, and append the values</li>
+ * </ul>
+ *
+ * Arrays which grow at the end, such as a run's path and events, are only ever appended to.
+ */
+public class JsonDelta {
+
+    private static final String REPLACE = "=";
+    private static final String OBJECT = "{";
+    private static final String ARRAY = "[";
+
+    private JsonDelta() {
+    }
+
+    /**
+     * Gets the delta which turns one value into another
+     *
+     * @param from the original value
+     * @param to   the new value
+     * @return the delta or null if the values are equal
+     */
+    public static JsonElement diff(JsonElement from, JsonElement to) {
+        if (from.equals(to)) {
+            return null;
+        }
+
+        if (from.isJsonObject() && to.isJsonObject()) {
+            JsonObject a = from.getAsJsonObject();
+            JsonObject b = to.getAsJsonObject();
+            JsonObject members = new JsonObject();
+
+            for (Map.Entry<String, JsonElement> member : b.entrySet()) {
+                JsonElement old = a.get(member.getKey());
+                JsonElement delta = old != null ? diff(old, member.getValue()) : replace(member.getValue());
+                if (delta != null) {
+                    members.add(member.getKey(), delta);
+                }
+            }
+            for (Map.Entry<String, JsonElement> member : a.entrySet()) {
+                if (!b.has(member.getKey())) {
+                    members.add(member.getKey(), JsonNull.INSTANCE);
+                }
+            }
+
+            return wrap(OBJECT, members);
+        }
+
+        if (from.isJsonArray() && to.isJsonArray()) {
+            JsonArray a = from.getAsJsonArray();
+            JsonArray b = to.getAsJsonArray();
+            int keep = Math.min(a.size(), b.size());
+
+            JsonObject items = new JsonObject();
+            for (int i = 0; i < keep; i++) {
+                JsonElement delta = diff(a.get(i), b.get(i));
+                if (delta != null) {
+                    items.add(String.valueOf(i), delta);
+                }
+            }
+            JsonArray append = new JsonArray();
+            for (int i = keep; i < b.size(); i++) {
+                append.add(b.get(i));
+            }
+
+            JsonObject change = new JsonObject();
+            change.addProperty("keep", keep);
+            change.add("items", items);
+            change.add("append", append);
+            return wrap(ARRAY, change);
+        }
+
+        return replace(to);
+    }
+
+    /**
+     * Applies a delta to a value
+     *
+     * @param base  the value, which is left unchanged
+     * @param delta the delta or null if there is no change
+     * @return the new value
+     */
+    public static JsonElement apply(JsonElement base, JsonElement delta) {
+        if (delta == null || delta.isJsonNull()) {
+            return base;
+        }
+        if (!delta.isJsonObject()) {
+            throw new JsonParseException("Invalid delta: " + delta);
+        }
+
+        JsonObject d = delta.getAsJsonObject();
+        if (d.has(REPLACE)) {
+            return d.get(REPLACE);
+
+        } else if (d.has(OBJECT)) {
+            if (base == null || !base.isJsonObject()) {
+                throw new JsonParseException("Delta expects an object");
+            }
+
+            JsonObject result = new JsonObject();
+            for (Map.Entry<String, JsonElement> member : base.getAsJsonObject().entrySet()) {
+                result.add(member.getKey(), member.getValue());
+            }
+            for (Map.Entry<String, JsonElement> member : d.getAsJsonObject(OBJECT).entrySet()) {
+                if (member.getValue().isJsonNull()) {
+                    result.remove(member.getKey());
+                } else {
+                    result.add(member.getKey(), apply(result.get(member.getKey()), member.getValue()));
+                }
+            }
+            return result;
+
+        } else if (d.has(ARRAY)) {
+            if (base == null || !base.isJsonArray()) {
+                throw new JsonParseException("Delta expects an array");
+            }
+
+            JsonArray items = base.getAsJsonArray();
+            JsonObject change = d.getAsJsonObject(ARRAY);
+            int keep = change.get("keep").getAsInt();
+            JsonObject changed = change.getAsJsonObject("items");
+
+            JsonArray result = new JsonArray();
+            for (int i = 0; i < keep; i++) {
+                result.add(apply(items.get(i), changed.get(String.valueOf(i))));
+            }
+            result.addAll(change.getAsJsonArray("append"));
+            return result;
+        }
+
+        throw new JsonParseException("Invalid delta: " + delta);
+    }
+
+    private static JsonElement replace(JsonElement value) {
+        return wrap(REPLACE, value);
+    }
+
+    private static JsonElement wrap(String op, JsonElement value) {
+        JsonObject delta = new JsonObject();
+        delta.add(op, value);
+        return delta;
+    }
+}
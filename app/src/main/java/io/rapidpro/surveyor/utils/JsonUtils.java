@@ -2,15 +2,52 @@ package io.rapidpro.surveyor.utils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 public class JsonUtils {
-    private static Gson s_gson = new GsonBuilder()
-            //.setPrettyPrinting()
-            .registerTypeAdapter(RawJson.class, new RawJson.Adapter())
-            .create();
+    private static final String ENCODING = "UTF-8";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static volatile Gson s_gson = newBuilder().create();
+
+    private static GsonBuilder newBuilder() {
+        return new GsonBuilder()
+                //.setPrettyPrinting()
+                .registerTypeAdapter(RawJson.class, new RawJson.Adapter());
+    }
+
+    /**
+     * Registers type adapters with the shared Gson instance, replacing any registered before.
+     * Models live in other packages so register their own adapters, e.g. when the app is created.
+     *
+     * @param factory the factory of the adapters
+     */
+    public static void registerAdapters(TypeAdapterFactory factory) {
+        s_gson = newBuilder().registerTypeAdapterFactory(factory).create();
+    }
 
     public static Gson getGson() {
         return s_gson;
@@ -27,4 +64,301 @@ public class JsonUtils {
     public static <T> T unmarshal(String json, TypeToken type) {
         return s_gson.fromJson(json, type.getType());
     }
+
+    /**
+     * Writes the given object as JSON to the given writer, which is flushed but not closed
+     *
+     * @param src    the object
+     * @param writer the writer
+     */
+    public static void marshal(Object src, Writer writer) throws IOException {
+        try {
+            s_gson.toJson(src, writer);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the given object as UTF-8 encoded JSON to the given stream, which is flushed but not
+     * closed. Output is buffered so only a buffer's worth of it is ever held in memory.
+     *
+     * @param src the object
+     * @param out the stream
+     */
+    public static void marshal(Object src, OutputStream out) throws IOException {
+        marshal(src, new BufferedWriter(new OutputStreamWriter(out, ENCODING), BUFFER_SIZE));
+    }
+
+    /**
+     * Writes the given object as UTF-8 encoded JSON to the given file. It's written to a temporary
+     * file first and then renamed, so the file is replaced atomically.
+     *
+     * @param src  the object
+     * @param file the file
+     */
+    public static void marshal(Object src, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            marshal(src, out);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            FileUtils.deleteQuietly(temp);
+            throw new IOException("Unable to replace " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Reads an object from the JSON read from the given reader, which isn't closed
+     *
+     * @param reader the reader
+     * @param clazz  the type of object
+     * @return the object
+     */
+    public static <T> T unmarshal(Reader reader, Class<T> clazz) {
+        return s_gson.fromJson(reader, clazz);
+    }
+
+    /**
+     * Reads an object from the JSON read from the given reader, which isn't closed
+     *
+     * @param reader the reader
+     * @param type   the type of object
+     * @return the object
+     */
+    public static <T> T unmarshal(Reader reader, TypeToken type) {
+        return s_gson.fromJson(reader, type.getType());
+    }
+
+    /**
+     * Reads an object from the UTF-8 encoded JSON read from the given stream, which isn't closed
+     *
+     * @param in    the stream
+     * @param clazz the type of object
+     * @return the object
+     */
+    public static <T> T unmarshal(InputStream in, Class<T> clazz) throws IOException {
+        try {
+            return unmarshal(new InputStreamReader(in, ENCODING), clazz);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads an object from the UTF-8 encoded JSON read from the given stream, which isn't closed
+     *
+     * @param in   the stream
+     * @param type the type of object
+     * @return the object
+     */
+    public static <T> T unmarshal(InputStream in, TypeToken type) throws IOException {
+        try {
+            return JsonUtils.<T>unmarshal(new InputStreamReader(in, ENCODING), type);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads an object from the given UTF-8 encoded JSON file, without reading all of it into memory
+     *
+     * @param file  the file
+     * @param clazz the type of object
+     * @return the object
+     */
+    public static <T> T unmarshal(File file, Class<T> clazz) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return unmarshal(in, clazz);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads an object from the given UTF-8 encoded JSON file, without reading all of it into memory
+     *
+     * @param file the file
+     * @param type the type of object
+     * @return the object
+     */
+    public static <T> T unmarshal(File file, TypeToken type) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return JsonUtils.<T>unmarshal(in, type);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a string value, accepting the same values as Gson's own string adapter
+     *
+     * @param in the reader
+     * @return the string or null
+     */
+    public static String nextString(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return null;
+            case BOOLEAN:
+                return Boolean.toString(in.nextBoolean());
+            default:
+                return in.nextString();
+        }
+    }
+
+    /**
+     * Reads an int value, keeping the given value if it's null, as Gson does for primitive fields
+     *
+     * @param in      the reader
+     * @param current the current value
+     * @return the int
+     */
+    public static int nextInt(JsonReader in, int current) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        }
+        return in.nextInt();
+    }
+
+    /**
+     * Reads a boolean value, keeping the given value if it's null, as Gson does for primitive fields
+     *
+     * @param in      the reader
+     * @param current the current value
+     * @return the boolean
+     */
+    public static boolean nextBoolean(JsonReader in, boolean current) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return current;
+            case STRING:
+                return Boolean.parseBoolean(in.nextString());
+            default:
+                return in.nextBoolean();
+        }
+    }
+
+    /**
+     * Reads an array of strings
+     *
+     * @param in the reader
+     * @return the strings or null
+     */
+    public static String[] nextStringArray(JsonReader in) throws IOException {
+        List<String> values = nextStringList(in);
+        return values != null ? values.toArray(new String[values.size()]) : null;
+    }
+
+    /**
+     * Writes an array of strings
+     *
+     * @param out    the writer
+     * @param values the strings or null
+     */
+    public static void writeStringArray(JsonWriter out, String[] values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    /**
+     * Reads a list of strings
+     *
+     * @param in the reader
+     * @return the strings or null
+     */
+    public static List<String> nextStringList(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(nextString(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    /**
+     * Writes a list of strings
+     *
+     * @param out    the writer
+     * @param values the strings or null
+     */
+    public static void writeStringList(JsonWriter out, List<String> values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    /**
+     * Reads a list of values with the given adapter
+     *
+     * @param in      the reader
+     * @param adapter the adapter of each value
+     * @return the list or null
+     */
+    public static <T> List<T> nextList(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        List<T> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(adapter.read(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    /**
+     * Writes a list of values with the given adapter
+     *
+     * @param out     the writer
+     * @param values  the list or null
+     * @param adapter the adapter of each value
+     */
+    public static <T> void writeList(JsonWriter out, List<T> values, TypeAdapter<T> adapter) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginArray();
+        for (T value : values) {
+            adapter.write(out, value);
+        }
+        out.endArray();
+    }
 }
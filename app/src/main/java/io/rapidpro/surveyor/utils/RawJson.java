@@ -7,6 +7,8 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 
 /**
  * Custom data type for fields which hold raw JSON
@@ -14,31 +16,117 @@ import java.io.IOException;
 public class RawJson {
     private String data;
 
+    /**
+     * Parsed view of the data, only built if asked for
+     */
+    private JsonElement parsed;
+
     public RawJson(String data) {
         this.data = data;
     }
 
+    /**
+     * Opens a reader over this JSON, for consumers which only need to pull a few values from it
+     *
+     * @return the reader
+     */
+    public JsonReader newReader() {
+        return new JsonReader(new StringReader(data));
+    }
+
+    /**
+     * Gets this JSON parsed into a tree, which is parsed on first use and then kept
+     *
+     * @return the parsed JSON
+     */
+    public synchronized JsonElement getParsed() {
+        if (parsed == null) {
+            parsed = new JsonParser().parse(data);
+        }
+        return parsed;
+    }
+
     @Override
     public String toString() {
         return this.data;
     }
 
     /**
-     * Type adapter to tell Gson how to use fields of this type
+     * Type adapter to tell Gson how to use fields of this type. Values are read by copying their
+     * tokens straight to a buffer, so no tree is ever built.
      */
     public static class Adapter extends TypeAdapter<RawJson> {
         @Override
         public void write(JsonWriter out, RawJson value) throws IOException {
-            out.jsonValue(value.toString());
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.jsonValue(value.toString());
+            }
         }
 
         @Override
         public RawJson read(JsonReader in) throws IOException {
-            // TODO ideally this wouldn't parse the entire tree into memory
-            // see https://github.com/google/gson/issues/1368
-            JsonElement parsed = new JsonParser().parse(in);
+            StringWriter buffer = new StringWriter();
+            JsonWriter out = new JsonWriter(buffer);
+            out.setLenient(true);
+
+            copy(in, out);
+
+            out.flush();
+            return new RawJson(buffer.toString());
+        }
 
-            return new RawJson(parsed.toString());
+        /**
+         * Copies the next value of the given reader to the given writer token by token. Nesting is
+         * tracked with a depth count rather than recursion so that deep values can't overflow the
+         * stack.
+         */
+        private static void copy(JsonReader in, JsonWriter out) throws IOException {
+            int depth = 0;
+            do {
+                switch (in.peek()) {
+                    case BEGIN_OBJECT:
+                        in.beginObject();
+                        out.beginObject();
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                        in.endObject();
+                        out.endObject();
+                        depth--;
+                        break;
+                    case BEGIN_ARRAY:
+                        in.beginArray();
+                        out.beginArray();
+                        depth++;
+                        break;
+                    case END_ARRAY:
+                        in.endArray();
+                        out.endArray();
+                        depth--;
+                        break;
+                    case NAME:
+                        out.name(in.nextName());
+                        break;
+                    case STRING:
+                        out.value(in.nextString());
+                        break;
+                    case NUMBER:
+                        // numbers are copied as their literal text so they're never reformatted
+                        out.jsonValue(in.nextString());
+                        break;
+                    case BOOLEAN:
+                        out.value(in.nextBoolean());
+                        break;
+                    case NULL:
+                        in.nextNull();
+                        out.nullValue();
+                        break;
+                    default:
+                        throw new IOException("Unexpected token " + in.peek() + " in raw JSON");
+                }
+            } while (depth > 0);
         }
     }
 }
@@ -1,6 +1,14 @@
 package io.rapidpro.surveyor.utils;
 
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import org.apache.commons.io.FileUtils;
+
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 
 /**
@@ -26,4 +34,46 @@ public class SurveyUtils {
         }
         return current;
     }
+
+    /**
+     * Writes a file by writing a temporary file and renaming it over the original, so that the
+     * file is either the old or the new content even if we're killed part way through
+     *
+     * @param file    the file
+     * @param content the new content
+     * @throws IOException if the file couldn't be written or replaced
+     */
+    public static void writeAtomically(File file, String content) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileUtils.writeStringToFile(temp, content, "UTF-8");
+
+        if (!temp.renameTo(file)) {
+            FileUtils.deleteQuietly(temp);
+            throw new IOException("Unable to replace " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Waits for changes to the entries of a directory, e.g. a file renamed into it, to be written
+     * to the storage device. Directories can't be synced before Lollipop so this does nothing there.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory couldn't be synced
+     */
+    public static void syncDirectory(File directory) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("Unable to sync directory " + directory.getAbsolutePath(), e);
+        }
+    }
 }
@@ -5,6 +5,8 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 
 import io.rapidpro.surveyor.utils.RawJson;
 
@@ -24,5 +26,39 @@ public class FlowTest {
         assertThat(summary.getName(), is("Two Questions"));
         assertThat(summary.getRevision(), is(24));
         assertThat(summary.getQuestionCount(), is(2));
+        assertThat(summary.getNodeCount(), is(7));
+        assertThat(summary.getDependencies(), is(Collections.<String>emptyList()));
+        assertThat(summary.getMediaTypes(), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void extractWithDependencies() {
+        String definition = "{\"uuid\": \"a6d5bf53-5e56-41bb-a5fc-8ba8ba47d4a1\", \"name\": \"Parent\", \"spec_version\": \"13.0.0\", \"revision\": 3, \"nodes\": [" +
+                "{\"actions\": [{\"type\": \"send_msg\", \"text\": \"Hi\"}, {\"type\": \"enter_flow\", \"flow\": {\"uuid\": \"f2a5c2a1-8d63-4ea0-bbdc-ad5dcb2e3ffd\", \"name\": \"Child\"}}]}," +
+                "{\"actions\": [{\"type\": \"enter_flow\", \"flow\": {\"uuid\": \"f2a5c2a1-8d63-4ea0-bbdc-ad5dcb2e3ffd\", \"name\": \"Child\"}}]}" +
+                "]}";
+
+        Flow summary = Flow.extract(new RawJson(definition));
+
+        assertThat(summary.getQuestionCount(), is(0));
+        assertThat(summary.getNodeCount(), is(2));
+        assertThat(summary.getDependencies(), is(Arrays.asList("f2a5c2a1-8d63-4ea0-bbdc-ad5dcb2e3ffd")));
+    }
+
+    @Test
+    public void extractWithMediaWaits() {
+        String definition = "{\"uuid\": \"a6d5bf53-5e56-41bb-a5fc-8ba8ba47d4a1\", \"name\": \"Multimedia\", \"spec_version\": \"13.0.0\", \"revision\": 1, \"nodes\": [" +
+                "{\"router\": {\"type\": \"switch\", \"wait\": {\"type\": \"msg\", \"hint\": {\"type\": \"image\"}}}}," +
+                "{\"router\": {\"wait\": {\"hint\": {\"type\": \"audio\"}, \"type\": \"msg\"}, \"type\": \"switch\"}}," +
+                "{\"router\": {\"type\": \"switch\", \"wait\": {\"type\": \"msg\", \"hint\": {\"type\": \"image\"}}}}," +
+                "{\"router\": {\"type\": \"switch\", \"wait\": {\"type\": \"msg\"}}}," +
+                "{\"router\": {\"type\": \"switch\", \"operand\": \"@input\"}}" +
+                "]}";
+
+        Flow summary = Flow.extract(new RawJson(definition));
+
+        assertThat(summary.getNodeCount(), is(5));
+        assertThat(summary.getQuestionCount(), is(4));
+        assertThat(summary.getMediaTypes(), is(Arrays.asList("image", "audio")));
     }
 }
@@ -0,0 +1,91 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MediaStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameContentIsSavedOnce() throws IOException {
+        File dir = new File(folder.getRoot(), "media");
+        MediaStore media = new MediaStore(dir);
+
+        File blob1 = media.save(new ByteArrayInputStream("hello".getBytes("UTF-8")), "JPG");
+        File blob2 = media.save(new ByteArrayInputStream("hello".getBytes("UTF-8")), "jpg");
+        File blob3 = media.save(new ByteArrayInputStream("goodbye".getBytes("UTF-8")), "jpg");
+
+        assertThat(blob1.getName(), is("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824.jpg"));
+        assertThat(blob2, is(blob1));
+        assertThat(blob3, is(not(blob1)));
+        assertThat(media.contains(blob1), is(true));
+        assertThat(media.contains(new File(folder.getRoot(), "other.jpg")), is(false));
+
+        // blobs are only deleted once every reference is released
+        media.release(blob1);
+        assertThat(blob1.exists(), is(true));
+        media.release(blob2);
+        assertThat(blob1.exists(), is(false));
+        assertThat(blob3.exists(), is(true));
+    }
+
+    @Test
+    public void uploadedUrlsAreRemembered() throws IOException {
+        File dir = new File(folder.getRoot(), "media");
+        MediaStore media = new MediaStore(dir);
+
+        File blob = media.save(new ByteArrayInputStream("hello".getBytes("UTF-8")), "jpg");
+        assertThat(media.getUploadedUrl(blob), is(nullValue()));
+
+        media.setUploadedUrl(blob, "http://uploads.rapidpro.io/hello.jpg");
+        media.release(blob);
+
+        // read back from disk, and reused if the same content is saved again
+        media = new MediaStore(dir);
+        blob = media.save(new ByteArrayInputStream("hello".getBytes("UTF-8")), "jpg");
+        assertThat(media.getUploadedUrl(blob), is("http://uploads.rapidpro.io/hello.jpg"));
+    }
+
+    @Test
+    public void onlyUnreferencedUploadedMediaIsEvicted() throws IOException {
+        File dir = new File(folder.getRoot(), "media");
+        MediaStore media = new MediaStore(dir);
+
+        File blob = media.save(new ByteArrayInputStream("hello".getBytes("UTF-8")), "jpg");
+        media.setUploadedUrl(blob, "http://uploads.rapidpro.io/hello.jpg");
+
+        // a submission which hasn't been sent still refers to it
+        assertThat(media.evictUploaded(100), is(0L));
+        assertThat(blob.exists(), is(true));
+
+        // simulate the last reference having been released without the blob being deleted
+        FileUtils.writeStringToFile(new File(dir, "index.json"), "{\"refs\":{},\"urls\":{\"" + blob.getName() + "\":\"http://uploads.rapidpro.io/hello.jpg\"}}", "UTF-8");
+        media = new MediaStore(dir);
+
+        assertThat(media.evictUploaded(100), is(5L));
+        assertThat(blob.exists(), is(false));
+
+        // and it's dropped from the index
+        assertThat(new MediaStore(dir).getUploadedUrl(blob), is(nullValue()));
+    }
+
+    @Test
+    public void parseRefs() {
+        assertThat(MediaStore.parseRefs("/a/1.jpg\n/a/2.mp4\n"), is(Arrays.asList(new File("/a/1.jpg"), new File("/a/2.mp4"))));
+        assertThat(MediaStore.parseRefs(""), is(Arrays.<File>asList()));
+    }
+}
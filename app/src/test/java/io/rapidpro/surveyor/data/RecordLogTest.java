@@ -0,0 +1,95 @@
+package io.rapidpro.surveyor.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class RecordLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendAndRead() throws IOException {
+        RecordLog log = new RecordLog(new File(folder.getRoot(), "events.log"));
+        assertThat(log.readAll(), is(Collections.<String>emptyList()));
+        assertThat(log.repair(), is(0));
+
+        log.append(Arrays.asList("{\"type\":\"msg_created\",\"text\":\"Héllo\"}", "{\"type\":\"msg_wait\"}"));
+        log.append(Collections.singletonList("{\"type\":\"msg_received\",\"text\":\"line\\nbreak\"}"));
+
+        assertThat(log.readAll(), is(Arrays.asList("{\"type\":\"msg_created\",\"text\":\"Héllo\"}", "{\"type\":\"msg_wait\"}", "{\"type\":\"msg_received\",\"text\":\"line\\nbreak\"}")));
+        assertThat(log.repair(), is(3));
+
+        RecordLog.Reader reader = log.openReader();
+        assertThat(reader.next(), is("{\"type\":\"msg_created\",\"text\":\"Héllo\"}"));
+        assertThat(reader.skip(), is(true));
+        assertThat(reader.next(), is("{\"type\":\"msg_received\",\"text\":\"line\\nbreak\"}"));
+        assertThat(reader.next(), is(nullValue()));
+        assertThat(reader.getValidLength(), is(log.getFile().length()));
+        reader.close();
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        RecordLog log = new RecordLog(new File(folder.getRoot(), "events.log"));
+        log.append(Arrays.asList("{\"type\":\"msg_created\"}", "{\"type\":\"msg_wait\"}"));
+        long validLength = log.getFile().length();
+
+        // simulate the app being killed part way through writing a record
+        log.append(Collections.singletonList("{\"type\":\"msg_received\"}"));
+        RandomAccessFile raf = new RandomAccessFile(log.getFile(), "rw");
+        raf.setLength(log.getFile().length() - 5);
+        raf.close();
+
+        assertThat(log.readAll(), is(Arrays.asList("{\"type\":\"msg_created\"}", "{\"type\":\"msg_wait\"}")));
+        assertThat(log.repair(), is(2));
+        assertThat(log.getFile().length(), is(validLength));
+
+        // appending after a repair leaves a readable log
+        log.append(Collections.singletonList("{\"type\":\"msg_received\"}"));
+        assertThat(log.readAll(), is(Arrays.asList("{\"type\":\"msg_created\"}", "{\"type\":\"msg_wait\"}", "{\"type\":\"msg_received\"}")));
+    }
+
+    @Test
+    public void corruptRecordIsTruncated() throws IOException {
+        RecordLog log = new RecordLog(new File(folder.getRoot(), "modifiers.log"));
+        log.append(Arrays.asList("{\"type\":\"name\"}", "{\"type\":\"language\"}"));
+
+        // flip a byte in the content of the last record so its checksum no longer matches
+        RandomAccessFile raf = new RandomAccessFile(log.getFile(), "rw");
+        raf.seek(log.getFile().length() - 3);
+        raf.write('X');
+        raf.close();
+
+        assertThat(log.readAll(), is(Collections.singletonList("{\"type\":\"name\"}")));
+        assertThat(log.repair(), is(1));
+    }
+
+    @Test
+    public void zeroFilledTailIsTruncated() throws IOException {
+        RecordLog log = new RecordLog(new File(folder.getRoot(), "events.log"));
+        log.append(Arrays.asList("{\"type\":\"msg_created\"}", "{\"type\":\"msg_wait\"}"));
+        long validLength = log.getFile().length();
+
+        // simulate the file system having extended the file before the next record reached storage
+        RandomAccessFile raf = new RandomAccessFile(log.getFile(), "rw");
+        raf.seek(validLength);
+        raf.write(new byte[8]);
+        raf.close();
+
+        assertThat(log.readAll(), is(Arrays.asList("{\"type\":\"msg_created\"}", "{\"type\":\"msg_wait\"}")));
+        assertThat(log.repair(), is(2));
+        assertThat(log.getFile().length(), is(validLength));
+    }
+}
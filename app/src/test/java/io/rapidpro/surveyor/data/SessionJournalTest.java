@@ -0,0 +1,130 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SessionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void checkpointAndRecover() throws IOException {
+        File directory = folder.newFolder();
+        File events = new File(directory, "events.jsonl");
+        File modifiers = new File(directory, "modifiers.jsonl");
+
+        SessionJournal journal = new SessionJournal(directory);
+        assertThat(journal.exists(), is(false));
+
+        FileUtils.writeStringToFile(events, "{\"type\":\"msg_created\"}\n");
+        journal.checkpoint("{\"status\":\"waiting\"}", events.length(), modifiers.length(), false);
+
+        assertThat(journal.exists(), is(true));
+        assertThat(journal.append(input("club", null, "{\"=\":1}"), false), is(1));
+        assertThat(journal.append(input("", "image/jpeg:content://1.jpg", "{\"=\":2}"), true), is(2));
+
+        journal.checkpoint("{\"status\":\"waiting\",\"runs\":[]}", events.length(), modifiers.length(), true);
+
+        assertThat(journal.append(new SessionJournal.Input("RED", null, Arrays.asList("{\"type\":\"name\"}"),
+                Arrays.asList("{\"type\":\"msg_received\"}"), "{\"{\":{\"status\":{\"=\":\"completed\"}}}"), false), is(1));
+
+        // events from the last sprint are written but the app is killed before another checkpoint
+        FileUtils.writeStringToFile(events, "{\"type\":\"msg_received\"}\n", true);
+        FileUtils.writeStringToFile(modifiers, "{\"type\":\"name\"}\n", true);
+
+        // recovering with a new journal instance returns the last checkpoint and the inputs since
+        List<SessionJournal.Input> inputs = new ArrayList<>();
+        String session = new SessionJournal(directory).recover(events, modifiers, inputs);
+
+        assertThat(session, is("{\"status\":\"waiting\",\"runs\":[]}"));
+        assertThat(inputs.size(), is(1));
+        assertThat(inputs.get(0).getText(), is("RED"));
+        assertThat(inputs.get(0).getAttachment(), is(nullValue()));
+        assertThat(inputs.get(0).getModifiers(), is(Arrays.asList("{\"type\":\"name\"}")));
+        assertThat(inputs.get(0).getEvents(), is(Arrays.asList("{\"type\":\"msg_received\"}")));
+
+        // and truncates the logs back to the checkpoint
+        assertThat(FileUtils.readFileToString(events), is("{\"type\":\"msg_created\"}\n"));
+        assertThat(modifiers.length(), is(0L));
+
+        journal.delete();
+        assertThat(journal.exists(), is(false));
+    }
+
+    @Test
+    public void recoverIgnoresPartialInput() throws IOException {
+        File directory = folder.newFolder();
+        File events = new File(directory, "events.jsonl");
+        File modifiers = new File(directory, "modifiers.jsonl");
+
+        SessionJournal journal = new SessionJournal(directory);
+        journal.checkpoint("{}", 0, 0, false);
+        journal.append(input("club", null, null), false);
+
+        FileUtils.writeStringToFile(new File(directory, "inputs.jsonl"), "{\"seq\":2,\"te", true);
+
+        List<SessionJournal.Input> inputs = new ArrayList<>();
+        new SessionJournal(directory).recover(events, modifiers, inputs);
+
+        assertThat(inputs.size(), is(1));
+        assertThat(inputs.get(0).getText(), is("club"));
+    }
+
+    @Test
+    public void applyRestoresSavedChanges() {
+        List<SessionJournal.Input> inputs = new ArrayList<>();
+        List<SessionJournal.Input> unsaved = new ArrayList<>();
+        inputs.add(input("club", null, "{\"{\":{\"runs\":{\"[\":{\"keep\":1,\"items\":{},\"append\":[\"b\"]}}}}"));
+        inputs.add(input("RED", null, "{\"{\":{\"status\":{\"=\":\"completed\"}}}"));
+
+        String session = SessionJournal.apply("{\"status\":\"waiting\",\"runs\":[\"a\"]}", inputs, unsaved);
+
+        assertThat(session, is("{\"status\":\"completed\",\"runs\":[\"a\",\"b\"]}"));
+        assertThat(inputs.size(), is(2));
+        assertThat(unsaved.size(), is(0));
+
+        // changes are saved every few inputs, and each includes the changes of the inputs before it
+        inputs = new ArrayList<>();
+        inputs.add(input("club", null, null));
+        inputs.add(input("RED", null, "{\"{\":{\"runs\":{\"=\":[]}}}"));
+        inputs.add(input("blue", null, null));
+        inputs.add(input("green", null, null));
+
+        session = SessionJournal.apply("{\"status\":\"waiting\",\"runs\":[\"a\"]}", inputs, unsaved);
+
+        assertThat(session, is("{\"status\":\"waiting\",\"runs\":[]}"));
+        assertThat(inputs.size(), is(2));
+        assertThat(unsaved.size(), is(2));
+        assertThat(unsaved.get(0).getText(), is("blue"));
+        assertThat(unsaved.get(1).getText(), is("green"));
+
+        // inputs journaled without their results can't be restored, nor can any after them
+        inputs = new ArrayList<>();
+        unsaved = new ArrayList<>();
+        inputs.add(new SessionJournal.Input("club", null, null, null, null));
+        inputs.add(input("RED", null, "{\"{\":{\"status\":{\"=\":\"completed\"}}}"));
+
+        session = SessionJournal.apply("{\"status\":\"waiting\",\"runs\":[\"a\"]}", inputs, unsaved);
+
+        assertThat(session, is("{\"status\":\"waiting\",\"runs\":[\"a\"]}"));
+        assertThat(inputs.size(), is(0));
+        assertThat(unsaved.size(), is(2));
+    }
+
+    private static SessionJournal.Input input(String text, String attachment, String delta) {
+        return new SessionJournal.Input(text, attachment, new ArrayList<String>(), new ArrayList<String>(), delta);
+    }
+}
@@ -0,0 +1,52 @@
+package io.rapidpro.surveyor.data;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SubmissionArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packAndRead() throws IOException {
+        File directory = new File(folder.getRoot(), "2f3a9c1e");
+        FileUtils.writeStringToFile(new File(directory, "session.json"), "{\"status\":\"completed\"}", "UTF-8");
+        FileUtils.writeStringToFile(new File(directory, "media/1.jpg"), "JPEG", "UTF-8");
+
+        SubmissionArchive archive = new SubmissionArchive(directory);
+        archive.pack(directory);
+        assertThat(archive.exists(), is(true));
+
+        // reads each open the archive when it's not held open
+        assertThat(archive.read("session.json"), is("{\"status\":\"completed\"}"));
+        assertThat(archive.has("events.log"), is(false));
+
+        // and share one open archive while it is, which closing a stream doesn't close
+        archive.hold();
+        try {
+            assertThat(archive.list("media"), is(Collections.singletonList("media/1.jpg")));
+
+            InputStream in = archive.open("media/1.jpg");
+            assertThat(IOUtils.toString(in, "UTF-8"), is("JPEG"));
+            in.close();
+
+            assertThat(archive.read("session.json"), is("{\"status\":\"completed\"}"));
+        } finally {
+            archive.close();
+        }
+
+        assertThat(archive.has("session.json"), is(true));
+    }
+}
@@ -0,0 +1,168 @@
+package io.rapidpro.surveyor.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SubmissionPersisterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void groupsSprintsUntilDrained() throws IOException {
+        RecordingStore store = new RecordingStore(folder.getRoot());
+        SubmissionPersister persister = new SubmissionPersister(submission(store), SubmissionPersister.Durability.GROUPED);
+
+        persister.save(null, events("m1"), events("e1", "e2"), "s1", null);
+        persister.save(input("club"), events(), events("e3"), null, null);
+        persister.save(input("RED"), events(), events("e4"), null, "s2");
+        persister.drain();
+
+        // written together with the logs flushed before each save of the session, and once at the end
+        assertThat(store.writes, is(Arrays.asList(
+                "open",
+                "modifiers [m1]", "events [e1, e2]", "flush", "checkpoint s1",
+                "input club", "modifiers []", "events [e3]",
+                "input RED", "modifiers []", "events [e4]", "flush", "session s2",
+                "flush"
+        )));
+
+        persister.close();
+
+        assertThat(store.writes.get(store.writes.size() - 1), is("close"));
+    }
+
+    @Test
+    public void syncsEachFlush() throws IOException {
+        RecordingStore store = new RecordingStore(folder.getRoot());
+        SubmissionPersister persister = new SubmissionPersister(submission(store), SubmissionPersister.Durability.SYNC);
+
+        persister.save(input("club"), events(), events("e1"), null, null);
+        persister.drain();
+
+        assertThat(store.writes, is(Arrays.asList("open", "input club", "modifiers []", "events [e1]", "flush sync")));
+    }
+
+    @Test
+    public void failuresAreKept() throws IOException {
+        RecordingStore store = new RecordingStore(folder.getRoot());
+        store.failOn = "RED";
+        SubmissionPersister persister = new SubmissionPersister(submission(store), SubmissionPersister.Durability.GROUPED);
+
+        persister.save(input("club"), events(), events("e1"), null, null);
+        persister.save(input("RED"), events(), events("e2"), null, null);
+        persister.save(input("blue"), events(), events("e3"), null, null);
+
+        IOException failure = null;
+        try {
+            persister.drain();
+            fail("expected drain to fail");
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        // nothing is written after the failed write
+        assertThat(store.writes, is(Arrays.asList("open", "input club", "modifiers []", "events [e1]")));
+
+        // and the failure is thrown until the persister is abandoned
+        try {
+            persister.save(input("green"), events(), events("e4"), null, null);
+            fail("expected save to fail");
+        } catch (IOException e) {
+            assertThat(e, is(sameInstance(failure)));
+        }
+        try {
+            persister.drain();
+            fail("expected drain to fail");
+        } catch (IOException e) {
+            assertThat(e, is(sameInstance(failure)));
+        }
+        assertThat(store.writes.size(), is(4));
+
+        persister.abandon();
+    }
+
+    private static Submission submission(SubmissionStore store) {
+        return new Submission(null, "bdd61538-5f50-4836-a8fb-acaafd64ddb1", new File("e878865e-c1d1-45a5-9216-b0303ed23c7e"), store);
+    }
+
+    private static SessionJournal.Input input(String text) {
+        return new SessionJournal.Input(text, null, events(), events(), "null");
+    }
+
+    private static List<String> events(String... payloads) {
+        return new ArrayList<>(Arrays.asList(payloads));
+    }
+
+    /**
+     * Store which only records what's written to it
+     */
+    private static class RecordingStore extends DirectorySubmissionStore {
+        private final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+
+        private String failOn;
+
+        RecordingStore(File rootDir) {
+            super(rootDir);
+        }
+
+        @Override
+        public Appender openAppender(Submission submission) {
+            writes.add("open");
+
+            return new Appender() {
+                @Override
+                public void appendEvents(List<String> events) {
+                    writes.add("events " + events);
+                }
+
+                @Override
+                public void appendModifiers(List<String> modifiers) {
+                    writes.add("modifiers " + modifiers);
+                }
+
+                @Override
+                public void flush(boolean sync) {
+                    writes.add(sync ? "flush sync" : "flush");
+                }
+
+                @Override
+                public void close() {
+                    writes.add("close");
+                }
+            };
+        }
+
+        @Override
+        public int saveInput(Submission submission, SessionJournal.Input input, boolean sync) throws IOException {
+            if (input.getText().equals(failOn)) {
+                throw new IOException("disk full");
+            }
+            writes.add("input " + input.getText());
+            return 1;
+        }
+
+        @Override
+        public void checkpointSession(Submission submission, String sessionJSON, boolean sync) {
+            writes.add("checkpoint " + sessionJSON);
+        }
+
+        @Override
+        public void saveSession(Submission submission, String sessionJSON) {
+            writes.add("session " + sessionJSON);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.rapidpro.surveyor.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class EventTest {
+
+    @Test
+    public void msgCreated() {
+        Event event = Event.fromJSON("{\"type\":\"msg_created\",\"created_on\":\"2019-11-26T16:26:40.153Z\",\"step_uuid\":\"f2d2bb47-9c43-4b0c-8b92-fb1b8a0d4f23\",\"msg\":{\"uuid\":\"2a3c2a36-7c5b-4ad3-a3a2-d7cd4e84c3b1\",\"urn\":null,\"text\":\"What is your favorite color?\",\"quick_replies\":[\"Red\",\"Blue\"]}}");
+
+        assertThat(event.type(), is("msg_created"));
+        assertThat(event.hasMsg(), is(true));
+        assertThat(event.getMsgText(), is("What is your favorite color?"));
+        assertThat(event.getMsgAttachments(), is(Collections.<String>emptyList()));
+        assertThat(event.getMsgQuickReplies(), is(Arrays.asList("Red", "Blue")));
+    }
+
+    @Test
+    public void msgReceived() {
+        // type can come after the message
+        Event event = Event.fromJSON("{\"msg\":{\"uuid\":\"0f4a2b3c-36cf-4a04-b3a1-2f0e2a7a6c0d\",\"text\":\"\",\"attachments\":[\"image/jpeg:content://io.rapidpro.surveyor/files/selfie.jpg\"]},\"type\":\"msg_received\"}");
+
+        assertThat(event.type(), is("msg_received"));
+        assertThat(event.hasMsg(), is(true));
+        assertThat(event.getMsgText(), is(""));
+        assertThat(event.getMsgAttachments(), is(Collections.singletonList("image/jpeg:content://io.rapidpro.surveyor/files/selfie.jpg")));
+    }
+
+    @Test
+    public void nonMsg() {
+        Event event = Event.fromJSON("{\"type\":\"run_result_changed\",\"name\":\"Beer\",\"value\":\"club\",\"extra\":{\"nested\":[1,2,{\"msg\":\"no\"}]}}");
+
+        assertThat(event.type(), is("run_result_changed"));
+        assertThat(event.hasMsg(), is(false));
+        assertThat(event.getMsgText(), is(nullValue()));
+    }
+}
@@ -0,0 +1,55 @@
+package io.rapidpro.surveyor.utils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JsonDeltaTest {
+
+    @Test
+    public void diffAndApply() {
+        assertThat(JsonDelta.diff(parse("{\"a\":[1,2]}"), parse("{\"a\":[1,2]}")), is(nullValue()));
+
+        assertRoundTrip("1", "\"one\"", "{\"=\":\"one\"}");
+        assertRoundTrip("{\"a\":1,\"b\":2}", "{\"a\":1,\"c\":3}", "{\"{\":{\"c\":{\"=\":3},\"b\":null}}");
+        assertRoundTrip("[1,2]", "[1,3,4]", "{\"[\":{\"keep\":2,\"items\":{\"1\":{\"=\":3}},\"append\":[4]}}");
+        assertRoundTrip("[1,2,3]", "[1]", "{\"[\":{\"keep\":1,\"items\":{},\"append\":[]}}");
+        assertRoundTrip(
+                "{\"status\":\"waiting\",\"runs\":[{\"path\":[{\"node\":\"n1\"}],\"results\":{}}]}",
+                "{\"status\":\"waiting\",\"runs\":[{\"path\":[{\"node\":\"n1\"},{\"node\":\"n2\"}],\"results\":{\"color\":{\"value\":\"red\"}}}]}",
+                "{\"{\":{\"runs\":{\"[\":{\"keep\":1,\"items\":{\"0\":{\"{\":{\"path\":{\"[\":{\"keep\":1,\"items\":{},\"append\":[{\"node\":\"n2\"}]}},\"results\":{\"{\":{\"color\":{\"=\":{\"value\":\"red\"}}}}}}},\"append\":[]}}}}"
+        );
+    }
+
+    @Test
+    public void applyLeavesBaseUnchanged() {
+        JsonElement base = parse("{\"a\":[1]}");
+        JsonElement delta = JsonDelta.diff(base, parse("{\"a\":[1,2]}"));
+
+        assertThat(JsonDelta.apply(base, delta).toString(), is("{\"a\":[1,2]}"));
+        assertThat(base.toString(), is("{\"a\":[1]}"));
+        assertThat(JsonDelta.apply(base, null), is(base));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void applyInvalidDelta() {
+        JsonDelta.apply(parse("[1]"), parse("{\"{\":{}}"));
+    }
+
+    private static void assertRoundTrip(String from, String to, String expectedDelta) {
+        JsonElement delta = JsonDelta.diff(parse(from), parse(to));
+
+        assertThat(delta.toString(), is(expectedDelta));
+        assertThat(JsonDelta.apply(parse(from), parse(delta.toString())), is(parse(to)));
+    }
+
+    private static JsonElement parse(String json) {
+        return new JsonParser().parse(json);
+    }
+}
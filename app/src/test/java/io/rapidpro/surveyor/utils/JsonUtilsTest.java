@@ -2,13 +2,24 @@ package io.rapidpro.surveyor.utils;
 
 import com.google.gson.JsonElement;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
 public class JsonUtilsTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void marshalAndUnmarshal() {
         TestObject obj1 = new TestObject("Bob", 55, new RawJson("{\"street\":\"Calle Larga\"}"));
@@ -23,6 +34,52 @@ public class JsonUtilsTest {
         assertThat(obj2.getAddress().toString(), is(obj1.getAddress().toString()));
     }
 
+    @Test
+    public void unmarshalRawJson() {
+        String json = "{\"name\":\"Bob\",\"number\":55,\"address\":{\"street\": \"Calle \\u00e9\\n\",\"numbers\": [1, 2.50, -3e5],\"flags\":[true,null,{}]}}";
+
+        TestObject obj = JsonUtils.unmarshal(json, TestObject.class);
+
+        // raw values are re-encoded without whitespace, but numbers keep their literal text
+        assertThat(obj.getAddress().toString(), is("{\"street\":\"Calle \u00e9\\n\",\"numbers\":[1,2.50,-3e5],\"flags\":[true,null,{}]}"));
+
+        JsonElement parsed = obj.getAddress().getParsed();
+        assertThat(parsed.getAsJsonObject().get("street").getAsString(), is("Calle \u00e9\n"));
+        assertThat(obj.getAddress().getParsed() == parsed, is(true));
+    }
+
+    @Test
+    public void marshalAndUnmarshalStreams() throws IOException {
+        TestObject obj1 = new TestObject("Bob \u00e9", 55, new RawJson("{\"street\":\"Calle Larga\"}"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.marshal(obj1, out);
+
+        assertThat(out.toString("UTF-8"), is(JsonUtils.marshal(obj1)));
+
+        TestObject obj2 = JsonUtils.unmarshal(new ByteArrayInputStream(out.toByteArray()), TestObject.class);
+
+        assertThat(obj2.getName(), is(obj1.getName()));
+        assertThat(obj2.getAddress().toString(), is(obj1.getAddress().toString()));
+    }
+
+    @Test
+    public void marshalAndUnmarshalFiles() throws IOException {
+        File file = new File(folder.getRoot(), "obj.json");
+        FileUtils.writeStringToFile(file, "old");
+
+        TestObject obj1 = new TestObject("Bob \u00e9", 55, new RawJson("{\"street\":\"Calle Larga\"}"));
+        JsonUtils.marshal(obj1, file);
+
+        assertThat(FileUtils.readFileToString(file, "UTF-8"), is(JsonUtils.marshal(obj1)));
+        assertThat(new File(folder.getRoot(), "obj.json.tmp").exists(), is(false));
+
+        TestObject obj2 = JsonUtils.unmarshal(file, TestObject.class);
+
+        assertThat(obj2.getName(), is(obj1.getName()));
+        assertThat(obj2.getNumber(), is(obj1.getNumber()));
+    }
+
     public static class TestObject {
         private String name;
         private int number;
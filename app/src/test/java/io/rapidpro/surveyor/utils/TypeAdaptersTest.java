@@ -0,0 +1,270 @@
+package io.rapidpro.surveyor.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.rapidpro.surveyor.data.Flow;
+import io.rapidpro.surveyor.data.ModelAdapters;
+import io.rapidpro.surveyor.data.Org;
+import io.rapidpro.surveyor.engine.FieldAsset;
+import io.rapidpro.surveyor.engine.GroupAsset;
+import io.rapidpro.surveyor.engine.LocationAsset;
+import io.rapidpro.surveyor.engine.OrgAssets;
+import io.rapidpro.surveyor.net.responses.Boundary;
+import io.rapidpro.surveyor.net.responses.Field;
+import io.rapidpro.surveyor.net.responses.Group;
+import io.rapidpro.surveyor.net.responses.PaginatedResults;
+import io.rapidpro.surveyor.net.responses.Token;
+import io.rapidpro.surveyor.net.responses.TokenResults;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that the hand-written type adapters registered by ModelAdapters read and write exactly
+ * what reflection would for every model they're registered for, whether fields are set, missing or
+ * null. A benchmark of how much faster they are on realistically sized payloads can be run by hand.
+ */
+public class TypeAdaptersTest {
+
+    /**
+     * Gson as it was before the adapters, i.e. reflecting over everything but raw JSON
+     */
+    private static final Gson REFLECTIVE = new GsonBuilder()
+            .registerTypeAdapter(RawJson.class, new RawJson.Adapter())
+            .create();
+
+    /**
+     * Gson with the hand-written adapters
+     */
+    private static final Gson ADAPTED = new GsonBuilder()
+            .registerTypeAdapter(RawJson.class, new RawJson.Adapter())
+            .registerTypeAdapterFactory(new ModelAdapters())
+            .create();
+
+    private static final Type FLOWS_TYPE = new TypeToken<List<Flow>>() {
+    }.getType();
+    private static final Type BOUNDARIES_TYPE = new TypeToken<PaginatedResults<Boundary>>() {
+    }.getType();
+    private static final Type API_FLOWS_TYPE = new TypeToken<PaginatedResults<io.rapidpro.surveyor.net.responses.Flow>>() {
+    }.getType();
+    private static final Type LOCATIONS_TYPE = new TypeToken<List<LocationAsset>>() {
+    }.getType();
+
+    /**
+     * Every model ModelAdapters has an adapter for
+     */
+    private static final List<Class<?>> ADAPTED_MODELS = Arrays.<Class<?>>asList(
+            Org.class, Flow.class, OrgAssets.class, FieldAsset.class, GroupAsset.class, LocationAsset.class,
+            io.rapidpro.surveyor.net.responses.Org.class, io.rapidpro.surveyor.net.responses.Flow.class,
+            Boundary.class, Field.class, Group.class, Token.class, TokenResults.class
+    );
+
+    @Test
+    public void everyModelIsAdapted() {
+        ModelAdapters adapters = new ModelAdapters();
+        for (Class<?> model : ADAPTED_MODELS) {
+            assertThat(model.getSimpleName(), adapters.create(ADAPTED, TypeToken.get(model)), is(notNullValue()));
+        }
+    }
+
+    @Test
+    public void emptyAndNullModels() {
+        for (Class<?> model : ADAPTED_MODELS) {
+            assertSameAsReflection("{}", model);
+            assertSameAsReflection("null", model);
+        }
+    }
+
+    @Test
+    public void orgDetails() {
+        assertSameAsReflection(orgDetailsJson(), Org.class);
+        assertSameAsReflection("{\"name\":\"Nyaruka\",\"token\":\"abc123\"}", Org.class);
+    }
+
+    @Test
+    public void flowSummaries() {
+        assertSameAsReflection(flowSummariesJson(200), FLOWS_TYPE);
+        assertSameAsReflection("[{\"uuid\":\"bdd61538-5f50-4836-a8fb-acaafd64ddb1\",\"name\":\"Old\",\"spec_version\":\"13.0.0\",\"revision\":\"3\",\"question_count\":null,\"unknown\":[1,{}]}]", FLOWS_TYPE);
+    }
+
+    @Test
+    public void orgAssets() {
+        assertSameAsReflection(orgAssetsJson(50, 20, 10, 40), OrgAssets.class);
+        assertSameAsReflection("{\"fields\":[],\"groups\":null,\"locations\":[],\"flows\":[]}", OrgAssets.class);
+
+        assertSameAsReflection("{\"key\":\"age\",\"name\":\"Age \\\"years\\\"\",\"type\":\"number\"}", FieldAsset.class);
+        assertSameAsReflection("{\"key\":\"age\",\"name\":null}", FieldAsset.class);
+        assertSameAsReflection("{\"uuid\":\"63867d07-c033-4ef1-957c-85fa9708c19c\",\"name\":\"Youth\",\"query\":\"age <= 18\"}", GroupAsset.class);
+        assertSameAsReflection("{\"uuid\":\"63867d07-c033-4ef1-957c-85fa9708c19c\",\"name\":\"Youth\",\"unknown\":{\"a\":[1]}}", GroupAsset.class);
+        assertSameAsReflection(locationsJson(3, 4), LOCATIONS_TYPE);
+        assertSameAsReflection("[{\"name\":\"Rwanda\",\"aliases\":null,\"children\":[{\"name\":\"Kigali\"}]}]", LOCATIONS_TYPE);
+    }
+
+    @Test
+    public void apiResponses() {
+        assertSameAsReflection(boundariesJson(10, 40), BOUNDARIES_TYPE);
+        assertSameAsReflection(apiFlowsJson(100), API_FLOWS_TYPE);
+        assertSameAsReflection("{\"key\":\"age\",\"label\":\"Age\",\"value_type\":\"numeric\"}", Field.class);
+        assertSameAsReflection("{\"uuid\":\"63867d07-c033-4ef1-957c-85fa9708c19c\",\"name\":\"Youth\",\"query\":\"age <= 18\"}", Group.class);
+        assertSameAsReflection("{\"uuid\":\"dc8123a1-168c-4962-ab9e-f784f3d804a2\",\"name\":\"Nyaruka\",\"country\":\"RW\",\"languages\":[\"eng\",\"fra\"],\"primary_language\":\"eng\",\"timezone\":\"Africa/Kigali\",\"date_style\":\"day_first\",\"anon\":false}", io.rapidpro.surveyor.net.responses.Org.class);
+        assertSameAsReflection("{\"tokens\":[{\"token\":\"abc123\",\"org\":{\"uuid\":\"dc8123a1-168c-4962-ab9e-f784f3d804a2\",\"name\":\"Nyaruka\"}},{\"token\":\"def456\"}]}", TokenResults.class);
+        assertSameAsReflection("{\"tokens\":[]}", TokenResults.class);
+        assertSameAsReflection("{\"token\":\"abc123\",\"org\":null}", Token.class);
+        assertSameAsReflection("{\"osm_id\":\"171496\",\"name\":\"Rwanda\",\"parent\":null,\"level\":0,\"aliases\":[\"Rwanda\"]}", Boundary.class);
+        assertSameAsReflection("{\"osm_id\":\"S1\",\"name\":\"State\",\"parent\":{\"osm_id\":\"171496\"},\"level\":1}", Boundary.class);
+        assertSameAsReflection("{\"uuid\":\"bdd61538-5f50-4836-a8fb-acaafd64ddb1\",\"name\":\"Survey\",\"type\":\"survey\",\"archived\":true,\"expires\":720}", io.rapidpro.surveyor.net.responses.Flow.class);
+        assertSameAsReflection("{\"uuid\":\"bdd61538-5f50-4836-a8fb-acaafd64ddb1\",\"name\":null,\"archived\":false}", io.rapidpro.surveyor.net.responses.Flow.class);
+        assertSameAsReflection("{\"key\":\"age\",\"label\":\"Age\"}", Field.class);
+        assertSameAsReflection("{\"uuid\":\"63867d07-c033-4ef1-957c-85fa9708c19c\",\"name\":\"Youth\",\"query\":null}", Group.class);
+        assertSameAsReflection("{\"uuid\":\"dc8123a1-168c-4962-ab9e-f784f3d804a2\",\"name\":\"Nyaruka\",\"languages\":[],\"anon\":true}", io.rapidpro.surveyor.net.responses.Org.class);
+    }
+
+    /**
+     * Not run by default as it only prints timings and takes a while
+     */
+    @Test
+    @Ignore("benchmark to be run by hand")
+    public void benchmark() {
+        benchmark("org details", orgDetailsJson(), Org.class, 20000);
+        benchmark("flow summaries", flowSummariesJson(300), FLOWS_TYPE, 200);
+        benchmark("locations", locationsJson(30, 40), LOCATIONS_TYPE, 100);
+        benchmark("org assets", orgAssetsJson(100, 50, 30, 40), OrgAssets.class, 100);
+        benchmark("boundaries page", boundariesJson(30, 40), BOUNDARIES_TYPE, 100);
+    }
+
+    /**
+     * Reads the given JSON with reflection and with the adapters, and checks that the adapters
+     * write what they read exactly as reflection would, and read back what they write unchanged
+     */
+    private static void assertSameAsReflection(String json, Type type) {
+        Object reflected = REFLECTIVE.fromJson(json, type);
+        Object adapted = ADAPTED.fromJson(json, type);
+
+        String expected = REFLECTIVE.toJson(reflected, type);
+
+        assertThat(json, ADAPTED.toJson(reflected, type), is(expected));
+        assertThat(json, ADAPTED.toJson(adapted, type), is(expected));
+        assertThat(json, ADAPTED.toJson(ADAPTED.fromJson(expected, type), type), is(expected));
+    }
+
+    private static void benchmark(String name, String json, Type type, int iterations) {
+        Object value = REFLECTIVE.fromJson(json, type);
+
+        // take the best of several runs so that we're not measuring class loading or the JIT
+        long reflective = Long.MAX_VALUE;
+        long adapted = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            reflective = Math.min(reflective, time(REFLECTIVE, json, value, type, iterations));
+            adapted = Math.min(adapted, time(ADAPTED, json, value, type, iterations));
+        }
+
+        System.out.println(String.format("%s (%d bytes): reflection %.1fms, adapters %.1fms (%.2fx)",
+                name, json.length(), reflective / 1e6, adapted / 1e6, (double) reflective / adapted));
+    }
+
+    private static long time(Gson gson, String json, Object value, Type type, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            gson.fromJson(json, type);
+            gson.toJson(value, type);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String orgDetailsJson() {
+        return "{\"token\":\"797d44ef78f7845de0f4dbb42d5174505563dd77\",\"name\":\"Nyaruka & Friends <Rwanda>\"," +
+                "\"primary_language\":\"kin\",\"languages\":[\"kin\",\"eng\",\"fra\"],\"timezone\":\"Africa/Kigali\"," +
+                "\"country\":\"RW\",\"date_style\":\"day_first\",\"anon\":true}";
+    }
+
+    private static String flowSummariesJson(int count) {
+        List<String> flows = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            StringBuilder flow = new StringBuilder();
+            flow.append("{\"uuid\":\"").append(uuid(f)).append("\",\"name\":\"Survey \\u00e9 #").append(f).append("\"");
+            flow.append(",\"spec_version\":\"13.").append(f % 3).append(".0\",\"revision\":").append(f * 7);
+            flow.append(",\"question_count\":").append(f % 12).append(",\"node_count\":").append(f % 40);
+            if (f % 2 == 0) {
+                flow.append(",\"media_types\":[\"image\",\"audio\"]");
+            }
+            if (f % 5 == 0) {
+                flow.append(",\"dependencies\":[\"").append(uuid(f + 1)).append("\"]");
+            }
+            if (f % 4 != 0) {
+                flow.append(",\"compatibility\":\"").append(f % 4 == 3 ? "needs_upgrade" : "supported").append("\",\"checked_spec_version\":\"13.1.0\"");
+            }
+            flow.append("}");
+            flows.add(flow.toString());
+        }
+        return "[" + join(flows) + "]";
+    }
+
+    private static String locationsJson(int states, int districtsPerState) {
+        PaginatedResults<Boundary> page = REFLECTIVE.fromJson(boundariesJson(states, districtsPerState), BOUNDARIES_TYPE);
+        List<LocationAsset> locations = new ArrayList<>();
+        locations.add(LocationAsset.fromTemba(page.getResults()));
+        return REFLECTIVE.toJson(locations, LOCATIONS_TYPE);
+    }
+
+    private static String orgAssetsJson(int fields, int groups, int states, int districtsPerState) {
+        List<String> fieldAssets = new ArrayList<>();
+        for (int f = 0; f < fields; f++) {
+            fieldAssets.add("{\"key\":\"field_" + f + "\",\"name\":\"Field " + f + "\",\"type\":\"" + (f % 2 == 0 ? "text" : "number") + "\"}");
+        }
+        List<String> groupAssets = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            groupAssets.add("{\"uuid\":\"" + uuid(g) + "\",\"name\":\"Group " + g + "\"" + (g % 3 == 0 ? ",\"query\":\"age > " + g + "\"" : "") + "}");
+        }
+        String locations = locationsJson(states, districtsPerState);
+        String flows = "[{\"uuid\":\"" + uuid(0) + "\",\"name\":\"Registration\",\"nodes\":[{\"uuid\":\"" + uuid(1) + "\",\"actions\":[],\"exits\":[{\"uuid\":\"" + uuid(2) + "\"}]}]}]";
+
+        return "{\"fields\":[" + join(fieldAssets) + "],\"groups\":[" + join(groupAssets) + "],\"locations\":" + locations + ",\"flows\":" + flows + "}";
+    }
+
+    private static String boundariesJson(int states, int districtsPerState) {
+        List<String> boundaries = new ArrayList<>();
+        boundaries.add("{\"osm_id\":\"171496\",\"name\":\"Rwanda\",\"parent\":null,\"level\":0,\"aliases\":[\"Rwanda\",\"U Rwanda\"]}");
+        for (int s = 0; s < states; s++) {
+            String stateId = "S" + s;
+            boundaries.add("{\"osm_id\":\"" + stateId + "\",\"name\":\"State " + s + "\",\"parent\":{\"osm_id\":\"171496\",\"name\":\"Rwanda\"},\"level\":1,\"aliases\":[]}");
+            for (int d = 0; d < districtsPerState; d++) {
+                boundaries.add("{\"osm_id\":\"" + stateId + "D" + d + "\",\"name\":\"District " + s + "/" + d + "\",\"parent\":{\"osm_id\":\"" + stateId + "\",\"name\":\"State " + s + "\"},\"level\":2,\"aliases\":[\"D" + d + "\"]}");
+            }
+        }
+        return "{\"next\":\"http://rapidpro.io/api/v2/boundaries.json?cursor=abc\",\"previous\":null,\"results\":[" + join(boundaries) + "]}";
+    }
+
+    private static String apiFlowsJson(int count) {
+        List<String> flows = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            flows.add("{\"uuid\":\"" + uuid(f) + "\",\"name\":\"Survey " + f + "\",\"type\":\"survey\",\"archived\":" + (f % 9 == 0) + ",\"labels\":[],\"expires\":10080,\"runs\":{\"active\":0,\"completed\":" + f + "}}");
+        }
+        return "{\"next\":null,\"previous\":null,\"results\":[" + join(flows) + "]}";
+    }
+
+    private static String uuid(int n) {
+        return String.format("%08x-71f1-4d54-8dd6-f7a94b685d06", n);
+    }
+
+    private static String join(List<String> items) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(items.get(i));
+        }
+        return sb.toString();
+    }
+}